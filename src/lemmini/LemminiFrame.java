@@ -56,10 +56,12 @@ import lemmini.game.LemmCursor;
 import lemmini.game.LemmException;
 import lemmini.game.Lemming;
 import lemmini.game.LevelPack;
+import lemmini.game.ReplayVerifier;
 import lemmini.game.ResourceException;
 import lemmini.game.Vsfx;
 import lemmini.gameutil.Fader;
 import lemmini.graphics.LemmImage;
+import lemmini.graphics.ScreenScaler;
 import lemmini.sound.Music;
 import lemmini.tools.ToolBox;
 
@@ -522,13 +524,19 @@ public class LemminiFrame extends JFrame {
 
         switch (GameController.getGameState()) {
             case LEVEL:
+                // any key ends the skip mode
+                if (GameController.isSkipping()) {
+                    GameController.stopSkip();
+                    evt.consume();
+                    break;
+                }
                 switch (code) {
                     case KeyEvent.VK_1:
                     case KeyEvent.VK_F3:
                         if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(1);
                         else
-                            GameController.handleIconButton(Icons.IconType.CLIMB);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.CLIMB));
                         break;
                     case KeyEvent.VK_2:
                     case KeyEvent.VK_F4:
@@ -537,7 +545,7 @@ public class LemminiFrame extends JFrame {
                         else if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(2);
                         else
-                            GameController.handleIconButton(Icons.IconType.FLOAT);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.FLOAT));
                         break;
                     case KeyEvent.VK_3:
                     case KeyEvent.VK_F5:
@@ -546,28 +554,28 @@ public class LemminiFrame extends JFrame {
                         else if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(3);
                         else
-                            GameController.handleIconButton(Icons.IconType.BOMB);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.BOMB));
                         break;
                     case KeyEvent.VK_4:
                     case KeyEvent.VK_F6:
                         if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(4);
                         else
-                            GameController.handleIconButton(Icons.IconType.BLOCK);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.BLOCK));
                         break;
                     case KeyEvent.VK_5:
                     case KeyEvent.VK_F7:
                         if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(5);
                         else
-                            GameController.handleIconButton(Icons.IconType.BUILD);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.BUILD));
                         break;
                     case KeyEvent.VK_6:
                     case KeyEvent.VK_F8:
                         if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(6);
                         else
-                            GameController.handleIconButton(Icons.IconType.BASH);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.BASH));
                         break;
                     case KeyEvent.VK_7:
                     case KeyEvent.VK_F9:
@@ -576,7 +584,7 @@ public class LemminiFrame extends JFrame {
                         else if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(7);
                         else
-                            GameController.handleIconButton(Icons.IconType.MINE);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.MINE));
                         break;
                     case KeyEvent.VK_8:
                     case KeyEvent.VK_F10:
@@ -585,7 +593,7 @@ public class LemminiFrame extends JFrame {
                         else if (lemminiPanelMain.getDebugDraw())
                             lemminiPanelMain.setDrawBrushSize(8);
                         else
-                            GameController.handleIconButton(Icons.IconType.DIG);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.DIG));
                         break;
                     case KeyEvent.VK_9:
                         if (lemminiPanelMain.getDebugDraw())
@@ -599,13 +607,13 @@ public class LemminiFrame extends JFrame {
                         if (lemminiPanelMain.isControlPressed())
                             handleHotkeys();
                         else
-                            togglePause();
+                            GameController.post(this::togglePause);
                         break;
                     case KeyEvent.VK_F12:
                         if (lemminiPanelMain.isControlPressed())
                             handleAbout();
                         else
-                            GameController.handleIconButton(Icons.IconType.NUKE);
+                            GameController.post(() -> GameController.handleIconButton(Icons.IconType.NUKE));
                         break;
                     case KeyEvent.VK_L:
                         if (lemminiPanelMain.isControlPressed())
@@ -641,8 +649,12 @@ public class LemminiFrame extends JFrame {
                         break;
                     case KeyEvent.VK_W:
                         if (Core.player.isDebugMode()) {
-                            GameController.setNumExited(GameController.getNumLemmingsMax());
-                            GameController.endLevel();
+                            GameController.post(() -> {
+                                if (GameController.getGameState() == GameController.State.LEVEL) {
+                                    GameController.setNumExited(GameController.getNumLemmingsMax());
+                                    GameController.endLevel();
+                                }
+                            });
                         }
                         break;
                     case KeyEvent.VK_I: // show/hide debug cursor info
@@ -651,38 +663,44 @@ public class LemminiFrame extends JFrame {
                         if (lemminiPanelMain.isControlPressed()) {
                             lemminiPanelMain.handleSaveReplay();
                         }
-                        GameController.setVerticalLock(!GameController.isVerticalLock());
-                        GameController.pressIcon(Icons.IconType.VLOCK);
+                        GameController.post(() -> {
+                            GameController.setVerticalLock(!GameController.isVerticalLock());
+                            GameController.pressIcon(Icons.IconType.VLOCK);
+                        });
                         break;
                     case KeyEvent.VK_V:
                         saveLevelAsImage();
                         break;
                     case KeyEvent.VK_U: // superlemming on/off
                         if (Core.player.isDebugMode()) {
-                            GameController.setSuperLemming(!GameController.isSuperLemming());
+                            GameController.post(() -> GameController.setSuperLemming(!GameController.isSuperLemming()));
                         }
                         break;
                     case KeyEvent.VK_X:
-                        GameController.stopReplayMode();
+                        GameController.post(GameController::stopReplayMode);
                         break;
                     case KeyEvent.VK_SPACE:
                     case KeyEvent.VK_P:
-                        togglePause();
+                        GameController.post(this::togglePause);
                         break;
                     case KeyEvent.VK_F:
                     case KeyEvent.VK_ENTER: //F or ENTER toggles Fast-Forward
-                        GameController.setTurbo(false);
-                        GameController.setFastForward(!GameController.isFastForward());
-                        GameController.pressIcon(Icons.IconType.FFWD);
+                        GameController.post(() -> {
+                            GameController.setTurbo(false);
+                            GameController.setFastForward(!GameController.isFastForward());
+                            GameController.pressIcon(Icons.IconType.FFWD);
+                        });
                         break;
                     case KeyEvent.VK_G:
-                        GameController.setTurbo(true);
-                        GameController.setFastForward(!GameController.isFastForward());
-                        GameController.pressIcon(Icons.IconType.FFWD);
+                        GameController.post(() -> {
+                            GameController.setTurbo(true);
+                            GameController.setFastForward(!GameController.isFastForward());
+                            GameController.pressIcon(Icons.IconType.FFWD);
+                        });
                         break;
                     case KeyEvent.VK_T:
                         if (Core.player.isDebugMode()) {
-                            GameController.setTimed(!GameController.isTimed());
+                            GameController.post(() -> GameController.setTimed(!GameController.isTimed()));
                         }
                         break;
                     case KeyEvent.VK_R: //CTRL-R restarts the level.
@@ -738,25 +756,49 @@ public class LemminiFrame extends JFrame {
                         break;
                     case KeyEvent.VK_N:
                         if (Core.player.isDebugMode()) {
-                            Lemming l = new Lemming(lemminiPanelMain.getCursorX(), lemminiPanelMain.getCursorY(), Lemming.Direction.RIGHT);
-                            GameController.addLemming(l);
-                            Vsfx v = new Vsfx(lemminiPanelMain.getCursorX(), lemminiPanelMain.getCursorY(), Vsfx.Vsfx_Index.YIPPEE);
-                            GameController.addVsfx(v);
+                            int cx = lemminiPanelMain.getCursorX();
+                            int cy = lemminiPanelMain.getCursorY();
+                            GameController.post(() -> {
+                                Lemming l = new Lemming(GameController.getSimulation(), cx, cy, Lemming.Direction.RIGHT);
+                                GameController.addLemming(l);
+                                Vsfx v = new Vsfx(cx, cy, Vsfx.Vsfx_Index.YIPPEE);
+                                GameController.addVsfx(v);
+                            });
                         }
                         break;
                     case KeyEvent.VK_PLUS:
                     case KeyEvent.VK_ADD:
                     case KeyEvent.VK_EQUALS:
                     case KeyEvent.VK_F2:
-                        GameController.pressPlus(GameController.KEYREPEAT_KEY);
+                        GameController.post(() -> GameController.pressPlus(GameController.KEYREPEAT_KEY));
                         break;
                     case KeyEvent.VK_MINUS:
                     case KeyEvent.VK_SUBTRACT:
                     case KeyEvent.VK_F1:
-                        GameController.pressMinus(GameController.KEYREPEAT_KEY);
+                        GameController.post(() -> GameController.pressMinus(GameController.KEYREPEAT_KEY));
+                        break;
+                    case KeyEvent.VK_COMMA:
+                        lemminiPanelMain.seekReplay(evt.isShiftDown() ? -60 : -10);
+                        break;
+                    case KeyEvent.VK_PERIOD:
+                        lemminiPanelMain.seekReplay(evt.isShiftDown() ? 60 : 10);
+                        break;
+                    case KeyEvent.VK_END:
+                        if (evt.isControlDown()) {
+                            lemminiPanelMain.handleSkipToFrame();
+                        } else {
+                            GameController.SkipCondition condition = evt.isShiftDown()
+                                    ? GameController.SkipCondition.ALL_RELEASED : GameController.SkipCondition.NONE;
+                            GameController.post(() -> GameController.startSkip(-1, condition));
+                        }
                         break;
                     case KeyEvent.VK_ESCAPE:
-                        GameController.endLevel();
+                        // the level might have ended before the command is executed
+                        GameController.post(() -> {
+                            if (GameController.getGameState() == GameController.State.LEVEL) {
+                                GameController.endLevel();
+                            }
+                        });
                         break;
                     default:
                         break;
@@ -1037,15 +1079,15 @@ public class LemminiFrame extends JFrame {
                 case KeyEvent.VK_ADD:
                 case KeyEvent.VK_EQUALS:
                 case KeyEvent.VK_F2:
-                    GameController.releasePlus(GameController.KEYREPEAT_KEY);
+                    GameController.post(() -> GameController.releasePlus(GameController.KEYREPEAT_KEY));
                     break;
                 case KeyEvent.VK_MINUS:
                 case KeyEvent.VK_SUBTRACT:
                 case KeyEvent.VK_F1:
-                    GameController.releaseMinus(GameController.KEYREPEAT_KEY);
+                    GameController.post(() -> GameController.releaseMinus(GameController.KEYREPEAT_KEY));
                     break;
                 case KeyEvent.VK_F12:
-                    GameController.releaseIcon(Icons.IconType.NUKE);
+                    GameController.post(() -> GameController.releaseIcon(Icons.IconType.NUKE));
                     break;
                 case KeyEvent.VK_LEFT:
                     if (GameController.isOptionEnabled(GameController.Option.ADVANCED_SELECT)) {
@@ -1156,11 +1198,66 @@ public class LemminiFrame extends JFrame {
         //write opening console log
         consoleInit();
 
+        Path level = null;
+        boolean verify = false;
+        Path verifyDir = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean compareParallelSensing = false;
+        boolean benchmarkScaling = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i].toLowerCase(Locale.ROOT)) {
+                case "-verify":
+                    verify = true;
+                    i++;
+                    if (i < args.length) {
+                        verifyDir = Paths.get(args[i]);
+                        System.out.println("argument detected: -VERIFY " + verifyDir.toString());
+                    } else {
+                        System.out.println("argument detected: -VERIFY, but no replay folder supplied.");
+                    }
+                    break;
+                case "-threads":
+                    i++;
+                    if (i < args.length) {
+                        threads = ToolBox.parseInt(args[i]);
+                        System.out.println("argument detected: -THREADS " + threads);
+                    }
+                    break;
+                case "-parallelsensing":
+                    compareParallelSensing = true;
+                    System.out.println("argument detected: -PARALLELSENSING");
+                    break;
+                case "-benchmarkscaling":
+                    benchmarkScaling = true;
+                    System.out.println("argument detected: -BENCHMARKSCALING");
+                    break;
+                case "-l":
+                    i++;
+                    if (i < args.length) {
+                        level = Paths.get(args[i]);
+                        System.out.println("argument detected: -L, but no level filename supplied.");
+                    } else {
+                        System.out.println("argument detected: -L " + level.toString());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        if (verify) {
+            // the verifier must never open a window, not even to report an error
+            System.setProperty("java.awt.headless", "true");
+        }
+
         /*
          * Check JVM version
          */
         if (!SystemUtils.isJavaVersionAtLeast(JavaVersion.JAVA_1_8)) {
             System.out.println("JVM >= 1.8 [FAIL]");
+            if (verify) {
+                System.exit(2);
+            }
             JOptionPane.showMessageDialog(null, "RetroLemmini requires JVM 1.8 or later.", "Error", JOptionPane.ERROR_MESSAGE);
             System.exit(1);
         } else {
@@ -1172,29 +1269,22 @@ public class LemminiFrame extends JFrame {
         long memReq = 96 * 1024 * 1024;
         if (free < memReq) {
             System.out.println("memory check: " + (int)(free / (1024*1024)) + "MB >= " + (int)(memReq / (1024*1024)) + "MB [FAIL]");
+            if (verify) {
+                System.exit(2);
+            }
             JOptionPane.showMessageDialog(null, "You need at least 96MB of heap.", "Error", JOptionPane.ERROR_MESSAGE);
             System.exit(1);
         } else {
             System.out.println("memory check: " + (int)(free / (1024*1024)) + "MB >= " + (int)(memReq / (1024*1024)) + "MB [PASS]");
         }
 
-        Path level = null;
-        for (int i = 0; i < args.length; i++) {
-            switch (args[i].toLowerCase(Locale.ROOT)) {
-                case "-l":
-                    i++;
-                    if (i < args.length) {
-                        level = Paths.get(args[i]);
-                        System.out.println("argument detected: -L, but no level filename supplied.");
-                    } else {
-                        System.out.println("argument detected: -L " + level.toString());
-                    }
-                    break;
-                default:
-                    break;
-            }
+        if (verify) {
+            System.exit((verifyDir == null) ? 2 : verifyReplays(verifyDir, threads, compareParallelSensing));
+        }
+        if (benchmarkScaling) {
+            ScreenScaler.benchmark();
+            System.exit(0);
         }
-
 
         System.out.println("applying system \"Look and Feel\" and system specific settings...");
         /*
@@ -1249,6 +1339,34 @@ public class LemminiFrame extends JFrame {
         }
     }
 
+    /**
+     * Verify all replays in a folder without opening a window.
+     * Any failure that keeps the replays from being verified at all (missing resources,
+     * unreadable folder, ...) results in exit code 2, so it can't be mistaken for a regression.
+     * @param dir folder of replays
+     * @param threads number of worker threads
+     * @param compareParallelSensing true: also compare the sequential and the two-phase Lemming update
+     * @return exit code: 0 if all replays passed, 1 if any failed, 2 on errors
+     */
+    private static int verifyReplays(final Path dir, final int threads, final boolean compareParallelSensing) {
+        try {
+            String currentFolderStr = URLDecoder.decode(LemminiFrame.class.getProtectionDomain().getCodeSource().getLocation().getFile(), "UTF-8");
+            if (!Core.init(currentFolderStr, true)) {
+                return 2;
+            }
+            GameController.initHeadless();
+            ReplayVerifier verifier = new ReplayVerifier(threads, ReplayVerifier.DEFAULT_MAX_FRAMES);
+            verifier.setCompareParallelSensing(compareParallelSensing);
+            return verifier.run(dir);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return 2;
+        } catch (Throwable ex) {
+            System.out.println("replay verification failed: " + ex);
+            return 2;
+        }
+    }
+
     void toggleMenuBarVisibility() {
         boolean shouldShowMenuBar;
 
@@ -18,25 +18,34 @@
  */
 package lemmini;
 
+import java.awt.AWTException;
+import java.awt.BorderLayout;
+import java.awt.BufferCapabilities;
+import java.awt.Canvas;
+import java.awt.Color;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Frame;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.HeadlessException;
-import java.awt.RenderingHints;
+import java.awt.ImageCapabilities;
+import java.awt.Toolkit;
 import java.awt.Transparency;
 import java.awt.event.InputEvent;
+import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.image.BufferStrategy;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
 
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JPopupMenu;
+import javax.swing.SwingUtilities;
+import javax.swing.ToolTipManager;
 
 import org.apache.commons.io.FilenameUtils;
 import org.apache.commons.lang3.BooleanUtils;
@@ -59,17 +68,23 @@ import lemmini.game.MiscGfx;
 import lemmini.game.MiscGfx.Index;
 import lemmini.game.Player;
 import lemmini.game.ReplayLevelInfo;
-import lemmini.game.SpriteObject;
+import lemmini.game.Simulation;
 import lemmini.game.Stencil;
 import lemmini.game.TextScreen;
 import lemmini.gameutil.Fader;
+import lemmini.graphics.AcceleratedImage;
 import lemmini.graphics.GraphicsBuffer;
 import lemmini.graphics.GraphicsContext;
 import lemmini.graphics.LemmImage;
+import lemmini.graphics.ScreenScaler;
+import lemmini.graphics.VolatileBuffer;
 import lemmini.gui.LevelCodeDialog;
 import lemmini.gui.LevelDialog;
 import lemmini.gui.OptionsDialog;
 import lemmini.gui.PlayerDialog;
+import lemmini.sound.Sound;
+import lemmini.tools.FixedTimestep;
+import lemmini.tools.PresentStats;
 import lemmini.tools.ToolBox;
 
 /**
@@ -182,9 +197,37 @@ public class LemminiPanel extends JPanel implements Runnable {
     private GraphicsBuffer outStrBuffer;
     /** offscreen image */
     private GraphicsBuffer offBuffer;
+    /** flag: draw in video memory if possible, false for pure software pipelines */
+    private final boolean acceleratedRendering = Core.programProps.getBoolean("acceleratedRendering", true);
+    /** offscreen image in video memory, or null if not available */
+    private VolatileBuffer accelBuffer;
+    /** flag: the last frame was drawn to {@link #accelBuffer} instead of {@link #offBuffer} */
+    private boolean accelFrame;
+    /** copy of the foreground image in video memory, or null if not available */
+    private AcceleratedImage fgCopy;
+    /** simulation whose terrain changes are passed to {@link #fgCopy} */
+    private Simulation fgCopySim;
+    /** scales the last frame to the screen */
+    private final ScreenScaler screenScaler = new ScreenScaler();
+    /** flag: only use integer scales, so pixels are never interpolated */
+    private final boolean integerScale = Core.programProps.getBoolean("integerScale", false);
+    /** flag: present frames from the game thread through a buffer strategy instead of repaint() */
+    private final boolean activeRendering = Core.programProps.getBoolean("activeRendering", false);
+    /** canvas covering the panel in active rendering mode, or null */
+    private Canvas canvas;
+    /** buffer strategy of the canvas, or null if it isn't displayable */
+    private volatile BufferStrategy strategy;
+    /** time the oldest input in the last drawn frame was queued, or 0 */
+    private long frameInputTime;
+    /** statistics of presented frames */
+    private final PresentStats presentStats = new PresentStats();
+    /** flag: print the frame timing and the presentation statistics at the end of each level */
+    private final boolean printFrameStats = Core.programProps.getBoolean("printFrameStats", false);
     /** monitoring object used for synchronized painting */
     private final Object paintSemaphore = new Object();
-    private boolean drawNextFrame;
+    /** pacing of the game loop */
+    private final FixedTimestep timestep = new FixedTimestep(GameController.NANOSEC_PER_FRAME,
+            Core.programProps.getInt("maxCatchUpFrames", 4));
     private int unmaximizedWidth = 0;
     private int unmaximizedHeight = 0;
 
@@ -199,10 +242,118 @@ public class LemminiPanel extends JPanel implements Runnable {
         holdingMinimap = false;
         shiftPressed = false;
         initComponents();
+        if (activeRendering) {
+            initCanvas();
+        }
         unmaximizedWidth = getWidth();
         unmaximizedHeight = getHeight();
     }
 
+    /**
+     * Cover the panel with a canvas that is drawn to from the game thread.
+     * The panel is still used for the input, so the mouse events of the canvas are passed on.
+     */
+    private void initCanvas() {
+        // the menus have to be heavyweight, otherwise they'd be hidden by the canvas
+        JPopupMenu.setDefaultLightWeightPopupEnabled(false);
+        ToolTipManager.sharedInstance().setLightWeightPopupEnabled(false);
+
+        canvas = new Canvas() {
+            @Override
+            public void addNotify() {
+                super.addNotify();
+                strategy = createStrategy(this);
+            }
+
+            @Override
+            public void removeNotify() {
+                strategy = null;
+                super.removeNotify();
+            }
+        };
+        canvas.setIgnoreRepaint(true);
+        canvas.setFocusable(false);
+        canvas.setBackground(Color.BLACK);
+        canvas.setPreferredSize(getPreferredSize());
+        MouseAdapter forward = new MouseAdapter() {
+            @Override
+            public void mousePressed(final MouseEvent e) {
+                forward(e);
+            }
+
+            @Override
+            public void mouseReleased(final MouseEvent e) {
+                forward(e);
+            }
+
+            @Override
+            public void mouseEntered(final MouseEvent e) {
+                forward(e);
+            }
+
+            @Override
+            public void mouseExited(final MouseEvent e) {
+                forward(e);
+            }
+
+            @Override
+            public void mouseMoved(final MouseEvent e) {
+                forward(e);
+            }
+
+            @Override
+            public void mouseDragged(final MouseEvent e) {
+                forward(e);
+            }
+
+            @Override
+            public void mouseWheelMoved(final MouseWheelEvent e) {
+                forward(e);
+            }
+
+            private void forward(final MouseEvent e) {
+                dispatchEvent(SwingUtilities.convertMouseEvent(canvas, e, LemminiPanel.this));
+            }
+        };
+        canvas.addMouseListener(forward);
+        canvas.addMouseMotionListener(forward);
+        canvas.addMouseWheelListener(forward);
+        setLayout(new BorderLayout());
+        add(canvas, BorderLayout.CENTER);
+    }
+
+    /**
+     * Create the buffer strategy of the canvas. Vertical sync is only available through an
+     * internal API of some Java2D pipelines, so it's requested by reflection and silently
+     * left out where it isn't supported.
+     * @param c canvas
+     * @return buffer strategy
+     */
+    private static BufferStrategy createStrategy(final Canvas c) {
+        int buffers = Math.max(Core.programProps.getInt("renderBuffers", 2), 2);
+        if (Core.programProps.getBoolean("vsync", false)) {
+            try {
+                Class<?> extCaps = Class.forName("sun.java2d.pipe.hw.ExtendedBufferCapabilities");
+                Class<?> vsyncType = Class.forName("sun.java2d.pipe.hw.ExtendedBufferCapabilities$VSyncType");
+                Object vsyncOn = null;
+                for (Object o : vsyncType.getEnumConstants()) {
+                    if (o.toString().equals("VSYNC_ON")) {
+                        vsyncOn = o;
+                    }
+                }
+                BufferCapabilities caps = new BufferCapabilities(new ImageCapabilities(true), new ImageCapabilities(true),
+                        BufferCapabilities.FlipContents.UNDEFINED);
+                c.createBufferStrategy(buffers, (BufferCapabilities) extCaps
+                        .getConstructor(BufferCapabilities.class, vsyncType).newInstance(caps, vsyncOn));
+                return c.getBufferStrategy();
+            } catch (ReflectiveOperationException | AWTException | RuntimeException ex) {
+                System.out.println("vsync not available: " + ex);
+            }
+        }
+        c.createBufferStrategy(buffers);
+        return c.getBufferStrategy();
+    }
+
     /**
      * Initialization.
      */
@@ -461,7 +612,7 @@ public class LemminiPanel extends JPanel implements Runnable {
             case LEVEL:
                 //  debug drawing
                 if (leftMousePressed || rightMousePressed) {
-                    debugDraw(x, y, leftMousePressed);
+                    GameController.post(() -> debugDraw(x, y, leftMousePressed));
                 }
                 if (buttonPressed == MouseEvent.BUTTON1) {
                     if (y >= getIconBarY() && y < getIconBarY() + Icons.getIconHeight()) {
@@ -469,19 +620,22 @@ public class LemminiPanel extends JPanel implements Runnable {
                         //clicking on icons
                         Icons.IconType type = GameController.getIconType(x - menuOffsetX - getIconBarX());
                         if (type != null) {
-                            GameController.handleIconButton(type);
+                            GameController.post(() -> GameController.handleIconButton(type));
                         }
                     } else {
                         //clicking on lemmings
-                        Lemming l = GameController.lemmUnderCursor(LemmCursor.getType());
-                        if (l != null) {
-                            GameController.requestSkill(l);
-                        } else if (y < LemminiFrame.LEVEL_HEIGHT) {
-                            GameController.stopReplayMode();
-                            if (!GameController.isOptionEnabled(GameController.SLTooOption.DISABLE_FRAME_STEPPING)) {
-                                GameController.advanceFrame();
+                        LemmCursor.CursorType cursorType = LemmCursor.getType();
+                        GameController.post(() -> {
+                            Lemming l = GameController.lemmUnderCursor(cursorType);
+                            if (l != null) {
+                                GameController.requestSkill(l);
+                            } else if (y < LemminiFrame.LEVEL_HEIGHT) {
+                                GameController.stopReplayMode();
+                                if (!GameController.isOptionEnabled(GameController.SLTooOption.DISABLE_FRAME_STEPPING)) {
+                                    GameController.advanceFrame();
+                                }
                             }
-                        }
+                        });
                     }
                     // check minimap mouse move
                     if (x >= getSmallX() + menuOffsetX && x < getSmallX() + menuOffsetX + Minimap.getVisibleWidth()
@@ -507,10 +661,10 @@ public class LemminiPanel extends JPanel implements Runnable {
                     shiftPressed = true;
                 }
                 if (buttonPressed == 4) {
-                    GameController.pressMinus(GameController.KEYREPEAT_KEY);
+                    GameController.post(() -> GameController.pressMinus(GameController.KEYREPEAT_KEY));
                 }
                 if (buttonPressed == 5) {
-                    GameController.pressPlus(GameController.KEYREPEAT_KEY);
+                    GameController.post(() -> GameController.pressPlus(GameController.KEYREPEAT_KEY));
                 }
                 break;
             default:
@@ -533,18 +687,20 @@ public class LemminiPanel extends JPanel implements Runnable {
                     if (y > getIconBarY() && y < getIconBarY() + Icons.getIconHeight()) {
                         Icons.IconType type = GameController.getIconType(x - menuOffsetX - getIconBarX());
                         if (type != null) {
-                            GameController.releaseIcon(type);
+                            GameController.post(() -> GameController.releaseIcon(type));
                         }
                     }
                     // always release icons which don't stay pressed
                     // this is to avoid the icons get stuck when they're pressed,
                     // the the mouse is dragged out and released outside
-                    GameController.releasePlus(GameController.KEYREPEAT_ICON);
-                    GameController.releaseMinus(GameController.KEYREPEAT_ICON);
-                    GameController.releaseIcon(Icons.IconType.MINUS);
-                    GameController.releaseIcon(Icons.IconType.PLUS);
-                    GameController.releaseIcon(Icons.IconType.NUKE);
-                    GameController.releaseIcon(Icons.IconType.RESTART);
+                    GameController.post(() -> {
+                        GameController.releasePlus(GameController.KEYREPEAT_ICON);
+                        GameController.releaseMinus(GameController.KEYREPEAT_ICON);
+                        GameController.releaseIcon(Icons.IconType.MINUS);
+                        GameController.releaseIcon(Icons.IconType.PLUS);
+                        GameController.releaseIcon(Icons.IconType.NUKE);
+                        GameController.releaseIcon(Icons.IconType.RESTART);
+                    });
                 }
                 if (buttonPressed == (swapButtons ? MouseEvent.BUTTON2 : MouseEvent.BUTTON3)) {
                     switch (LemmCursor.getType()) {
@@ -563,10 +719,10 @@ public class LemminiPanel extends JPanel implements Runnable {
                     shiftPressed = false;
                 }
                 if (buttonPressed == 4) {
-                    GameController.releaseMinus(GameController.KEYREPEAT_KEY);
+                    GameController.post(() -> GameController.releaseMinus(GameController.KEYREPEAT_KEY));
                 }
                 if (buttonPressed == 5) {
-                    GameController.releasePlus(GameController.KEYREPEAT_KEY);
+                    GameController.post(() -> GameController.releasePlus(GameController.KEYREPEAT_KEY));
                 }
                 evt.consume();
                 break;
@@ -592,17 +748,19 @@ public class LemminiPanel extends JPanel implements Runnable {
                 int y = Core.unscale(evt.getY());
                 if (GameController.isOptionEnabled(GameController.Option.SWAP_BUTTONS)
                         ? rightMousePressed : middleMousePressed) {
-                    int xOfsTemp = GameController.getXPos() + (x - mouseDragStartX);
-                    GameController.setXPos(xOfsTemp);
-                    if (!GameController.isVerticalLock()) {
-                        int yOfsTemp = GameController.getYPos() + (y - mouseDragStartY);
-                        GameController.setYPos(yOfsTemp);
-                    }
-                    Minimap.adjustXPos();
+                    int dx = x - mouseDragStartX;
+                    int dy = y - mouseDragStartY;
+                    GameController.post(() -> {
+                        GameController.setXPos(GameController.getXPos() + dx);
+                        if (!GameController.isVerticalLock()) {
+                            GameController.setYPos(GameController.getYPos() + dy);
+                        }
+                        Minimap.adjustXPos();
+                    });
                 }
                 // debug drawing
                 if (leftMousePressed || rightMousePressed) {
-                    debugDraw(x, y, leftMousePressed);
+                    GameController.post(() -> debugDraw(x, y, leftMousePressed));
                 }
                 formMouseMoved(evt);
                 evt.consume();
@@ -661,15 +819,17 @@ public class LemminiPanel extends JPanel implements Runnable {
     private void formMouseWheelMoved(java.awt.event.MouseWheelEvent evt) {//GEN-FIRST:event_formMouseWheelMoved
         if (GameController.getGameState() == GameController.State.LEVEL && !GameController.isOptionEnabled(GameController.SLTooOption.DISABLE_SCROLL_WHEEL)) {
             int wheelRotation = evt.getWheelRotation();
-            if (wheelRotation > 0) {
-                for (int i = 0; i < wheelRotation; i++) {
-                    GameController.nextSkill();
-                }
-            } else if (wheelRotation < 0) {
-                for (int i = 0; i > wheelRotation; i--) {
-                    GameController.previousSkill();
+            GameController.post(() -> {
+                if (wheelRotation > 0) {
+                    for (int i = 0; i < wheelRotation; i++) {
+                        GameController.nextSkill();
+                    }
+                } else if (wheelRotation < 0) {
+                    for (int i = 0; i > wheelRotation; i--) {
+                        GameController.previousSkill();
+                    }
                 }
-            }
+            });
         }
     }//GEN-LAST:event_formMouseWheelMoved
 
@@ -684,19 +844,67 @@ public class LemminiPanel extends JPanel implements Runnable {
 
     @Override
     public void paint(final Graphics g) {
-        Graphics2D g2 = (Graphics2D) g;
+        if (canvas != null) {
+            // the canvas covers the panel and is drawn by the game thread
+            return;
+        }
         synchronized (paintSemaphore) {
             if (offBuffer != null) {
-                g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                        Core.isBilinear()
-                                ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
-                                : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-                g2.drawImage(offBuffer.getImage().getImage(),
-                        0, 0, Core.getScaledDrawWidth(), Core.getScaledDrawHeight(), null);
+                drawFrame((Graphics2D) g);
+                presentStats.presented(System.nanoTime(), frameInputTime);
+                frameInputTime = 0;
             }
         }
     }
 
+    /**
+     * Draw the last frame scaled to the screen.
+     * @param g2 graphics of the screen
+     */
+    private void drawFrame(final Graphics2D g2) {
+        screenScaler.setScale(Core.getScale(), Core.isBilinear());
+        if (accelFrame) {
+            // if the contents were lost, the next frame is drawn soon enough
+            accelBuffer.draw(g2, screenScaler);
+        } else {
+            screenScaler.draw(g2, offBuffer.getImage().getImage());
+        }
+    }
+
+    /**
+     * Show the last frame on the canvas in active rendering mode.
+     */
+    private void present() {
+        BufferStrategy bs = strategy;
+        if (bs == null) {
+            return;
+        }
+        do {
+            do {
+                Graphics2D g2 = (Graphics2D) bs.getDrawGraphics();
+                try {
+                    g2.setBackground(Color.BLACK);
+                    g2.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+                    drawFrame(g2);
+                } finally {
+                    g2.dispose();
+                }
+            } while (bs.contentsRestored());
+            bs.show();
+        } while (bs.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+        presentStats.presented(System.nanoTime(), frameInputTime);
+        frameInputTime = 0;
+    }
+
+    /**
+     * Get the statistics of presented frames.
+     * @return statistics of presented frames
+     */
+    public PresentStats getPresentStats() {
+        return presentStats;
+    }
+
     @Override
     public void update(final Graphics g) {
         paint(g);
@@ -709,12 +917,14 @@ public class LemminiPanel extends JPanel implements Runnable {
         rightPressed = false;
         upPressed = false;
         downPressed = false;
-        GameController.releasePlus(GameController.KEYREPEAT_ICON | GameController.KEYREPEAT_KEY);
-        GameController.releaseMinus(GameController.KEYREPEAT_ICON | GameController.KEYREPEAT_KEY);
-        GameController.releaseIcon(Icons.IconType.MINUS);
-        GameController.releaseIcon(Icons.IconType.PLUS);
-        GameController.releaseIcon(Icons.IconType.NUKE);
-        GameController.releaseIcon(Icons.IconType.RESTART);
+        GameController.post(() -> {
+            GameController.releasePlus(GameController.KEYREPEAT_ICON | GameController.KEYREPEAT_KEY);
+            GameController.releaseMinus(GameController.KEYREPEAT_ICON | GameController.KEYREPEAT_KEY);
+            GameController.releaseIcon(Icons.IconType.MINUS);
+            GameController.releaseIcon(Icons.IconType.PLUS);
+            GameController.releaseIcon(Icons.IconType.NUKE);
+            GameController.releaseIcon(Icons.IconType.RESTART);
+        });
         LemmCursor.setBox(false);
         setCursor(LemmCursor.CursorType.NORMAL);
         isFocused = false;
@@ -735,7 +945,11 @@ public class LemminiPanel extends JPanel implements Runnable {
         }
 
         synchronized (paintSemaphore) {
-            GraphicsContext offGfx = offBuffer.getGraphicsContext();
+            GraphicsContext offGfx = (accelBuffer == null) ? null : accelBuffer.createGraphicsContext();
+            accelFrame = offGfx != null;
+            if (!accelFrame) {
+                offGfx = offBuffer.getGraphicsContext();
+            }
 
             switch (GameController.getGameState()) {
                 case INTRO:
@@ -772,7 +986,12 @@ public class LemminiPanel extends JPanel implements Runnable {
                             GameController.getLevel().drawBehindObjects(offGfx, width, height, xOfsTemp, yOfsTemp);
 
                             // draw foreground
-                            offGfx.drawImage(fgImage, 0, 0, width, levelHeight, xOfsTemp, yOfsTemp, xOfsTemp + width, yOfsTemp + levelHeight);
+                            if (accelFrame) {
+                                updateFgCopy(fgImage);
+                                fgCopy.draw(offGfx, 0, 0, xOfsTemp, yOfsTemp, width, levelHeight);
+                            } else {
+                                offGfx.drawImage(fgImage, 0, 0, width, levelHeight, xOfsTemp, yOfsTemp, xOfsTemp + width, yOfsTemp + levelHeight);
+                            }
 
                             // draw "in front" objects
                             GameController.getLevel().drawInFrontObjects(offGfx, width, height, xOfsTemp, yOfsTemp);
@@ -1147,7 +1366,34 @@ public class LemminiPanel extends JPanel implements Runnable {
             // fader
             Fader.apply(offGfx);
 
-            repaint();
+            if (accelFrame) {
+                offGfx.dispose();
+            }
+            long inputTime = GameController.takeInputTime();
+            if (frameInputTime == 0) {
+                frameInputTime = inputTime;
+            }
+            if (canvas != null) {
+                present();
+            } else {
+                repaint();
+            }
+        }
+    }
+
+    /**
+     * Make the copy of the foreground image in video memory follow the current level.
+     * @param fgImage foreground image
+     */
+    private void updateFgCopy(final LemmImage fgImage) {
+        Simulation sim = GameController.getSimulation();
+        if (sim != fgCopySim) {
+            // terrain changes of a new level are passed on by its journal
+            sim.getTerrainJournal().addListener(fgCopy::invalidate);
+            fgCopySim = sim;
+            fgCopy.setSource(fgImage);
+        } else if (fgCopy.getSource() != fgImage) {
+            fgCopy.setSource(fgImage);
         }
     }
 
@@ -1351,53 +1597,43 @@ public class LemminiPanel extends JPanel implements Runnable {
     @Override
     public void run() {
         Thread.currentThread().setPriority(Thread.NORM_PRIORITY + 1);
-        final LemminiPanel thisPanel = this;
-        ScheduledExecutorService repaintScheduler = Executors.newSingleThreadScheduledExecutor();
-        Runnable repaintTask = thisPanel::drawNextFrame;
 
         try {
-            drawNextFrame = false;
-            repaintScheduler.scheduleAtFixedRate(
-                    repaintTask, 0, GameController.NANOSEC_PER_FRAME, TimeUnit.NANOSECONDS);
+            GameController.State lastState = GameController.getGameState();
             while (true) {
-                synchronized (this) {
-                    while (!drawNextFrame) {
-                        try {
-                            wait();
-                        } catch (InterruptedException ex) {
-                        }
+                int ticks = timestep.nextTicks();
+                GameController.State gameState = GameController.getGameState();
+                if (gameState != lastState) {
+                    if (lastState == GameController.State.LEVEL && printFrameStats) {
+                        System.out.println("frame timing: " + timestep);
+                        System.out.println((canvas != null ? "active" : "passive") + " rendering: " + presentStats);
                     }
+                    timestep.resetStats();
+                    presentStats.reset();
+                    lastState = gameState;
                 }
-
-                if (drawNextFrame) {
-                    drawNextFrame = false;
-                    // time passed -> redraw necessary
-                    GameController.State gameState = GameController.getGameState();
-                    // special handling for fast forward or super lemming mode only during real gameplay
-                    if (gameState == GameController.State.LEVEL) {
-                        // in fast forward or super lemming modes, update the game mechanics
-                        // multiple times per (drawn) frame
-                        if (GameController.isFastForward()) {
-                        	int multiplier;
-                        	if (GameController.isTurbo()) {
-                        	    multiplier = GameController.TURBO_MULTI;
-                        	} else if (GameController.isOptionEnabled(GameController.Option.FASTER_FAST_FORWARD)) {
-                        	    multiplier = GameController.FASTER_FAST_FWD_MULTI;
-                        	} else {
-                        	    multiplier = GameController.FAST_FWD_MULTI;
-                        	}
-                            for (int f = 1; f < multiplier; f++) {
-                                GameController.update();
-                            }
-                        } else if (GameController.isSuperLemming()) {
-                            for (int f = 1; f < GameController.SUPERLEMM_MULTI; f++) {
-                                GameController.update();
-                            }
-                        }
+                // in skip mode, update the game mechanics as often as possible until
+                // the next frame is due, but don't draw anything
+                if (gameState == GameController.State.LEVEL && GameController.isSkipping()) {
+                    GameController.processCommands();
+                    long skipEnd = System.nanoTime() + GameController.NANOSEC_PER_FRAME;
+                    while (GameController.isSkipping() && System.nanoTime() < skipEnd) {
+                        GameController.update();
+                    }
+                    if (GameController.getGameState() != GameController.State.LEVEL) {
+                        GameController.stopSkip();
                     }
-                    updateFrame();
-                    redraw();
+                    if (GameController.isSkipping()) {
+                        // skipping is meant to take all the time, so there's nothing to catch up
+                        timestep.resync();
+                        continue;
+                    }
+                }
+                // late ticks are simulated in a row, only the last one is drawn
+                for (int t = 0; t < ticks; t++) {
+                    updateTick();
                 }
+                redraw();
             }
         } catch (Throwable ex) {
             ToolBox.showException(ex);
@@ -1406,11 +1642,42 @@ public class LemminiPanel extends JPanel implements Runnable {
     }
 
     /**
-     * Signals that the next frame should be drawn.
+     * Simulate one tick of the game loop.
+     */
+    private void updateTick() {
+        GameController.processCommands();
+        // special handling for fast forward or super lemming mode only during real gameplay
+        if (GameController.getGameState() == GameController.State.LEVEL) {
+            // in fast forward or super lemming modes, update the game mechanics
+            // multiple times per (drawn) frame
+            if (GameController.isFastForward()) {
+                int multiplier;
+                if (GameController.isTurbo()) {
+                    multiplier = GameController.TURBO_MULTI;
+                } else if (GameController.isOptionEnabled(GameController.Option.FASTER_FAST_FORWARD)) {
+                    multiplier = GameController.FASTER_FAST_FWD_MULTI;
+                } else {
+                    multiplier = GameController.FAST_FWD_MULTI;
+                }
+                for (int f = 1; f < multiplier; f++) {
+                    GameController.update();
+                }
+            } else if (GameController.isSuperLemming()) {
+                for (int f = 1; f < GameController.SUPERLEMM_MULTI; f++) {
+                    GameController.update();
+                }
+            }
+        }
+        updateFrame();
+    }
+
+    /**
+     * Get the pacing of the game loop, including its counters of late ticks, skipped renders
+     * and the longest frame time.
+     * @return game loop pacing
      */
-    public synchronized void drawNextFrame() {
-        drawNextFrame = true;
-        notifyAll();
+    public FixedTimestep getTimestep() {
+        return timestep;
     }
 
     /**
@@ -1423,19 +1690,10 @@ public class LemminiPanel extends JPanel implements Runnable {
         if (draw && Core.player.isDebugMode()) {
             boolean classicSteel = GameController.getLevel().getClassicSteel();
             int rgbVal = (doDraw) ? 0xffffffff : 0x0;
-            int minimapVal = (doDraw || Minimap.isTinted()) ? rgbVal : GameController.getLevel().getBgColor().getRGB();
-            if (doDraw && Minimap.isTinted()) {
-                minimapVal = Minimap.tintColor(minimapVal);
-            }
             int xOfs = GameController.getXPos();
             int yOfs = GameController.getYPos();
             LemmImage fgImage = GameController.getFgImage();
-            LemmImage fgImageSmall = Minimap.getImage();
             Stencil stencil = GameController.getStencil();
-            double scaleX = (double) fgImageSmall.getWidth() / (double) fgImage.getWidth();
-            double scaleY = (double) fgImageSmall.getHeight() / (double) fgImage.getHeight();
-            double scaleXHalf = scaleX / 2.0;
-            double scaleYHalf = scaleY / 2.0;
 
             // Define the radius of the "paintbrush" circle
             if (drawBrushSize <= 0 || drawBrushSize >= 11)
@@ -1448,31 +1706,8 @@ public class LemminiPanel extends JPanel implements Runnable {
                 for (int xa = x - radius; xa <= x + radius; xa++) {
                     // Check if the point is within the circle (using Pythagorean theorem)
                     if (Math.pow(xa - x, 2) + Math.pow(ya - y, 2) <= Math.pow(radius, 2)) {
-                        double scaledY = (ya + 0.5) * scaleY % 1.0;
-                        boolean drawSmallY = (scaledY >= (0.5 - scaleYHalf) % 1.0 && scaledY < (0.5 + scaleYHalf) % 1.0)
-                                || Math.abs(scaleY) >= 1.0;
-                        double scaledX = (xa + 0.5) * scaleX % 1.0;
-                        boolean drawSmallX = (scaledX >= (0.5 - scaleXHalf) % 1.0 && scaledX < (0.5 + scaleXHalf) % 1.0)
-                                || Math.abs(scaleX) >= 1.0;
-
                         if (xa + xOfs >= 0 && xa + xOfs < GameController.getWidth()
                                 && ya + yOfs >= 0 && ya + yOfs < GameController.getHeight()) {
-                            int[] objects = stencil.getIDs(xa + xOfs, ya + yOfs);
-                            for (int obj : objects) {
-                                SpriteObject spr = GameController.getLevel().getSprObject(obj);
-                                if (spr != null && spr.getVisOnTerrain()) {
-                                    if (doDraw) {
-                                        if ((GameController.getLevel().getClassicSteel()
-                                                        || !spr.getType().isOneWay())
-                                                && !(spr.getType().isOneWay()
-                                                        && BooleanUtils.toBoolean(stencil.getMask(xa + xOfs, ya + yOfs) & Stencil.MSK_NO_ONE_WAY_DRAW))) {
-                                            spr.setPixelVisibility(xa + xOfs - spr.getX(), ya + yOfs - spr.getY(), true);
-                                        }
-                                    } else {
-                                        spr.setPixelVisibility(xa + xOfs - spr.getX(), ya + yOfs - spr.getY(), false);
-                                    }
-                                }
-                            }
                             if (doDraw) {
                                 stencil.orMask(xa + xOfs, ya + yOfs, Stencil.MSK_BRICK);
                             } else {
@@ -1480,14 +1715,14 @@ public class LemminiPanel extends JPanel implements Runnable {
                                         classicSteel ? ~Stencil.MSK_BRICK
                                                 : ~(Stencil.MSK_BRICK | Stencil.MSK_STEEL | Stencil.MSK_ONE_WAY));
                             }
-                            GameController.getFgImage().setRGB(xa + xOfs, ya + yOfs, rgbVal);
-                            if (drawSmallX && drawSmallY) {
-                                fgImageSmall.setRGB(ToolBox.scale(xa + xOfs, scaleX), ToolBox.scale(ya + yOfs, scaleY), minimapVal);
-                            }
+                            fgImage.setRGB(xa + xOfs, ya + yOfs, rgbVal);
                         }
                     }
                 }
             }
+            // minimap and objects visible on terrain are updated from the journal
+            GameController.getTerrainJournal().add(x + xOfs - radius, y + yOfs - radius, radius * 2 + 1, radius * 2 + 1);
+            GameController.getTerrainJournal().flush();
         }
     }
 
@@ -1670,18 +1905,43 @@ public class LemminiPanel extends JPanel implements Runnable {
     }
 
     /**
-     * This interprets the DMA Remastered level packs as simply "Lemmings" or "Oh No! More Lemmings"
+     * Seek forward or backward in the current level or replay.
+     * @param seconds seconds of game time to go forward, negative to go backward
      */
-    private boolean checkForDMARemasters(String replayPackName, String actualPackName) {
-        if (replayPackName.equals("DMA Lemmings [Remastered]")) {
-            return ToolBox.looselyEquals(actualPackName, "Lemmings") ||
-                   ToolBox.looselyEquals(actualPackName, "DMA Lemmings [Remastered]");
-        }
-        if (replayPackName.equals("DMA Oh No! More Lemmings [Remastered]")) {
-            return ToolBox.looselyEquals(actualPackName, "Oh No! More Lemmings") ||
-                   ToolBox.looselyEquals(actualPackName, "DMA Oh No! More Lemmings [Remastered]");
+    void seekReplay(final int seconds) {
+        GameController.post(() -> {
+            int frame = GameController.getReplayFrame() + seconds * GameController.FRAMES_PER_10_SECONDS / 10;
+            if (!GameController.seek(frame)) {
+                GameController.sound.play(Sound.Effect.INVALID);
+            }
+        });
+    }
+
+    /**
+     * Ask for a frame and skip to it without drawing anything.
+     * The frame is checked when the command is executed, since the game goes on while the
+     * dialog is shown.
+     */
+    void handleSkipToFrame() {
+        String frameString = JOptionPane.showInputDialog(getParent(), "Skip to frame:",
+                Integer.toString(GameController.getReplayFrame()));
+        if (frameString != null) {
+            int frame;
+            try {
+                frame = Integer.parseInt(frameString.trim());
+            } catch (NumberFormatException ex) {
+                frame = -1;
+            }
+            int target = frame;
+            GameController.post(() -> {
+                if (GameController.getGameState() == GameController.State.LEVEL
+                        && target > GameController.getReplayFrame()) {
+                    GameController.startSkip(target, GameController.SkipCondition.NONE);
+                } else {
+                    GameController.sound.play(Sound.Effect.INVALID);
+                }
+            });
         }
-        return false;
     }
 
     void handleLoadReplay() {
@@ -1691,50 +1951,10 @@ public class LemminiPanel extends JPanel implements Runnable {
                 if (FilenameUtils.getExtension(replayPath.getFileName().toString()).equalsIgnoreCase("rpl")) {
                     ReplayLevelInfo rli = GameController.loadReplay(replayPath);
                     if (rli != null) {
-                        int lpn = -1;
-                        int rn = -1;
-                        int ln = -1;
-                        LevelPack lp = null;
-                        for (int i = 0; i < GameController.getLevelPackCount(); i++) {
-                            LevelPack lpTemp = GameController.getLevelPack(i);
-                            if (ToolBox.looselyEquals(lpTemp.getName(), rli.getLevelPack()) ||
-                                    // Handle replays created with the DMA Remastered packs
-                                    checkForDMARemasters(rli.getLevelPack(), lpTemp.getName())) {
-                                lpn = i;
-                                lp = lpTemp;
-                            }
-                        }
-                        if (lp != null && lpn >= 0) {
-                            java.util.List<String> ratings = lp.getRatings();
-                            int rnTemp = rli.getRatingNumber();
-                            if (rnTemp < ratings.size()) {
-                                rn = rnTemp;
-                            }
-                            if (rn < 0 || ToolBox.looselyEquals(ratings.get(rn), rli.getRatingName())) {
-                                for (int i = 0; i < ratings.size(); i++) {
-                                    if (ToolBox.looselyEquals(ratings.get(i), rli.getRatingName())) {
-                                        rn = i;
-                                    }
-                                }
-                            }
-                            if (rn >= 0) {
-                                java.util.List<String> levels = lp.getLevels(rn);
-                                int lnTemp = rli.getLvlNumber();
-                                if (lnTemp < levels.size()) {
-                                    ln = lnTemp;
-                                }
-                                if (ln < 0 || ToolBox.looselyEquals(levels.get(ln), rli.getLvlName())) {
-                                    for (int i = 0; i < levels.size(); i++) {
-                                        if (ToolBox.looselyEquals(levels.get(i), rli.getLvlName())) {
-                                            ln = i;
-                                        }
-                                    }
-                                }
-                            }
-                        }
-                        if (lpn >= 0 && rn >= 0 && ln >= 0) {
+                        int[] lvl = GameController.findReplayLevel(rli);
+                        if (lvl != null) {
                             // success
-                            GameController.requestChangeLevel(lpn, rn, ln, true);
+                            GameController.requestChangeLevel(lvl[0], lvl[1], lvl[2], true);
                             getParentFrame().setRestartEnabled(true);
                         } else {
                             // no success
@@ -1900,11 +2120,17 @@ public class LemminiPanel extends JPanel implements Runnable {
 
     private void setScale(int width, int height) {
         Dimension minSize = getMinimumSize();
+        double scale;
         if ((double) width / (double) height >= (double) minSize.width / (double) minSize.height) {
-            Core.setScale((double) height / (double) minSize.height);
+            scale = (double) height / (double) minSize.height;
         } else {
-            Core.setScale((double) width / minSize.width);
+            scale = (double) width / minSize.width;
         }
+        if (integerScale && scale >= 1.0) {
+            // the draw size grows to fill the rest of the panel
+            scale = ScreenScaler.getIntegerFactor(scale);
+        }
+        Core.setScale(scale);
     }
 
     private void setBufferSize(int width, int height) {
@@ -1919,6 +2145,13 @@ public class LemminiPanel extends JPanel implements Runnable {
                 offBuffer.setSize(width, height);
             }
 
+            if (acceleratedRendering && accelBuffer == null && getGraphicsConfiguration() != null) {
+                accelBuffer = new VolatileBuffer(getGraphicsConfiguration(), width, height, Transparency.OPAQUE);
+                fgCopy = new AcceleratedImage(getGraphicsConfiguration());
+            } else if (accelBuffer != null) {
+                accelBuffer.setSize(width, height);
+            }
+
             if (outStrBuffer == null) {
                 outStrBuffer = new GraphicsBuffer(width, LemmFont.getHeight(), Transparency.TRANSLUCENT, true);
             } else {
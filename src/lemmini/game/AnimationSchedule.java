@@ -0,0 +1,109 @@
+package lemmini.game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lemmini.gameutil.Sprite;
+
+/**
+ * Animates the sprite objects of a level.
+ * Looped animations are grouped by speed and by the game frame (modulo the speed) in which
+ * they show their next animation frame, so each game frame only touches the sprites whose
+ * frame actually changes. Their counters are only brought up to date by {@link #syncCounters()}.
+ * All other animated sprites are animated every game frame, in their original order.
+ */
+final class AnimationSchedule {
+
+    /**
+     * Looped sprites with the same speed.
+     */
+    private static final class Group {
+        /** number of game frames per animation frame */
+        final int speed;
+        /** sprites by the game frame modulo speed in which they show their next frame */
+        final List<List<Sprite>> due;
+
+        Group(final int speed) {
+            this.speed = speed;
+            due = new ArrayList<>(speed);
+            for (int i = 0; i < speed; i++) {
+                due.add(new ArrayList<>(4));
+            }
+        }
+    }
+
+    /** groups of looped sprites */
+    private final List<Group> groups = new ArrayList<>();
+    /** triggered and one-shot animations */
+    private final List<Sprite> others = new ArrayList<>();
+    /** number of game frames animated since the last reset */
+    private int tick;
+
+    /**
+     * Schedule sprites, starting from their current animation state.
+     * Has to be called again whenever the animation mode or counter of a sprite was changed
+     * from outside, e.g. after restoring a snapshot.
+     * @param sprites all animated sprites
+     */
+    void reset(final List<? extends Sprite> sprites) {
+        groups.clear();
+        others.clear();
+        tick = 0;
+        for (Sprite spr : sprites) {
+            switch (spr.getAnimMode()) {
+                case LOOP:
+                    Group g = getGroup(Math.max(spr.getSpeed(), 1));
+                    // a counter at or above the speed shows the next frame in the next game frame
+                    int counter = Math.min(spr.getCounter(), g.speed - 1);
+                    g.due.get(Math.floorMod(-counter, g.speed)).add(spr);
+                    break;
+                case NONE:
+                    break;
+                default:
+                    others.add(spr);
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Animate all sprites by one game frame.
+     */
+    void animate() {
+        tick++;
+        for (Group g : groups) {
+            for (Sprite spr : g.due.get(tick % g.speed)) {
+                spr.nextLoopFrame();
+            }
+        }
+        for (Sprite spr : others) {
+            spr.animate();
+        }
+    }
+
+    /**
+     * Store the current counter in each looped sprite, e.g. before saving its state.
+     */
+    void syncCounters() {
+        for (Group g : groups) {
+            for (int i = 0; i < g.speed; i++) {
+                // sprites in slot i showed their last frame in the last game frame that was i modulo speed
+                int counter = Math.floorMod(tick - i, g.speed);
+                for (Sprite spr : g.due.get(i)) {
+                    spr.setCounter(counter);
+                }
+            }
+        }
+    }
+
+    private Group getGroup(final int speed) {
+        for (Group g : groups) {
+            if (g.speed == speed) {
+                return g;
+            }
+        }
+        Group g = new Group(speed);
+        groups.add(g);
+        return g;
+    }
+}
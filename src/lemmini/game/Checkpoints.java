@@ -0,0 +1,104 @@
+package lemmini.game;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Snapshots of the simulation taken at regular intervals while a level is played.
+ * Seeking to a frame restores the nearest earlier checkpoint and simulates from there.
+ * If the checkpoints need more memory than allowed, they are thinned out evenly;
+ * the first and the latest checkpoint are always kept.
+ */
+final class Checkpoints {
+
+    /** snapshots by replay frame */
+    private final NavigableMap<Integer, Snapshot> snapshots = new TreeMap<>();
+    /** maximum estimated memory for all snapshots in bytes */
+    private long memoryBudget = Long.MAX_VALUE;
+    /** estimated memory of all snapshots in bytes */
+    private long memoryUsed;
+
+    /**
+     * Set the maximum memory to be used for snapshots.
+     * @param bytes memory budget in bytes
+     */
+    void setMemoryBudget(final long bytes) {
+        memoryBudget = bytes;
+        evict();
+    }
+
+    /**
+     * Remove all checkpoints.
+     */
+    void clear() {
+        snapshots.clear();
+        memoryUsed = 0;
+    }
+
+    /**
+     * Check whether there's a checkpoint for a frame.
+     * @param frame replay frame
+     * @return true if there's a checkpoint for the given frame
+     */
+    boolean contains(final int frame) {
+        return snapshots.containsKey(frame);
+    }
+
+    /**
+     * Add a checkpoint, replacing one of the same frame.
+     * @param s snapshot
+     */
+    void add(final Snapshot s) {
+        Snapshot old = snapshots.put(s.getReplayFrame(), s);
+        if (old != null) {
+            memoryUsed -= old.getEstimatedSize();
+        }
+        memoryUsed += s.getEstimatedSize();
+        evict();
+    }
+
+    /**
+     * Get the latest checkpoint at or before a frame.
+     * @param frame replay frame
+     * @return snapshot, or null if there's none
+     */
+    Snapshot floor(final int frame) {
+        Map.Entry<Integer, Snapshot> e = snapshots.floorEntry(frame);
+        return (e == null) ? null : e.getValue();
+    }
+
+    /**
+     * Remove all checkpoints after a frame, e.g. because the game took a different course.
+     * @param frame replay frame
+     */
+    void removeAfter(final int frame) {
+        for (Iterator<Snapshot> it = snapshots.tailMap(frame, false).values().iterator(); it.hasNext(); ) {
+            memoryUsed -= it.next().getEstimatedSize();
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove checkpoints until the memory budget is met. The checkpoint removed first is the one
+     * with the smallest distance between its neighbours.
+     */
+    private void evict() {
+        while (memoryUsed > memoryBudget && snapshots.size() > 2) {
+            Integer victim = null;
+            int minGap = Integer.MAX_VALUE;
+            Integer prev = null;
+            Integer cur = null;
+            for (Integer next : snapshots.keySet()) {
+                if (prev != null && next - prev < minGap) {
+                    minGap = next - prev;
+                    victim = cur;
+                }
+                prev = cur;
+                cur = next;
+            }
+            memoryUsed -= snapshots.remove(victim).getEstimatedSize();
+        }
+    }
+}
@@ -134,6 +134,20 @@ public class Core {
      * @throws URISyntaxException
      */
     public static boolean init(String workingFolder) throws LemmException, IOException  {
+        return init(workingFolder, false);
+    }
+
+    /**
+     * Initialize some core elements.
+     * Loads settings from ini file.
+     * @param workingFolder folder of the program
+     * @param headless true: don't create any windows, so the legal disclaimer isn't shown
+     *        if there are no settings yet (used for verifying replays from the command line)
+     * @return true if loading was successful
+     * @throws LemmException
+     * @throws IOException
+     */
+    public static boolean init(String workingFolder, boolean headless) throws LemmException, IOException  {
         System.out.println("\ninitializing Core...");
         String tmp;// = java.net.URLDecoder.decode(workingFolder, "UTF-8");
         tmp = new java.io.File(workingFolder).getPath();
@@ -163,7 +177,10 @@ public class Core {
         // read main ini file
         programProps = new Props();
 
-        if (!programProps.load(programPropsFilePath)) {
+        boolean propsLoaded = programProps.load(programPropsFilePath);
+        if (!propsLoaded && headless) {
+            System.out.println("    unable to read config file... using default settings");
+        } else if (!propsLoaded) {
             System.out.println("    unable to read config file... prompting disclaimer agreement ...");
             // might exist or not - if not, it's created
             // show the Legal Disclaimer. And force the user to choose "I Agree."
@@ -79,8 +79,9 @@ public class Explosion {
      * Constructor.
      * @param x x position in pixels.
      * @param y y position in pixels.
+     * @param colors particle colors
      */
-    public Explosion(final int x, final int y) {
+    public Explosion(final int x, final int y, final int[] colors) {
         xExp = x - expImg.getWidth() / 2;
         yExp = y - expImg.getHeight() / 2;
         maxCounter = 0;
@@ -88,7 +89,7 @@ public class Explosion {
         for (int i = 0; i < particles.length; i++) {
             double dx = (Math.random() * (MAX_DX - MIN_DX) + MIN_DX);
             double dy = (Math.random() * (MAX_DY - MIN_DY) + MIN_DY);
-            int color = GameController.getLevel().getParticleCol()[(int) (Math.random() * GameController.getLevel().getParticleCol().length)];
+            int color = colors[(int) (Math.random() * colors.length)];
             int lifeCtr = LIFE_COUNTER + (int) (Math.random() * 2 * LIFE_VARIANCE) - LIFE_VARIANCE;
             if (lifeCtr > maxCounter) {
                 maxCounter = lifeCtr;
@@ -99,6 +100,25 @@ public class Explosion {
         finished = false;
     }
 
+    /**
+     * Constructor: Create a copy of an explosion, e.g. for a snapshot of the game state.
+     * @param src explosion to copy
+     */
+    Explosion(final Explosion src) {
+        xExp = src.xExp;
+        yExp = src.yExp;
+        particles = new Particle[src.particles.length];
+        for (int i = 0; i < particles.length; i++) {
+            Particle p = src.particles[i];
+            if (p != null) {
+                particles[i] = new Particle(p);
+            }
+        }
+        counter = src.counter;
+        maxCounter = src.maxCounter;
+        finished = src.finished;
+    }
+
     /**
      * Update explosion (move particles etc.).
      */
@@ -203,5 +223,18 @@ public class Explosion {
             color = new Color(col);
             lifeCtr = lCtr;
         }
+
+        /**
+         * Constructor: Create a copy of a particle.
+         * @param src particle to copy
+         */
+        Particle(final Particle src) {
+            x = src.x;
+            y = src.y;
+            dx = src.dx;
+            dy = src.dy;
+            color = src.color;
+            lifeCtr = src.lifeCtr;
+        }
     }
 }
@@ -0,0 +1,110 @@
+package lemmini.game;
+
+import java.awt.Rectangle;
+import java.util.List;
+
+import lemmini.graphics.LemmImage;
+
+/**
+ * Copy-on-write tiles of the foreground image, used for snapshots of the game state.
+ * All snapshots share the tiles that weren't changed in between, so saving a snapshot only
+ * copies the tiles changed since the last one, and restoring a snapshot only writes back
+ * the tiles that differ from the current image.
+ * Changes are taken from the {@link TerrainJournal}.
+ */
+final class ForegroundTiles implements TerrainJournal.Listener {
+
+    /** tiles are 2^TILE_SHIFT pixels wide and high */
+    private static final int TILE_SHIFT = 6;
+    private static final int TILE_SIZE = 1 << TILE_SHIFT;
+
+    /** foreground image */
+    private LemmImage image;
+    /** number of tile columns */
+    private int cols;
+    /** number of tile rows */
+    private int rows;
+    /** saved pixels of each tile (col+row*cols) that match the image, or null if the tile was changed */
+    private int[][] tiles = new int[0][];
+    /** number of pixels copied by the last call of {@link #save()} */
+    private int copiedPixels;
+
+    /**
+     * Forget all tiles and start tracking a new foreground image.
+     * @param img foreground image
+     */
+    void reset(final LemmImage img) {
+        image = img;
+        cols = (img.getWidth() + TILE_SIZE - 1) >> TILE_SHIFT;
+        rows = (img.getHeight() + TILE_SIZE - 1) >> TILE_SHIFT;
+        tiles = new int[cols * rows][];
+    }
+
+    /**
+     * Save the foreground image. The returned tiles must not be modified.
+     * @return pixels of each tile
+     */
+    int[][] save() {
+        copiedPixels = 0;
+        for (int t = 0; t < tiles.length; t++) {
+            if (tiles[t] == null) {
+                Rectangle r = getTileRect(t);
+                tiles[t] = image.getRGB(r.x, r.y, r.width, r.height, null, 0, r.width);
+                copiedPixels += tiles[t].length;
+            }
+        }
+        return tiles.clone();
+    }
+
+    /**
+     * Restore the foreground image. The restored tiles are marked as changed in the journal,
+     * which is flushed so that everything derived from the terrain is updated.
+     * @param saved tiles returned by {@link #save()} for the same image
+     * @param journal terrain journal
+     */
+    void restore(final int[][] saved, final TerrainJournal journal) {
+        for (int t = 0; t < tiles.length; t++) {
+            if (tiles[t] != saved[t]) {
+                Rectangle r = getTileRect(t);
+                image.setRGB(r.x, r.y, r.width, r.height, saved[t], 0, r.width);
+                journal.add(r.x, r.y, r.width, r.height);
+            }
+        }
+        journal.flush();
+        // the flush marked the restored tiles as changed, but they match the saved ones now
+        System.arraycopy(saved, 0, tiles, 0, tiles.length);
+    }
+
+    /**
+     * Get the number of pixels that the last call of {@link #save()} had to copy,
+     * i.e. the pixels that aren't shared with the previous save.
+     * @return number of pixels
+     */
+    int getCopiedPixels() {
+        return copiedPixels;
+    }
+
+    @Override
+    public void terrainChanged(final List<Rectangle> rects) {
+        for (Rectangle r : rects) {
+            int colMax = Math.min((r.x + r.width - 1) >> TILE_SHIFT, cols - 1);
+            int rowMax = Math.min((r.y + r.height - 1) >> TILE_SHIFT, rows - 1);
+            for (int row = r.y >> TILE_SHIFT; row <= rowMax; row++) {
+                for (int col = r.x >> TILE_SHIFT; col <= colMax; col++) {
+                    tiles[col + row * cols] = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the area of the image covered by a tile.
+     * @param t tile index
+     * @return rectangle in pixels
+     */
+    private Rectangle getTileRect(final int t) {
+        int x = (t % cols) << TILE_SHIFT;
+        int y = (t / cols) << TILE_SHIFT;
+        return new Rectangle(x, y, Math.min(TILE_SIZE, image.getWidth() - x), Math.min(TILE_SIZE, image.getHeight() - y));
+    }
+}
@@ -1,6 +1,7 @@
 package lemmini.game;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.io.IOException;
 import java.io.Writer;
 import java.nio.file.Files;
@@ -10,7 +11,6 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -21,6 +21,8 @@ import java.util.Objects;
 import java.util.Queue;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JOptionPane;
 
@@ -33,7 +35,6 @@ import lemmini.extract.ExtractDAT;
 import lemmini.extract.ExtractLevel;
 import lemmini.gameutil.Fader;
 import lemmini.gameutil.KeyRepeat;
-import lemmini.gameutil.Sprite;
 import lemmini.graphics.GraphicsContext;
 import lemmini.graphics.LemmImage;
 import lemmini.sound.Music;
@@ -164,6 +165,14 @@ public class GameController {
         DAT
     }
 
+    /** condition that ends the skip mode (besides the target frame and the end of the level) */
+    public static enum SkipCondition {
+        /** no condition */
+        NONE,
+        /** all Lemmings were released */
+        ALL_RELEASED
+    }
+
     /** key repeat bitmask for icons */
     public static final int KEYREPEAT_ICON = 1;
     /** key repeat bitmask for keys */
@@ -182,13 +191,10 @@ public class GameController {
     /** redraw animated level objects every 2nd frame (about 60ms) */
     public static final int MAX_ANIM_CTR = 2;
 
-    private static final int MAX_START_SOUND_CTR = 28;
-    /** open entrance after about 2 seconds */
-    private static final int MAX_ENTRANCE_OPEN_CTR = 72;
-    /** one second is 33.333 ticks */
-    private static final int[] MAX_SECOND_CTR = {34, 33, 33};
-    /** one second in superlemming mode is 100 ticks */
-    private static final int[] MAX_SUPERLEMMING_SECOND_CTR = {100};
+    /** number of frames in 10 seconds of game time */
+    public static final int FRAMES_PER_10_SECONDS = 333;
+    /** frames between two replay checkpoints */
+    private static final int CHECKPOINT_INTERVAL = FRAMES_PER_10_SECONDS;
 
     /** nuke icon: maximum time between two mouse clicks for double click detection (in nanoseconds) */
     private static final long NANOSEC_NUKE_DOUBLE_CLICK = 240_000_000;
@@ -207,6 +213,9 @@ public class GameController {
     /** sound object */
     public static Sound sound;
 
+    /** mechanics of the current level */
+    private static Simulation sim;
+
     /** the foreground stencil */
     private static Stencil stencil;
     /** the foreground image */
@@ -226,35 +235,31 @@ public class GameController {
     private static boolean fastForward;
     private static boolean turbo;
     private static boolean verticalLock;
-    /** flag: Superlemming mode is active */
-    private static boolean superLemming;
-    private static boolean forceNormalTimerSpeed;
     /** game state */
     private static State gameState;
     /** transition (fading) state */
     private static TransitionState transitionState;
     /** skill to assign to lemming (skill icon) */
     private static Lemming.Type lemmSkill;
-    /** flag: entrances is opened */
-    private static boolean entranceOpened;
-    /** flag: nuke was activated */
-    private static boolean nuke;
     /** flag: game is paused */
     private static boolean paused;
     /** flag: debug mode was activated during play */
     private static boolean debugWasActivated = false;
     private static boolean forceAdvanceFrame = false;
-    /** frame counter for handling opening of entrances */
-    private static int entranceOpenCtr;
-    private static int startSoundCtr;
-    private static boolean startSoundPlayed;
-    private static final Set<SpriteObject> entranceSprites = new HashSet<>();
-    /** frame counter for handling time */
-    private static int secondCtr;
-    /** frame counter used to handle release of new Lemmings */
-    private static int releaseCtr;
-    /** threshold to release a new Lemming */
-    private static int releaseBase;
+    /** flag: only the simulation runs - without pause, sound, Visual SFX and minimap updates */
+    private static boolean simulationOnly = false;
+    /** flag: store the state hash of each frame in recorded replays */
+    private static boolean recordStateHashes;
+    /** flag: Lemmings sense the terrain in parallel, see {@link Simulation#setParallelSensing(boolean)} */
+    private static boolean parallelSensing;
+    /** terrain changed while only the simulation ran, still to be drawn to the minimap */
+    private static Rectangle minimapPending;
+    /** flag: skip mode is active */
+    private static boolean skipping = false;
+    /** skip mode ends when this frame is reached */
+    private static int skipFrame;
+    /** skip mode ends when this condition is met */
+    private static SkipCondition skipCondition;
     /** level object */
     private static Level level;
     /** index of current rating */
@@ -270,12 +275,18 @@ public class GameController {
     /** index of next level */
     private static int nextLevelNumber;
     private static List<String> modPaths;
-    /** list of all active Lemmings in the Level */
-    private static final List<Lemming> lemmings = new LinkedList<>();
-    /** list of all active explosions */
-    private static final List<Explosion> explosions = new LinkedList<>();
+    /** reused result list of {@link LemmingGrid#collect} */
+    private static final List<Lemming> lemmsInRect = new ArrayList<>(128);
+    /** snapshots taken at regular intervals for seeking */
+    private static final Checkpoints checkpoints = new Checkpoints();
     /** list of all Lemmings under the mouse cursor */
     private static final Queue<Lemming> lemmsUnderCursor = Collections.asLifoQueue(new ArrayDeque<Lemming>(128));
+    /** input commands of the AWT threads, executed by the game thread at the start of each frame */
+    private static final Queue<Runnable> commands = new ConcurrentLinkedQueue<>();
+    /** time the oldest unprocessed command was queued in nanoseconds, or 0 */
+    private static final AtomicLong commandTime = new AtomicLong();
+    /** time the oldest command processed since the last call of {@link #takeInputTime()} was queued, or 0 */
+    private static long inputTime;
     /** list of all active Visual SFX */
     private static final List<Vsfx> vsfxs = new LinkedList<>();
     /** array of available level packs */
@@ -301,57 +312,12 @@ public class GameController {
     private static int yPosCenter;
     /** replay stream used for handling replays */
     private static ReplayStream replay;
-    /** frame counter used for handling replays */
-    private static int replayFrame;
-    /** old value of release rate */
-    private static int releaseRateOld;
-    /** old value of nuke flag */
-    private static boolean nukeOld;
     /** old value of horizontal scrolling position */
     private static int xPosOld;
     /** old value of vertical scrolling position */
     private static int yPosOld;
     /** old value of selected skill */
     private static Lemming.Type lemmSkillOld;
-    /** flag: replay mode is active */
-    private static boolean replayMode;
-    /** flag: replay mode should be stopped */
-    private static boolean stopReplayMode;
-    /** number of Lemmings which exited the level */
-    private static int numExited;
-    /** release rate */
-    private static int releaseRate;
-    private static boolean lockReleaseRate;
-    /** number of Lemmings available */
-    private static int numLemmingsMax;
-    /** number of Lemmings who entered the level */
-    private static int numLemmingsOut;
-    /** number of Lemmings which have to be rescued to finish the level */
-    private static int numToRescue;
-    /** time left in seconds */
-    private static int time;
-    private static int timeLimit;
-    private static int timeElapsedTillLastExited;
-    private static boolean timed;
-    /** number of climber skills left to be assigned */
-    private static int numClimbers;
-    /** number of floater skills left to be assigned */
-    private static int numFloaters;
-    /** number of bomber skills left to be assigned */
-    private static int numBombers;
-    /** number of blocker skills left to be assigned */
-    private static int numBlockers;
-    /** number of builder skills left to be assigned */
-    private static int numBuilders;
-    /** number of basher skills left to be assigned */
-    private static int numBashers;
-    /** number of miner skills left to be assigned */
-    private static int numMiners;
-    /** number of digger skills left to be assigned */
-    private static int numDiggers;
-    private static int numSkillsUsed;
-    /** free running update counter */
-    private static int updateCtr;
     /** gain for sound 0-2.0 */
     private static double soundGain = 1.0;
     /** gain for music 0-2.0 */
@@ -370,6 +336,11 @@ public class GameController {
         height = Level.DEFAULT_HEIGHT;
 
         fgImage = ToolBox.createLemmImage(width, height);
+        fgImage.enableDirectAccess();
+
+        checkpoints.setMemoryBudget(Core.programProps.getInt("replayCheckpointMemory", 128) * 1024L * 1024L);
+        recordStateHashes = Core.programProps.getBoolean("recordStateHashes", false);
+        parallelSensing = Core.programProps.getBoolean("parallelSensing", false);
 
         gameState = State.INIT;
 
@@ -378,6 +349,49 @@ public class GameController {
         timerNuke = new NanosecondTimer();
         timerRestart = new NanosecondTimer();
 
+        loadLevelPacks();
+
+        sound = new Sound();
+        sound.setGain(soundGain);
+        Icons.init();
+        Explosion.init();
+        Lemming.loadLemmings();
+        lemmSkillRequest = null;
+
+        MiscGfx.init(ToolBox.scale(width, 1.0 / 16.0));
+        LemmFont.init();
+        TextScreen.init();
+        NumFont.init();
+        LemmCursor.init();
+        Music.init();
+        Music.setGain(musicGain);
+
+        timesFailed = 0;
+
+        replay = new ReplayStream();
+
+        debugWasActivated = Core.player.isDebugMode();
+
+        System.out.println("GameController initialization complete.");
+    }
+
+    /**
+     * Initialization without sound, graphics or user interface, e.g. for verifying replays.
+     * Only the level packs and the resources needed by the simulation are loaded.
+     * @throws ResourceException
+     */
+    public static void initHeadless() throws ResourceException {
+        loadLevelPacks();
+        Explosion.init();
+        Lemming.loadLemmings();
+        replay = new ReplayStream();
+        gameState = State.INIT;
+    }
+
+    /**
+     * Read all level packs.
+     */
+    private static void loadLevelPacks() {
         // read level packs
         levelPacks = new ArrayList<>(32);
         externalLevelList = new LinkedHashSet<>();
@@ -423,33 +437,6 @@ public class GameController {
         curLevelPack = 0;
         curLevelNumber = 0;
         modPaths = levelPacks.get(curLevelPack).getModPaths();
-
-        sound = new Sound();
-        sound.setGain(soundGain);
-        Icons.init();
-        Explosion.init();
-        Lemming.loadLemmings();
-        lemmSkillRequest = null;
-
-        MiscGfx.init(ToolBox.scale(width, 1.0 / 16.0));
-        LemmFont.init();
-        TextScreen.init();
-        NumFont.init();
-        LemmCursor.init();
-        Music.init();
-        Music.setGain(musicGain);
-
-        timesFailed = 0;
-        numSkillsUsed = 0;
-
-        replayFrame = 0;
-        replay = new ReplayStream();
-        replayMode = false;
-        stopReplayMode = false;
-
-        debugWasActivated = Core.player.isDebugMode();
-
-        System.out.println("GameController initialization complete.");
     }
 
     /**
@@ -536,8 +523,8 @@ public class GameController {
      * Fade out at end of level.
      */
     public static synchronized void endLevel() {
-        if (!replayMode && !debugWasActivated) {
-            replay.addEndEvent(replayFrame);
+        if (!isReplayMode() && !debugWasActivated) {
+            replay.addEndEvent(getReplayFrame());
         }
         transitionState = TransitionState.END_LEVEL;
         gameState = State.LEVEL_END;
@@ -563,7 +550,9 @@ public class GameController {
             Core.player.store();
         }
 
-        replayMode = false;
+        if (sim != null) {
+            sim.setReplayMode(false);
+        }
         gameState = State.DEBRIEFING;
     }
 
@@ -573,20 +562,164 @@ public class GameController {
      * @param showBriefing
      */
     private static synchronized void restartLevel(final boolean doReplay, final boolean showBriefing) throws LemmException, ResourceException {
-        if (!replayMode && wasLost() && (gameState == State.LEVEL
+        if (!isReplayMode() && wasLost() && (gameState == State.LEVEL
                 || gameState == State.LEVEL_END
                 || gameState == State.DEBRIEFING)) {
             timesFailed++;
         }
         initLevel(showBriefing);
         if (doReplay) {
-            replayMode = true;
             replay.save(Core.TEMP_PATH + "/replay.rpl");
             replay.rewind();
         } else {
-            replayMode = false;
             replay.clear();
         }
+        sim.setReplayMode(doReplay);
+    }
+
+    /**
+     * Save the state of the simulation between two frames. Only the foreground tiles that
+     * changed since the last snapshot are copied.
+     * @return snapshot that can be restored while the current level is played
+     */
+    public static synchronized Snapshot saveSnapshot() {
+        Snapshot s = sim.saveSnapshot();
+        s.lemmSkill = lemmSkill;
+        s.lemmSkillOld = lemmSkillOld;
+        return s;
+    }
+
+    /**
+     * Restore the state of the simulation from a snapshot of the current level.
+     * In replay mode, the replay continues from the restored frame. Otherwise, the replay
+     * events recorded after the snapshot was saved are removed.
+     * The skill selection is restored, too, and shown in the icon bar.
+     * @param s snapshot saved by {@link #saveSnapshot()}
+     * @return false if the snapshot was saved in a different level, true otherwise
+     */
+    public static synchronized boolean restoreSnapshot(final Snapshot s) {
+        if (sim == null || !sim.restoreSnapshot(s)) {
+            return false;
+        }
+        vsfxs.clear();
+        lemmsUnderCursor.clear();
+        lemmSkillRequest = null;
+        lemmSkill = s.lemmSkill;
+        lemmSkillOld = s.lemmSkillOld;
+        pressSkillIcon(lemmSkill);
+        // a divergence after the restored frame is forgotten
+        setTitle();
+        if (!sim.isReplayMode()) {
+            checkpoints.removeAfter(sim.getReplayFrame());
+        }
+        return true;
+    }
+
+    /**
+     * Go to a frame of the current level. The nearest checkpoint before the frame is restored
+     * if needed, and the skip mode simulates the remaining frames by the game loop.
+     * In replay mode, this seeks within the replay. Otherwise, seeking backwards removes
+     * the replay events recorded after the frame, and seeking forward just lets time pass.
+     * Must only be called by the game thread, see {@link #post(Runnable)}.
+     * @param frame replay frame
+     * @return true if the frame is reached or being skipped to, false otherwise
+     */
+    public static synchronized boolean seek(final int frame) {
+        if (gameState != State.LEVEL) {
+            return false;
+        }
+        int target = Math.max(frame, 0);
+        Snapshot s = checkpoints.floor(target);
+        if (s != null && (target < sim.getReplayFrame() || s.getReplayFrame() > sim.getReplayFrame())) {
+            restoreSnapshot(s);
+        } else if (target < sim.getReplayFrame()) {
+            return false;
+        }
+        if (sim.getReplayFrame() < target) {
+            startSkip(target, SkipCondition.NONE);
+        }
+        return true;
+    }
+
+    /**
+     * Start the skip mode: the game is simulated as fast as possible without drawing anything
+     * or playing sounds until the given frame is reached, the given condition is met,
+     * the level ends or {@link #stopSkip()} is called.
+     * The skip mode ignores the pause, but doesn't end it.
+     * @param frame replay frame at which the skip mode ends, or -1 for no frame
+     * @param condition condition that ends the skip mode
+     */
+    public static synchronized void startSkip(final int frame, final SkipCondition condition) {
+        if (gameState != State.LEVEL) {
+            return;
+        }
+        skipFrame = (frame < 0) ? Integer.MAX_VALUE : frame;
+        skipCondition = condition;
+        skipping = true;
+        setSimulationOnly(true);
+        checkSkipEnd();
+    }
+
+    /**
+     * Stop the skip mode and bring everything that isn't updated during the skip mode up to date.
+     */
+    public static synchronized void stopSkip() {
+        if (skipping) {
+            skipping = false;
+            setSimulationOnly(false);
+        }
+    }
+
+    /**
+     * Check whether the skip mode is active.
+     * @return true if the skip mode is active, false otherwise
+     */
+    public static synchronized boolean isSkipping() {
+        return skipping;
+    }
+
+    /**
+     * Stop the skip mode if its target was reached.
+     */
+    private static void checkSkipEnd() {
+        if (skipping && (gameState != State.LEVEL || sim.getReplayFrame() >= skipFrame
+                || skipCondition == SkipCondition.ALL_RELEASED && sim.getNumLemmingsOut() >= sim.getNumLemmingsMax())) {
+            stopSkip();
+        }
+    }
+
+    /**
+     * Switch between only running the simulation and normal operation.
+     * @param on true: only run the simulation, false: normal operation
+     */
+    private static void setSimulationOnly(final boolean on) {
+        if (on == simulationOnly) {
+            return;
+        }
+        simulationOnly = on;
+        sound.setMuted(on);
+        if (!on && minimapPending != null) {
+            Minimap.terrainChanged(Collections.singletonList(minimapPending));
+            minimapPending = null;
+        }
+    }
+
+    /**
+     * Draw terrain changes to the minimap, or remember them while only the simulation runs.
+     * @param rects changed rectangles
+     */
+    private static void updateMinimap(final List<Rectangle> rects) {
+        if (simulationOnly) {
+            for (Rectangle r : rects) {
+                if (minimapPending == null) {
+                    minimapPending = new Rectangle(r);
+                } else {
+                    minimapPending.add(r);
+                }
+            }
+        } else {
+            Minimap.terrainChanged(rects);
+        }
     }
 
     /**
@@ -598,14 +731,11 @@ public class GameController {
         setFastForward(false);
         setVerticalLock(false);
         setPaused(false);
-        nuke = false;
 
         lemmSkillRequest = null;
 
         TextScreen.setMode(TextScreen.Mode.INIT);
 
-        lemmings.clear();
-        explosions.clear();
         Icons.reset();
 
         plus.init();
@@ -614,62 +744,28 @@ public class GameController {
         int oldWidth = width;
         int oldHeight = height;
 
-        numExited = 0;
-        releaseRate = level.getReleaseRate();
-        lockReleaseRate = level.isReleaseRateLocked();
-        numLemmingsMax = level.getNumLemmings();
-        numLemmingsOut = 0;
-        numToRescue = level.getNumToRescue();
-        time = level.getTimeLimitSeconds();
-        numClimbers = level.getNumClimbers();
-        numFloaters = level.getNumFloaters();
-        numBombers = level.getNumBombers();
-        numBlockers = level.getNumBlockers();
-        numBuilders = level.getNumBuilders();
-        numBashers = level.getNumBashers();
-        numMiners = level.getNumMiners();
-        numDiggers = level.getNumDiggers();
-        numSkillsUsed = 0;
+        sim = new Simulation(level, replay, EVENTS);
+        sim.setParallelSensing(parallelSensing);
+        sim.setTimedBombers(isOptionEnabled(SLTooOption.TIMED_BOMBERS));
+        sim.setStateHashing(recordStateHashes);
+        sim.getTerrainJournal().addListener(GameController::updateMinimap);
         xPosCenter = level.getXPosCenter();
         yPosCenter = level.getYPosCenter();
-        width = level.getWidth();
-        height = level.getHeight();
-        if (time <= 0) {
-            timed = false;
-            time = 0;
-        } else {
-            timed = true;
-        }
-        timeLimit = time;
-        timeElapsedTillLastExited = 0;
+        width = sim.getWidth();
+        height = sim.getHeight();
+        checkpoints.clear();
+        minimapPending = null;
+        stopSkip();
 
-        level.paintLevel();
-        stencil = level.getStencil();
-        fgImage = level.getFgImage();
+        stencil = sim.getStencil();
+        fgImage = sim.getFgImage();
 
         if (width != oldWidth || height != oldHeight) {
             MiscGfx.setMinimapWidth(ToolBox.scale(width, 1.0 / 16.0));
         }
 
-        TrapDoor.reset(level.getNumEntrances(), level.getEntranceOrder());
-        startSoundPlayed = false;
-        startSoundCtr = 0;
-        entranceOpened = false;
-        entranceOpenCtr = 0;
-        secondCtr = 0;
-        releaseCtr = 0;
         lemmSkill = null;
 
-        entranceSprites.clear();
-        for (int i = 0; i < level.getNumEntrances(); i++) {
-            SpriteObject spr = level.getSprObject(level.getEntrance(i).id);
-            if (spr != null) {
-                entranceSprites.add(spr);
-            }
-        }
-
-        calcReleaseBase();
-
         int scaleFactorWidth = width / 800;
         if (width % 800 != 0) {
             scaleFactorWidth++;
@@ -681,14 +777,7 @@ public class GameController {
         int scaleFactor = NumberUtils.max(4, scaleFactorWidth, scaleFactorHeight);
         mapPreview = level.createMinimap(fgImage, 1.0 / scaleFactor, 1.0 / scaleFactor, true, false, true);
 
-        setSuperLemming(level.isSuperLemming());
-        forceNormalTimerSpeed = level.getForceNormalTimerSpeed();
-
-        replayFrame = 0;
-        stopReplayMode = false;
-        releaseRateOld = releaseRate;
         lemmSkillOld = lemmSkill;
-        nukeOld = false;
 
         String music = level.getMusic();
         try {
@@ -743,10 +832,10 @@ public class GameController {
      * @param showBriefing
      */
     public static synchronized void requestRestartLevel(final boolean doReplay, final boolean showBriefing) {
-        if (doReplay && !replayMode) {
-            replay.addEndEvent(replayFrame);
+        if (doReplay && !isReplayMode()) {
+            replay.addEndEvent(getReplayFrame());
         }
-        if (doReplay || replayMode) {
+        if (doReplay || isReplayMode()) {
             if (showBriefing) {
                 transitionState = TransitionState.REPLAY_LEVEL;
             } else {
@@ -819,22 +908,36 @@ public class GameController {
         initLevel(true);
 
         if (doReplay) {
-            replayMode = true;
             replay.rewind();
         } else {
-            replayMode = false;
             replay.clear();
         }
+        sim.setReplayMode(doReplay);
 
         return level;
     }
 
+    /**
+     * Make the mods of a level pack the active resources for the simulation, without loading
+     * any resources of the user interface. Must not be called while a simulation is running.
+     * @param lPack index of level pack
+     * @throws ResourceException
+     */
+    static synchronized void selectModsHeadless(final int lPack) throws ResourceException {
+        List<String> oldMods = modPaths;
+        modPaths = levelPacks.get(lPack).getModPaths();
+        if (!modPaths.equals(oldMods)) {
+            Explosion.init();
+            Lemming.loadLemmings();
+        }
+    }
+
     /**
      * Get level lost state.
      * @return true if level was lost, false otherwise
      */
     public static synchronized boolean wasLost() {
-        return gameState == State.LEVEL || numExited < numToRescue;
+        return gameState == State.LEVEL || getNumExited() < getNumToRescue();
     }
 
     /**
@@ -842,10 +945,10 @@ public class GameController {
      * @return current replay image
      */
     public static synchronized LemmImage getReplayImage() {
-        if (!replayMode) {
+        if (!isReplayMode()) {
             return null;
         }
-        if ((replayFrame & 0x3f) > 0x20) {
+        if ((sim.getReplayFrame() & 0x3f) > 0x20) {
             return MiscGfx.getImage(MiscGfx.Index.REPLAY_1);
         } else {
             return MiscGfx.getImage(MiscGfx.Index.REPLAY_2);
@@ -997,22 +1100,22 @@ public class GameController {
     }
 
     /**
-     * Lemming has exited the Level.
+     * Stop replay.
      */
-    static synchronized void increaseExited() {
-        numExited++;
-        timeElapsedTillLastExited = time;
+    public static void stopReplayMode() {
+        if (isReplayMode()) {
+            replay.clearFrom(sim.getReplayFrame());
+            checkpoints.removeAfter(sim.getReplayFrame());
+            sim.setReplayMode(false);
+        }
     }
 
     /**
-     * Stop replay.
+     * Check whether a replay is played back.
+     * @return true if replay mode is active, false otherwise
      */
-    public static void stopReplayMode() {
-        if (replayMode) {
-            replay.clearFrom(replayFrame);
-            replayMode = false;
-            stopReplayMode = false;
-        }
+    private static boolean isReplayMode() {
+        return sim != null && sim.isReplayMode();
     }
 
     /**
@@ -1020,6 +1123,7 @@ public class GameController {
      * @return time as String "minutes-seconds"
      */
     public static synchronized String getTimeString() {
+        int time = getTime();
         return String.format(Locale.ROOT, "%d-%02d", time / 60, time % 60);
     }
     
@@ -1035,6 +1139,43 @@ public class GameController {
         return levelPackIndex + "," + ratingIndex + "," + levelIndex;
     }
 
+    /**
+     * Queue an input command for the game thread. The AWT threads use this instead of changing
+     * the game state themselves, so they never wait for the game thread to finish a frame and
+     * all input reaches the game (and the replay) in the order it was made.
+     * @param command command, should only use the values it was created with
+     */
+    public static void post(final Runnable command) {
+        commandTime.compareAndSet(0, System.nanoTime());
+        commands.add(command);
+    }
+
+    /**
+     * Execute all queued input commands. Must only be called by the game thread.
+     */
+    public static void processCommands() {
+        long t = commandTime.getAndSet(0);
+        if (t != 0 && inputTime == 0) {
+            inputTime = t;
+        }
+        Runnable command;
+        while ((command = commands.poll()) != null) {
+            command.run();
+        }
+    }
+
+    /**
+     * Get the time the oldest input command processed since the last call was queued, to measure
+     * the latency until the frame showing its effect is presented. Must only be called by the
+     * game thread.
+     * @return time in nanoseconds, or 0 if no input was processed
+     */
+    public static long takeInputTime() {
+        long t = inputTime;
+        inputTime = 0;
+        return t;
+    }
+
     /**
      * Update the whole game state by one frame.
      */
@@ -1043,23 +1184,29 @@ public class GameController {
             return;
         }
 
-        updateCtr++;
+        if (sim.getReplayFrame() % CHECKPOINT_INTERVAL == 0 && !checkpoints.contains(sim.getReplayFrame())) {
+            checkpoints.add(saveSnapshot());
+        }
+
+        sim.setDebugMode(Core.player.isDebugMode());
+        sim.setMaximumExitPhysics(Core.player.isMaximumExitPhysics());
+        sim.setTimedBombers(isOptionEnabled(SLTooOption.TIMED_BOMBERS));
+        sim.countUpdate();
 
-        if (!replayMode) {
+        if (!sim.isReplayMode()) {
             assignSkill(false); // first try to assign skill
         }
 
         // check +/- buttons also if paused
         KeyRepeat.Event fired = plus.fired();
         if (fired != KeyRepeat.Event.NONE) {
-            if (!lockReleaseRate && releaseRate < level.getMaxReleaseRate()) {
+            if (!sim.isReleaseRateLocked() && sim.getReleaseRate() < level.getMaxReleaseRate()) {
                 if (fired == KeyRepeat.Event.DOUBLE_CLICK) {
-                    releaseRate = level.getMaxReleaseRate();
+                    sim.setReleaseRate(level.getMaxReleaseRate());
                 } else {
-                    releaseRate += 1;
+                    sim.setReleaseRate(sim.getReleaseRate() + 1);
                 }
-                calcReleaseBase();
-                sound.playPitched(Sound.PitchedEffect.RELEASE_RATE, (int) Math.round(releaseRate * 2.69));
+                sound.playPitched(Sound.PitchedEffect.RELEASE_RATE, (int) Math.round(sim.getReleaseRate() * 2.69));
 
             } else {
                 sound.play(Sound.Effect.INVALID);
@@ -1068,14 +1215,13 @@ public class GameController {
 
         fired = minus.fired();
         if (fired != KeyRepeat.Event.NONE) {
-            if (!lockReleaseRate && releaseRate > level.getReleaseRate()) {
+            if (!sim.isReleaseRateLocked() && sim.getReleaseRate() > level.getReleaseRate()) {
                 if (fired == KeyRepeat.Event.DOUBLE_CLICK) {
-                    releaseRate = level.getReleaseRate();
+                    sim.setReleaseRate(level.getReleaseRate());
                 } else {
-                    releaseRate -= 1;
+                    sim.setReleaseRate(sim.getReleaseRate() - 1);
                 }
-                calcReleaseBase();
-                sound.playPitched(Sound.PitchedEffect.RELEASE_RATE, (int) Math.round(releaseRate * 2.69));
+                sound.playPitched(Sound.PitchedEffect.RELEASE_RATE, (int) Math.round(sim.getReleaseRate() * 2.69));
             } else {
                 sound.play(Sound.Effect.INVALID);
             }
@@ -1084,26 +1230,27 @@ public class GameController {
 
         if (forceAdvanceFrame) {
             forceAdvanceFrame = false;
-        } else if (isPaused()) {
+        } else if (isPaused() && !simulationOnly) {
             return;
         }
 
         // test for end of replay mode
-        if (replayMode && stopReplayMode) {
+        if (sim.isReplayMode() && sim.isReplayEnded()) {
             stopReplayMode();
         }
 
-        if (!replayMode) {
+        if (!sim.isReplayMode()) {
+            int replayFrame = sim.getReplayFrame();
             if (!debugWasActivated) {
                 // replay: release rate changed?
-                if (releaseRate != releaseRateOld) {
-                    replay.addReleaseRateEvent(replayFrame, releaseRate);
-                    releaseRateOld = releaseRate;
+                if (sim.getReleaseRate() != sim.getReleaseRateOld()) {
+                    replay.addReleaseRateEvent(replayFrame, sim.getReleaseRate());
+                    sim.setReleaseRateOld(sim.getReleaseRate());
                 }
                 // replay: nuked?
-                if (nuke != nukeOld) {
+                if (sim.isNuked() != sim.isNukeOld()) {
                     replay.addNukeEvent(replayFrame);
-                    nukeOld = nuke;
+                    sim.setNukeOld(sim.isNuked());
                 }
                 // replay: position changed?
                 if (getXPos() != xPosOld || getYPos() != yPosOld) {
@@ -1119,289 +1266,110 @@ public class GameController {
             } else {
                 replay.clear();
             }
-        } else {
-            // replay mode
-            ReplayEvent r;
-            while ((r = replay.getNext(replayFrame)) != null) {
-                switch (r.type) {
-                    case ReplayStream.ASSIGN_SKILL: {
-                        ReplayAssignSkillEvent rs = (ReplayAssignSkillEvent) r;
-                        double pan;
-                        Lemming l = lemmings.get(rs.lemming);
-                        l.setSkill(rs.skill, false, r);
-                        l.setSelected();
-                        pan = l.getPan();
-                        switch (rs.skill) {
-                            case CLIMBER:
-                                if (numClimbers != Integer.MAX_VALUE) {
-                                    numClimbers--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case FLOATER:
-                                if (numFloaters != Integer.MAX_VALUE) {
-                                    numFloaters--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case FLAPPER:
-                                if (numBombers != Integer.MAX_VALUE) {
-                                    numBombers--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case BLOCKER:
-                                if (numBlockers != Integer.MAX_VALUE) {
-                                    numBlockers--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case BUILDER:
-                                if (numBuilders != Integer.MAX_VALUE) {
-                                    numBuilders--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case BASHER:
-                                if (numBashers != Integer.MAX_VALUE) {
-                                    numBashers--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case MINER:
-                                if (numMiners != Integer.MAX_VALUE) {
-                                    numMiners--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            case DIGGER:
-                                if (numDiggers != Integer.MAX_VALUE) {
-                                    numDiggers--;
-                                    numSkillsUsed++;
-                                }
-                                break;
-                            default:
-                                break;
-                        }
-                        sound.play(Sound.Effect.SELECT_SKILL, pan);
-                        break;
-                    }
-                    case ReplayStream.SET_RELEASE_RATE:
-                        if (!lockReleaseRate) {
-                            ReplayReleaseRateEvent rr = (ReplayReleaseRateEvent) r;
-                            releaseRate = rr.releaseRate;
-                            calcReleaseBase();
-                            sound.playPitched(Sound.PitchedEffect.RELEASE_RATE, releaseRate + 99);
-                            releaseRateOld = releaseRate;
-                        }
-                        break;
-                    case ReplayStream.NUKE:
-                        nuke();
-                        pressIcon(Icons.IconType.NUKE);
-                        nukeOld = nuke;
-                        break;
-                    case ReplayStream.MOVE_POS: {
-                        ReplayMovePosEvent rx = (ReplayMovePosEvent) r;
-                        if (isOptionEnabled(Option.REPLAY_SCROLL) && rx.player == 0) {
-                            setXPos(rx.xPos - Core.getDrawWidth() / 2);
-                            setYPos(rx.yPos - LemminiFrame.LEVEL_HEIGHT / 2);
-                            xPosOld = xPos;
-                            yPosOld = yPos;
-                        }
-                        break;
-                    }
-                    case ReplayStream.SELECT_SKILL: {
-                        ReplaySelectSkillEvent rs = (ReplaySelectSkillEvent) r;
-                        if (rs.player == 0) {
-                            lemmSkill = rs.skill;
-                            switch (lemmSkill) {
-                                case CLIMBER:
-                                    pressIcon(Icons.IconType.CLIMB);
-                                    break;
-                                case FLOATER:
-                                    pressIcon(Icons.IconType.FLOAT);
-                                    break;
-                                case FLAPPER:
-                                    pressIcon(Icons.IconType.BOMB);
-                                    break;
-                                case BLOCKER:
-                                    pressIcon(Icons.IconType.BLOCK);
-                                    break;
-                                case BUILDER:
-                                    pressIcon(Icons.IconType.BUILD);
-                                    break;
-                                case BASHER:
-                                    pressIcon(Icons.IconType.BASH);
-                                    break;
-                                case MINER:
-                                    pressIcon(Icons.IconType.MINE);
-                                    break;
-                                case DIGGER:
-                                    pressIcon(Icons.IconType.DIG);
-                                    break;
-                                default:
-                                    break;
-                            }
-                            lemmSkillOld = lemmSkill;
-                        }
-                        break;
-                    }
-                    case ReplayStream.END:
-                        stopReplayMode = true;
-                        break;
-                    default:
-                        break;
-                }
-            }
         }
 
-        // replay: xpos changed
+        // replay events, time, release, nuke, entrances, Lemmings, explosions and level objects
+        sim.step();
+        if (recordStateHashes && !sim.isReplayMode() && !debugWasActivated) {
+            replay.addStateHash(sim.getReplayFrame(), sim.getStateHash());
+        }
 
-        // store locally to avoid it's overwritten amidst function
-        boolean nukeTemp = nuke;
+        //animate or remove visual sfx
+        for (Iterator<Vsfx> it = vsfxs.iterator(); it.hasNext(); ) {
+            Vsfx l = it.next();
+            l.animate();
+            if (l.hasFinished()) {
+                it.remove();
+            }
+        }
 
-        // time
-        secondCtr++;
-        if (secondCtr > ((superLemming && forceNormalTimerSpeed)
-                ? MAX_SUPERLEMMING_SECOND_CTR[time % MAX_SUPERLEMMING_SECOND_CTR.length]
-                : MAX_SECOND_CTR[time % MAX_SECOND_CTR.length])) {
-            // one second passed
-            secondCtr -= (superLemming && forceNormalTimerSpeed)
-                    ? MAX_SUPERLEMMING_SECOND_CTR[time % MAX_SUPERLEMMING_SECOND_CTR.length]
-                    : MAX_SECOND_CTR[time % MAX_SECOND_CTR.length];
+        if (!sim.isReplayMode()) {
+            assignSkill(true); // 2nd try to assign skill
+        }
 
-            if (timed) {
-                if (time > 0) {
-                    time--;
-                }
-            } else {
-                time++;
-            }
-            if (!Core.player.isDebugMode() && time <= 0 && timed) {
-                // level failed
-                endLevel();
-            }
+        sim.endFrame();
+        checkSkipEnd();
+    }
+
+    /**
+     * Receiver of the simulation's sounds, visual SFX and replayed user input.
+     */
+    private static final SimulationEvents EVENTS = new SimulationEvents() {
+        @Override
+        public void playSound(final Sound.Effect e, final double pan) {
+            sound.play(e, pan);
         }
-        // release
-        if (entranceOpened && !nukeTemp /*&& !isPaused()*/ && numLemmingsOut < getNumLemmingsMax() && --releaseCtr <= 0) {
-            releaseCtr = releaseBase;
-            if (level.getNumEntrances() != 0) {
-                Level.Entrance e = level.getEntrance(TrapDoor.getNext());
-                Lemming l = new Lemming(e.xPos + 2, e.yPos + Lemming.HEIGHT, e.leftEntrance ? Lemming.Direction.LEFT : Lemming.Direction.RIGHT);
-                lemmings.add(l);
-                numLemmingsOut++;
-            }
+
+        @Override
+        public void playSound(final SpriteObject spr) {
+            sound.play(spr);
         }
-        // nuking
-        if (nukeTemp && ((updateCtr & 1) == 1)) {
-            for (Lemming l : lemmings) {
-                if (!l.nuke() && !l.hasDied() && !l.hasExited()) {
-                    l.setSkill(Lemming.Type.NUKE, false);
-                    //System.out.println("nuked!");
-                    break;
-                }
-            }
+
+        @Override
+        public void playPitchedSound(final Sound.PitchedEffect pe, final int pitch) {
+            sound.playPitched(pe, pitch);
         }
 
-        if (!startSoundPlayed) {
-            if (++startSoundCtr == MAX_START_SOUND_CTR) {
-                //show the Let's Go graphic several times
-                for( SpriteObject spr : entranceSprites) {
-                    //display the graphic right below the opening sprite.
-                    int y = spr.getY() + spr.getHeight() + (Vsfx.IMG_HEIGHT/2);
-                    sound.playVisualSFXSilent(Sound.Effect.START, spr.midX(), y);
-                }
-                //play the actual sfx only once
-                sound.play(Sound.Effect.START);
-                startSoundPlayed = true;
-            }
+        @Override
+        public void playVisualSFX(final SpriteObject spr) {
+            sound.playVisualSFX(spr);
         }
-        // open trap doors?
-        if (!entranceOpened) {
-            if (++entranceOpenCtr == MAX_ENTRANCE_OPEN_CTR) {
-                for (int i = 0; i < level.getNumSprObjects(); i++) {
-                    SpriteObject spr = level.getSprObject(i);
-                    if (spr != null && spr.getAnimMode() == Sprite.Animation.ONCE_ENTRANCE) {
-                        spr.setAnimMode(Sprite.Animation.ONCE);
-                    }
-                }
-                level.openBackgroundEntrances();
-                // BOOKMARK - this is the *creak* sound of the doors opening (sound_5 door.wav)
-
-                // this code here plays the sound and shows the "creak" VSFX
-                //entranceSprites.stream().forEach(sound::playVisualSFX);
-
-                // this code just plays the sound
-                entranceSprites.stream().forEach(sound::play);
-            } else if (entranceOpenCtr == MAX_ENTRANCE_OPEN_CTR + 30) {
-                //System.out.println("opened");
-                entranceOpened = true;
-                releaseCtr = 0; // first lemming to enter at once
-                if (isOptionEnabled(Option.MUSIC_ON)) {
-                    Music.play();
-                }
-            }
+
+        @Override
+        public void playVisualSFX(final int idx, final int x, final int y) {
+            sound.playVisualSFX(idx, x, y);
         }
-        // end of game conditions
-        if ((nukeTemp || numLemmingsOut == getNumLemmingsMax()) && lemmings.isEmpty()) {
-            // End the level only if no objects are triggered.
-            boolean endLevel = true;
-            for (int i = 0; i < level.getNumSprObjects(); i++) {
-                SpriteObject sprite = level.getSprObject(i);
-                if (sprite != null && sprite.isTriggered()) {
-                    endLevel = false;
-                    break;
-                }
-            }
-            if (endLevel) {
-                endLevel();
-            }
+
+        @Override
+        public void playVisualSFX(final Sound.Effect e, final int x, final int y) {
+            sound.playVisualSFX(e, x, y);
         }
 
-        //animate or remove Lemmings
-        for (Iterator<Lemming> it = lemmings.iterator(); it.hasNext(); ) {
-            Lemming l = it.next();
-            l.animate();
-            if (l.hasDied() || l.hasExited()) {
-                it.remove();
-            }
+        @Override
+        public void showVisualSFX(final Sound.Effect e, final int x, final int y) {
+            sound.playVisualSFXSilent(e, x, y);
         }
 
-        //animate or remove Explosions
-        for (Iterator<Explosion> it = explosions.iterator(); it.hasNext(); ) {
-            Explosion e = it.next();
-            if (e.isFinished()) {
-                it.remove();
-            } else {
-                e.update();
+        @Override
+        public void entrancesOpened() {
+            if (isOptionEnabled(Option.MUSIC_ON)) {
+                Music.play();
             }
         }
 
-        //animate or remove visual sfx
-        for (Iterator<Vsfx> it = vsfxs.iterator(); it.hasNext(); ) {
-            Vsfx l = it.next();
-            l.animate();
-            if (l.hasFinished()) {
-                it.remove();
-            }
+        @Override
+        public void levelEnded() {
+            endLevel();
         }
 
+        @Override
+        public void replaySkillSelected(final Lemming.Type skill) {
+            lemmSkill = skill;
+            pressSkillIcon(lemmSkill);
+            lemmSkillOld = lemmSkill;
+        }
 
-        // animate level objects
-        for (int n = 0; n < level.getNumSprObjects(); n++) {
-            SpriteObject spr = level.getSprObject(n);
-            if (spr != null) {
-                spr.getImageAnim(); // just to animate
-            }
+        @Override
+        public void stateDiverged(final int frame, final String subsystems) {
+            System.out.println("replay diverged in frame " + frame + ": " + subsystems);
+            setTitle();
         }
-        level.advanceBackgroundFrame();
 
-        if (!replayMode) {
-            assignSkill(true); // 2nd try to assign skill
+        @Override
+        public void replayNuked() {
+            pressIcon(Icons.IconType.NUKE);
         }
 
-        replayFrame++;
-    }
+        @Override
+        public void replayScrolled(final int x, final int y) {
+            if (isOptionEnabled(Option.REPLAY_SCROLL)) {
+                setXPos(x - Core.getDrawWidth() / 2);
+                setYPos(y - LemminiFrame.LEVEL_HEIGHT / 2);
+                xPosOld = xPos;
+                yPosOld = yPos;
+            }
+        }
+    };
 
     /**
      * Request a skill change for a Lemming (currently selected skill).
@@ -1431,121 +1399,9 @@ public class GameController {
             lemmSkillRequest = null;
         }
 
-        boolean canSet = false;
         stopReplayMode();
 
-        if (Core.player.isDebugMode()) {
-            canSet = lemm.setSkill(lemmSkill, true);
-        } else {
-            switch (lemmSkill) {
-                case CLIMBER:
-                    if (numClimbers > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numClimbers != Integer.MAX_VALUE) {
-                                numClimbers--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case FLOATER:
-                    if (numFloaters > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numFloaters != Integer.MAX_VALUE) {
-                                numFloaters--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case FLAPPER:
-                    if (numBombers > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numBombers != Integer.MAX_VALUE) {
-                                numBombers--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case BLOCKER:
-                    if (numBlockers > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numBlockers != Integer.MAX_VALUE) {
-                                numBlockers--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case BUILDER:
-                    if (numBuilders > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numBuilders != Integer.MAX_VALUE) {
-                                numBuilders--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case BASHER:
-                    if (numBashers > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numBashers != Integer.MAX_VALUE) {
-                                numBashers--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case MINER:
-                    if (numMiners > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numMiners != Integer.MAX_VALUE) {
-                                numMiners--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                case DIGGER:
-                    if (numDiggers > 0) {
-                        if (lemm.setSkill(lemmSkill, true)) {
-                            if (numDiggers != Integer.MAX_VALUE) {
-                                numDiggers--;
-                                numSkillsUsed++;
-                            }
-                            canSet = true;
-                        }
-                    } else {
-                        sound.play(Sound.Effect.INVALID, lemm.getPan());
-                    }
-                    break;
-                default:
-                    break;
-            }
-        }
+        boolean canSet = sim.assignSkill(lemm, lemmSkill, Core.player.isDebugMode());
         if (canSet) {
             lemmSkillRequest = null; // erase request
             if (isPaused() && isOptionEnabled(Option.UNPAUSE_ON_ASSIGNMENT)) {
@@ -1554,10 +1410,10 @@ public class GameController {
             }
             // add to replay stream
             if (!debugWasActivated) {
-                int idx = lemmings.indexOf(lemm);
+                int idx = sim.getLemmings().indexOf(lemm);
                 if (idx != StringUtils.INDEX_NOT_FOUND) {
                     // if 2nd try (delete == true) assign to next frame
-                    replay.addAssignSkillEvent(replayFrame + ((delete) ? 1 : 0), lemmSkill, idx);
+                    replay.addAssignSkillEvent(sim.getReplayFrame() + ((delete) ? 1 : 0), lemmSkill, idx);
                 }
             }
         } else if (!delete) {
@@ -1565,17 +1421,6 @@ public class GameController {
         }
     }
 
-    /**
-     * Calculate the counter threshold for releasing a new Lemmings.
-     */
-    private static void calcReleaseBase() {
-        // the original formula is: release lemming every (107-releaseRate)/2 time steps
-        // where one step is 60ms (3s/50) or 66ms (4s/60).
-        // Lemmini runs at 30ms/33ms, so the term has to be multiplied by 2
-        // 107-releaseRate should be correct
-        releaseBase = 107 - releaseRate;
-    }
-
     /**
      * Handle pressing of an icon button.
      * @param type icon type
@@ -1634,8 +1479,8 @@ public class GameController {
                 case NUKE:
                     stopReplayMode();
                     if (timerNuke.delta() < NANOSEC_NUKE_DOUBLE_CLICK) {
-                        if (!nuke) {
-                            nuke();
+                        if (!sim.isNuked()) {
+                            sim.nuke();
                         }
                     } else {
                         timerNuke.deltaUpdate();
@@ -1739,35 +1584,30 @@ public class GameController {
             case RESTART:
                 return true;
             case CLIMB:
-                return (Core.player.isDebugMode() || numClimbers > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.CLIMBER) > 0) && Icons.getSelectedSkill() != type;
             case FLOAT:
-                return (Core.player.isDebugMode() || numFloaters > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.FLOATER) > 0) && Icons.getSelectedSkill() != type;
             case BOMB:
-                return (Core.player.isDebugMode() || numBombers > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.FLAPPER) > 0) && Icons.getSelectedSkill() != type;
             case BLOCK:
-                return (Core.player.isDebugMode() || numBlockers > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.BLOCKER) > 0) && Icons.getSelectedSkill() != type;
             case BUILD:
-                return (Core.player.isDebugMode() || numBuilders > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.BUILDER) > 0) && Icons.getSelectedSkill() != type;
             case BASH:
-                return (Core.player.isDebugMode() || numBashers > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.BASHER) > 0) && Icons.getSelectedSkill() != type;
             case MINE:
-                return (Core.player.isDebugMode() || numMiners > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.MINER) > 0) && Icons.getSelectedSkill() != type;
             case DIG:
-                return (Core.player.isDebugMode() || numDiggers > 0) && Icons.getSelectedSkill() != type;
+                return (Core.player.isDebugMode() || sim.getNumSkills(Lemming.Type.DIGGER) > 0) && Icons.getSelectedSkill() != type;
             case NUKE:
-                return !nuke;
+                return !sim.isNuked();
             default:
                 return false;
         }
     }
 
-    private static void nuke() {
-        nuke = true;
-        sound.play(Sound.Effect.NUKE);
-    }
-
     public static boolean isNuked() {
-        return nuke;
+        return sim != null && sim.isNuked();
     }
 
     /**
@@ -1814,6 +1654,8 @@ public class GameController {
                         JOptionPane.showMessageDialog(LemminiFrame.getFrame(), ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                         System.exit(1);
                     }
+                    // the new simulation hasn't diverged
+                    setTitle();
                     LemmCursor.setBox(false);
                     LemminiFrame.getFrame().setCursor(LemmCursor.CursorType.NORMAL);
                     break;
@@ -1857,14 +1699,19 @@ public class GameController {
                 : (level.getNumToRescue() * 100 / numLemmings) + "%";
         
         String lemmingWord = (numLemmings == 1) ? "Lemming" : "Lemmings";
-        Core.setTitle(String.format("RetroLemmini - %s - %s %d - %s - Save %s of %d %s",
+        String title = String.format("RetroLemmini - %s - %s %d - %s - Save %s of %d %s",
                 GameController.getCurLevelPack().getName(),
                 GameController.getCurLevelPack().getRatings().get(GameController.getCurRating()),
                 GameController.curLevelNumber + 1,
                 level.getLevelName().trim(),
                 numToRescue,
                 numLemmings,
-                lemmingWord));
+                lemmingWord);
+        // the replay doesn't play as it was recorded anymore
+        if (sim != null && sim.getDivergedFrame() >= 0) {
+            title += String.format(" - Replay diverged in frame %d (%s)", sim.getDivergedFrame(), sim.getDivergedSubsystems());
+        }
+        Core.setTitle(title);
     }
 
     /**
@@ -1877,17 +1724,7 @@ public class GameController {
      */
     public static synchronized void drawExplosions(final GraphicsContext g,
             final int width, final int height, final int xOfs, final int yOfs) {
-        explosions.stream().forEachOrdered(e -> e.draw(g, width, height, xOfs, yOfs));
-    }
-
-    /**
-     * Add a new explosion.
-     * @param x x coordinate in pixels.
-     * @param y y coordinate in pixels.
-     */
-    public static synchronized void addExplosion(final int x, final int y) {
-        // create particle explosion
-        explosions.add(new Explosion(x, y));
+        sim.getExplosions().stream().forEachOrdered(e -> e.draw(g, width, height, xOfs, yOfs));
     }
 
     public static synchronized void drawVisualSfx(final GraphicsContext g) {
@@ -1903,7 +1740,10 @@ public class GameController {
     }
 
     public static synchronized void drawLemmings(final GraphicsContext g) {
-        lemmings.stream().forEachOrdered(l -> {
+        int margin = Lemming.getMaxDrawExtent();
+        sim.getLemmingGrid().collect(xPos - margin, yPos - margin,
+                xPos + Core.getDrawWidth() + margin, yPos + LemminiFrame.LEVEL_HEIGHT + margin, lemmsInRect);
+        lemmsInRect.stream().forEachOrdered(l -> {
             //draw lemming.
             int lx = l.screenX();
             int ly = l.screenY();
@@ -1938,7 +1778,9 @@ public class GameController {
     }
 
     public static synchronized void drawMinimapLemmings(final GraphicsContext g, final int x, final int y) {
-        lemmings.stream().forEachOrdered(l -> {
+        sim.getLemmingGrid().collect(Minimap.getVisibleLevelXMin(), Integer.MIN_VALUE,
+                Minimap.getVisibleLevelXMax(), Integer.MAX_VALUE, lemmsInRect);
+        lemmsInRect.stream().forEachOrdered(l -> {
             int lx = l.footX();
             int ly = l.footY();
             // draw pixel in minimap
@@ -1992,31 +1834,31 @@ public class GameController {
                     val = level.getReleaseRate();
                     break;
                 case PLUS:
-                    val = lockReleaseRate ? null : releaseRate;
+                    val = sim.isReleaseRateLocked() ? null : sim.getReleaseRate();
                     break;
                 case CLIMB:
-                    val = numClimbers;
+                    val = sim.getNumSkills(Lemming.Type.CLIMBER);
                     break;
                 case FLOAT:
-                    val = numFloaters;
+                    val = sim.getNumSkills(Lemming.Type.FLOATER);
                     break;
                 case BOMB:
-                    val = numBombers;
+                    val = sim.getNumSkills(Lemming.Type.FLAPPER);
                     break;
                 case BLOCK:
-                    val = numBlockers;
+                    val = sim.getNumSkills(Lemming.Type.BLOCKER);
                     break;
                 case BUILD:
-                    val = numBuilders;
+                    val = sim.getNumSkills(Lemming.Type.BUILDER);
                     break;
                 case BASH:
-                    val = numBashers;
+                    val = sim.getNumSkills(Lemming.Type.BASHER);
                     break;
                 case MINE:
-                    val = numMiners;
+                    val = sim.getNumSkills(Lemming.Type.MINER);
                     break;
                 case DIG:
-                    val = numDiggers;
+                    val = sim.getNumSkills(Lemming.Type.DIGGER);
                     break;
                 default:
                     val = 0;
@@ -2281,7 +2123,83 @@ public class GameController {
      * @throws LemmException
      */
     public static ReplayLevelInfo loadReplay(final Path fn) throws LemmException {
-        return replay.load(fn);
+        ReplayLevelInfo rli = replay.load(fn);
+        if (!replay.isCompatible()) {
+            JOptionPane.showMessageDialog(LemminiFrame.getFrame(),
+                    "This replay was created with a potentially incompatible version of RetroLemmini. "
+                    + "For this reason, the replay might not play properly.",
+                    "Load Replay",
+                    JOptionPane.WARNING_MESSAGE);
+        }
+        return rli;
+    }
+
+    /**
+     * Find the level a replay was recorded in.
+     * @param rli replay level info object
+     * @return index of level pack, rating and level, or null if the level doesn't exist
+     */
+    public static int[] findReplayLevel(final ReplayLevelInfo rli) {
+        int lpn = -1;
+        int rn = -1;
+        int ln = -1;
+        LevelPack lp = null;
+        for (int i = 0; i < levelPacks.size(); i++) {
+            LevelPack lpTemp = levelPacks.get(i);
+            if (ToolBox.looselyEquals(lpTemp.getName(), rli.getLevelPack()) ||
+                    // Handle replays created with the DMA Remastered packs
+                    checkForDMARemasters(rli.getLevelPack(), lpTemp.getName())) {
+                lpn = i;
+                lp = lpTemp;
+            }
+        }
+        if (lp != null && lpn >= 0) {
+            List<String> ratings = lp.getRatings();
+            int rnTemp = rli.getRatingNumber();
+            if (rnTemp < ratings.size()) {
+                rn = rnTemp;
+            }
+            if (rn < 0 || ToolBox.looselyEquals(ratings.get(rn), rli.getRatingName())) {
+                for (int i = 0; i < ratings.size(); i++) {
+                    if (ToolBox.looselyEquals(ratings.get(i), rli.getRatingName())) {
+                        rn = i;
+                    }
+                }
+            }
+            if (rn >= 0) {
+                List<String> levels = lp.getLevels(rn);
+                int lnTemp = rli.getLvlNumber();
+                if (lnTemp < levels.size()) {
+                    ln = lnTemp;
+                }
+                if (ln < 0 || ToolBox.looselyEquals(levels.get(ln), rli.getLvlName())) {
+                    for (int i = 0; i < levels.size(); i++) {
+                        if (ToolBox.looselyEquals(levels.get(i), rli.getLvlName())) {
+                            ln = i;
+                        }
+                    }
+                }
+            }
+        }
+        if (lpn >= 0 && rn >= 0 && ln >= 0) {
+            return new int[] {lpn, rn, ln};
+        }
+        return null;
+    }
+
+    /**
+     * This interprets the DMA Remastered level packs as simply "Lemmings" or "Oh No! More Lemmings"
+     */
+    private static boolean checkForDMARemasters(String replayPackName, String actualPackName) {
+        if (replayPackName.equals("DMA Lemmings [Remastered]")) {
+            return ToolBox.looselyEquals(actualPackName, "Lemmings") ||
+                   ToolBox.looselyEquals(actualPackName, "DMA Lemmings [Remastered]");
+        }
+        if (replayPackName.equals("DMA Oh No! More Lemmings [Remastered]")) {
+            return ToolBox.looselyEquals(actualPackName, "Oh No! More Lemmings") ||
+                   ToolBox.looselyEquals(actualPackName, "DMA Oh No! More Lemmings [Remastered]");
+        }
+        return false;
     }
 
     /**
@@ -2298,7 +2216,9 @@ public class GameController {
      * @param sl true: activate, false: deactivate
      */
     public static void setSuperLemming(final boolean sl) {
-        superLemming = sl;
+        if (sim != null) {
+            sim.setSuperLemming(sl);
+        }
     }
 
     /**
@@ -2306,7 +2226,7 @@ public class GameController {
      * @return true is Superlemming mode is active, false otherwise
      */
     public static boolean isSuperLemming() {
-        return superLemming;
+        return sim != null && sim.isSuperLemming();
     }
 
     /**
@@ -2329,6 +2249,14 @@ public class GameController {
         paused = p;
     }
 
+    /**
+     * Get the number of frames played in the current level.
+     * @return replay frame
+     */
+    public static synchronized int getReplayFrame() {
+        return (sim == null) ? 0 : sim.getReplayFrame();
+    }
+
     /**
      * Get pause state.
      * @return true if pause is active, false otherwise
@@ -2384,7 +2312,7 @@ public class GameController {
      * @return number of lemmings that exited the level
      */
     public static int getNumExited() {
-        return numExited;
+        return (sim == null) ? 0 : sim.getNumExited();
     }
 
     /**
@@ -2392,7 +2320,7 @@ public class GameController {
      * @param n number of Lemmings that exited the level
      */
     public static void setNumExited(final int n) {
-        numExited = n;
+        sim.setNumExited(n);
     }
 
     /**
@@ -2403,12 +2331,20 @@ public class GameController {
         return level;
     }
 
+    /**
+     * Get the mechanics of the current level.
+     * @return simulation, or null if no level was loaded yet
+     */
+    public static Simulation getSimulation() {
+        return sim;
+    }
+
     /**
      * Get the number of Lemmings currently in this level.
      * @return number of Lemmings currently in this level
      */
     public static int getNumLemmings() {
-        return lemmings.size();
+        return (sim == null) ? 0 : sim.getLemmings().size();
     }
 
     /**
@@ -2416,7 +2352,7 @@ public class GameController {
      * @return maximum number of Lemmings for this level
      */
     public static int getNumLemmingsMax() {
-        return numLemmingsMax;
+        return (sim == null) ? 0 : sim.getNumLemmingsMax();
     }
 
     /**
@@ -2424,7 +2360,7 @@ public class GameController {
      * @return number of lemmings still in the entrance gate.
      */
     public static int getNumLemmingsUnreleased() {
-        return getNumLemmingsMax() - numLemmingsOut;
+        return (sim == null) ? 0 : sim.getNumLemmingsMax() - sim.getNumLemmingsOut();
     }
 
 
@@ -2445,6 +2381,45 @@ public class GameController {
         Icons.press(t);
     }
 
+    /**
+     * Show the icon of a skill as selected.
+     * @param skill skill, or null to show no skill as selected
+     */
+    private static void pressSkillIcon(final Lemming.Type skill) {
+        if (skill == null) {
+            Icons.releaseSkills();
+            return;
+        }
+        switch (skill) {
+            case CLIMBER:
+                pressIcon(Icons.IconType.CLIMB);
+                break;
+            case FLOATER:
+                pressIcon(Icons.IconType.FLOAT);
+                break;
+            case FLAPPER:
+                pressIcon(Icons.IconType.BOMB);
+                break;
+            case BLOCKER:
+                pressIcon(Icons.IconType.BLOCK);
+                break;
+            case BUILDER:
+                pressIcon(Icons.IconType.BUILD);
+                break;
+            case BASHER:
+                pressIcon(Icons.IconType.BASH);
+                break;
+            case MINER:
+                pressIcon(Icons.IconType.MINE);
+                break;
+            case DIGGER:
+                pressIcon(Icons.IconType.DIG);
+                break;
+            default:
+                break;
+        }
+    }
+
     /**
      * Icon was released.
      * @param t icon type
@@ -2497,7 +2472,13 @@ public class GameController {
 
     public static synchronized void updateLemmsUnderCursor() {
         lemmsUnderCursor.clear();
-        lemmings.stream().forEachOrdered(l -> {
+        // only Lemmings with their foot near the cursor can collide with it
+        int cx = xPos + LemmCursor.getX();
+        int cy = yPos + LemmCursor.getY();
+        int hit = LemmCursor.getHitDistance();
+        int ext = Lemming.getMaxExtent();
+        sim.getLemmingGrid().collect(cx - hit, cy - hit - ext, cx + hit, cy + hit + ext, lemmsInRect);
+        lemmsInRect.stream().forEachOrdered(l -> {
             int lx = l.screenX();
             int ly = l.screenY();
             if (lx + l.width() >= xPos && lx < xPos + Core.getDrawWidth()
@@ -2514,11 +2495,11 @@ public class GameController {
      * @return list of all Lemmings in this level
      */
     public static List<Lemming> getLemmings() {
-        return Collections.unmodifiableList(lemmings);
+        return (sim == null) ? Collections.emptyList() : sim.getLemmings();
     }
 
     public static synchronized void addLemming(Lemming l) {
-        lemmings.add(l);
+        sim.addLemming(l);
     }
 
     /**
@@ -2674,6 +2655,14 @@ public static MenuThemeOption getMenuThemeOption() {
         return fgImage;
     }
 
+    /**
+     * Get the journal of terrain changes.
+     * @return journal of terrain changes
+     */
+    public static TerrainJournal getTerrainJournal() {
+        return sim.getTerrainJournal();
+    }
+
     /**
      * Get foreground stencil of level.
      * @return foreground stencil of level
@@ -2695,7 +2684,7 @@ public static MenuThemeOption getMenuThemeOption() {
      * @return number of Lemmings to rescue
      */
     public static int getNumToRescue() {
-        return numToRescue;
+        return (sim == null) ? 0 : sim.getNumToRescue();
     }
 
     /**
@@ -2703,26 +2692,25 @@ public static MenuThemeOption getMenuThemeOption() {
      * @return time left in seconds
      */
     public static int getTime() {
-        return time;
+        return (sim == null) ? 0 : sim.getTime();
     }
 
     public static boolean isTimed() {
-        return timed;
+        return sim != null && sim.isTimed();
     }
 
     public static void setTimed(boolean isTimed) {
-        timed = isTimed;
+        sim.setTimed(isTimed);
     }
 
     public static int getScore() {
-        return numExited * 100 / numLemmingsMax * 100 + numClimbers + numFloaters + numBombers +
-                numBlockers + numBuilders + numBashers + numMiners + numDiggers;
+        return sim.getScore();
     }
 
     public static LevelRecord getLevelRecord() {
         if (!wasLost() && !debugWasActivated) {
-            return new LevelRecord(true, numExited, numSkillsUsed,
-                    timed ? (timeLimit - timeElapsedTillLastExited) : time, getScore());
+            return new LevelRecord(true, sim.getNumExited(), sim.getNumSkillsUsed(),
+                    sim.isTimed() ? (sim.getTimeLimit() - sim.getTimeElapsedTillLastExited()) : sim.getTime(), getScore());
         } else {
             return LevelRecord.BLANK_LEVEL_RECORD;
         }
@@ -2790,77 +2778,3 @@ class ExternalLevelEntry {
         return hash;
     }
 }
-
-/**
- * Trapdoor/Entrance class
- * Trapdoor logic: for numbers >1, just take the next door for each lemming and wrap around to 1 when
- * the last one is reached.
- * Special rule for 3 trapdoors: the order is 1, 2, 3, 2 (loop), not 1, 2, 3 (loop)
- *
- * @author Volker Oth
- */
-class TrapDoor {
-    /** pattern for three entrances */
-    private static final int[] PATTERN3 = {0, 1, 2, 1};
-
-    /** order of entrances */
-    private static int[] entranceOrder;
-    /** entrance counter */
-    private static int counter;
-
-    /**
-     * Reset to new number of entrances.
-     * @param e number of entrances
-     * @param eOrder order of entrances if not null; otherwise, use default
-     */
-    static void reset(final int e, final int[] eOrder) throws LemmException {
-        if (e == 0) {
-            throw new LemmException("Level does not have any entrances.");
-        }
-        if (eOrder == null) {
-            if (e == 3) {
-                // special case: 3 entrances
-                entranceOrder = PATTERN3;
-            } else {
-                entranceOrder = new int[e];
-                for (int i = 0; i < entranceOrder.length; i++) {
-                    entranceOrder[i] = i;
-                }
-            }
-        } else {
-            int newSize = 0;
-            for (int en : eOrder) {
-                if (en >= 0 && en < e) {
-                    newSize++;
-                }
-            }
-            if (newSize == 0) {
-                throw new LemmException("No entrances in this level are used.");
-            }
-            if (newSize == eOrder.length) {
-                entranceOrder = eOrder.clone();
-            } else {
-                entranceOrder = new int[newSize];
-                for (int i = 0, j = 0; i < eOrder.length && j < entranceOrder.length; i++) {
-                    int en = eOrder[i];
-                    if (en >= 0 && en < e) {
-                        entranceOrder[j++] = eOrder[i];
-                    }
-                }
-            }
-        }
-        counter = 0;
-    }
-
-    /**
-     * Get index of next entrance.
-     * @return index of next entrance
-     */
-    static int getNext() {
-        int retVal = entranceOrder[counter++];
-        if (counter >= entranceOrder.length) {
-            counter = 0;
-        }
-        return retVal;
-    }
-}
\ No newline at end of file
@@ -629,6 +629,21 @@ public class Icons {
         return skillOrder.get(nextSkillIdx);
     }
 
+    /**
+     * Show all skill icons as not selected.
+     */
+    static void releaseSkills() {
+        List<IconType> iconOrder = CurrentIconOrder();
+        for (IconType x : SkillIconOrder()) {
+            int i = iconOrder.indexOf(x);
+            if (i != -1) {
+                setIconFrame(i, false);
+                drawIcon(i);
+            }
+        }
+        selectedSkill = null;
+    }
+
     /**
      * Reset icon bar.
      */
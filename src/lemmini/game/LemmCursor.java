@@ -195,6 +195,14 @@ public class LemmCursor  {
         box = b;
     }
 
+    /**
+     * Get the maximum distance in pixels between the cursor and a Lemming that is under it.
+     * @return maximum distance in pixels
+     */
+    public static int getHitDistance() {
+        return HIT_DISTANCE;
+    }
+
     /**
      * Check if a Lemming is under the cursor.
      * @param l Lemming to check
@@ -188,6 +188,8 @@ public class Lemming {
     private static final int EXPLODER_LIFE = 102;
     private static final int DEF_TEMPLATE_COLOR = 0xffff00ff;
 
+    /** simulation the Lemming is part of */
+    private final Simulation sim;
     /** resource (animation etc.) for the current Lemming */
     private LemmingResource lemRes;
     /** animation frame */
@@ -224,6 +226,10 @@ public class Lemming {
     private int explodeCtr;
     /** counter used to display the select image in replay mode */
     private int selectCtr;
+    /** cell of the Lemming in the {@link LemmingGrid}, or -1 if not in the grid */
+    private int gridCell = -1;
+    /** order in which the Lemming was added to the {@link LemmingGrid} */
+    private int gridSerial;
 
     /** list of resources for each Lemming skill/type */
     private static List<LemmingResource> lemmings = new ArrayList<>(NUM_RESOURCES);
@@ -231,14 +237,18 @@ public class Lemming {
     private static ExplodeFont explodeFont;
     private static int templateColor;
     private static int templateColor2;
+    /** largest distance in pixels between the foot and the edge of any animation frame */
+    private static int maxExtent;
 
     /**
      * Constructor: Create Lemming
+     * @param simulation simulation the Lemming is part of
      * @param sx x coordinate of foot
      * @param sy y coordinate of foot
      * @param d initial direction
      */
-    public Lemming(final int sx, final int sy, final Direction d) {
+    public Lemming(final Simulation simulation, final int sx, final int sy, final Direction d) {
+        sim = simulation;
         frameIdx = 0;
         type = Type.FALLER; // always start with a faller
         lemRes = getResource(type);
@@ -258,6 +268,43 @@ public class Lemming {
         nuke = false;
     }
 
+    /**
+     * Constructor: Create a copy of a Lemming, e.g. for a snapshot of the game state.
+     * The copy isn't part of the {@link LemmingGrid}.
+     * @param src Lemming to copy
+     */
+    Lemming(final Lemming src) {
+        sim = src.sim;
+        setState(src);
+    }
+
+    /**
+     * Take over the state of another Lemming of the same simulation, e.g. the result of
+     * sensing on a copy. The position in the {@link LemmingGrid} isn't changed.
+     * @param src Lemming to copy the state from
+     */
+    void setState(final Lemming src) {
+        lemRes = src.lemRes;
+        frameIdx = src.frameIdx;
+        x = src.x;
+        y = src.y;
+        dir = src.dir;
+        type = src.type;
+        counter = src.counter;
+        counter2 = src.counter2;
+        explodeNumCtr = src.explodeNumCtr;
+        canFloat = src.canFloat;
+        canClimb = src.canClimb;
+        canChangeSkill = src.canChangeSkill;
+        flapper = src.flapper;
+        drowner = src.drowner;
+        nuke = src.nuke;
+        hasDied = src.hasDied;
+        hasExited = src.hasExited;
+        explodeCtr = src.explodeCtr;
+        selectCtr = src.selectCtr;
+    }
+
     /**
      * Get number of Lemming type in internal resource array.
      * @param t Type
@@ -333,7 +380,7 @@ public class Lemming {
                         newType = Type.FLOATER_START;
                         counter2 = 0; // used for parachute opening "jump" up
                     } else if (free == 0) { // check ground hit
-                        if (counter > GameController.getLevel().getMaxFallDistance()) {
+                        if (counter > sim.getLevel().getMaxFallDistance()) {
                             newType = Type.SPLATTER;
                         } else {
                             newType = Type.WALKER;
@@ -575,12 +622,12 @@ public class Lemming {
                                 m = lemRes.getMask(dir);
                                 eraseMask = Stencil.MSK_BRICK;
                                 checkMask = 0;
-                                if (!GameController.getLevel().getClassicSteel()) {
+                                if (!sim.getLevel().getClassicSteel()) {
                                     eraseMask |= Stencil.MSK_ONE_WAY;
                                     checkMask |= Stencil.MSK_STEEL;
                                     checkMask |= (dir == Direction.LEFT) ? Stencil.MSK_ONE_WAY_RIGHT : Stencil.MSK_ONE_WAY_LEFT;
                                 }
-                                m.eraseMask(screenMaskX(), screenMaskY(), idx / TIME_SCALE - 2, eraseMask, checkMask);
+                                m.eraseMask(sim, screenMaskX(), screenMaskY(), idx / TIME_SCALE - 2, eraseMask, checkMask);
                                 if (idx == 5 * TIME_SCALE) {
                                     // check for conversion to walker because there are no bricks left
                                     if (!canBash()) {
@@ -599,12 +646,12 @@ public class Lemming {
                                 m = lemRes.getMask(dir);
                                 eraseMask = Stencil.MSK_BRICK;
                                 checkMask = 0;
-                                if (!GameController.getLevel().getClassicSteel()) {
+                                if (!sim.getLevel().getClassicSteel()) {
                                     eraseMask |= Stencil.MSK_ONE_WAY;
                                     checkMask |= Stencil.MSK_STEEL;
                                     checkMask |= (dir == Direction.LEFT) ? Stencil.MSK_ONE_WAY_RIGHT : Stencil.MSK_ONE_WAY_LEFT;
                                 }
-                                m.eraseMask(screenMaskX(), screenMaskY(), idx / TIME_SCALE - 18, eraseMask, checkMask);
+                                m.eraseMask(sim, screenMaskX(), screenMaskY(), idx / TIME_SCALE - 18, eraseMask, checkMask);
                                 break;
                             }
                         case 11 * TIME_SCALE:
@@ -671,12 +718,12 @@ public class Lemming {
                             m = lemRes.getMask(dir);
                             int eraseMask = Stencil.MSK_BRICK;
                             int checkMask = 0;
-                            if (!GameController.getLevel().getClassicSteel()) {
+                            if (!sim.getLevel().getClassicSteel()) {
                                 eraseMask |= Stencil.MSK_ONE_WAY;
                                 checkMask |= Stencil.MSK_STEEL;
                                 checkMask |= (dir == Direction.LEFT) ? Stencil.MSK_ONE_WAY_RIGHT : Stencil.MSK_ONE_WAY_LEFT;
                             }
-                            m.eraseMask(screenMaskX(), screenMaskY(), idx / TIME_SCALE - 1, eraseMask, checkMask);
+                            m.eraseMask(sim, screenMaskX(), screenMaskY(), idx / TIME_SCALE - 1, eraseMask, checkMask);
                             break;
                         case 3 * TIME_SCALE:
                             y += 2;
@@ -708,7 +755,7 @@ public class Lemming {
                                 break;
                             }
                             if (!canMine(false, true)) {
-                                if (!GameController.getLevel().getClassicSteel()) {
+                                if (!sim.getLevel().getClassicSteel()) {
                                     // needed to ensure that miners don't get stuck
                                     x = oldX;
                                     y = oldY;
@@ -760,7 +807,7 @@ public class Lemming {
                             newType = Type.SHRUGGER;
                             break;
                         }
-                        if (y < GameController.getLevel().getTopBoundary() + 2) {
+                        if (y < sim.getLevel().getTopBoundary() + 2) {
                             newType = Type.WALKER;
                             break;
                         }
@@ -768,7 +815,7 @@ public class Lemming {
                         // stair mask is the same height as a lemming
                         Mask m;
                         m = lemRes.getMask(dir);
-                        m.paintStep(screenMaskX(), screenMaskY(), 0);
+                        m.paintStep(sim, screenMaskX(), screenMaskY(), 0);
                     } else if (idx == 10 * TIME_SCALE) {
                         if (counter >= STEPS_WARNING) {
                             playVisualSFX(Sound.Effect.STEP_WARNING);
@@ -836,13 +883,13 @@ public class Lemming {
                 }
                 if (!flapper) {
                     if (dir == Direction.RIGHT) {
-                        if (x < GameController.getWidth() + GameController.getLevel().getRightBoundary() - 16
-                                && !BooleanUtils.toBoolean(GameController.getStencil().getMask(x + 16, y) & Stencil.MSK_BRICK)) {
+                        if (x < sim.getWidth() + sim.getLevel().getRightBoundary() - 16
+                                && !BooleanUtils.toBoolean(sim.getStencil().getMask(x + 16, y) & Stencil.MSK_BRICK)) {
                             x += WALKER_STEP;
                         }
                     } else if (dir == Direction.LEFT) {
-                        if (x >= GameController.getLevel().getLeftBoundary() + 16
-                                && !BooleanUtils.toBoolean(GameController.getStencil().getMask(x - 16, y) & Stencil.MSK_BRICK)) {
+                        if (x >= sim.getLevel().getLeftBoundary() + 16
+                                && !BooleanUtils.toBoolean(sim.getStencil().getMask(x - 16, y) & Stencil.MSK_BRICK)) {
                             x -= WALKER_STEP;
                         }
                     }
@@ -864,18 +911,18 @@ public class Lemming {
             case EXPLODER:
                 counter++;
                 if (counter == 1 * TIME_SCALE) {
-                    Stencil stencil = GameController.getStencil();
+                    Stencil stencil = sim.getStencil();
                     Mask m = lemRes.getMask(Direction.RIGHT);
                     playVisualSFX(Sound.Effect.EXPLODE);
-                    if (!GameController.getLevel().getClassicSteel()) {
-                        m.eraseMask(screenMaskX(), StrictMath.max(screenMaskY(), -8), 0,
+                    if (!sim.getLevel().getClassicSteel()) {
+                        m.eraseMask(sim, screenMaskX(), StrictMath.max(screenMaskY(), -8), 0,
                                 Stencil.MSK_BRICK | Stencil.MSK_ONE_WAY, Stencil.MSK_STEEL);
-                    } else if (x >= GameController.getLevel().getLeftBoundary()
-                            && x < GameController.getWidth() + GameController.getLevel().getRightBoundary()
-                            && y < GameController.getHeight()
+                    } else if (x >= sim.getLevel().getLeftBoundary()
+                            && x < sim.getWidth() + sim.getLevel().getRightBoundary()
+                            && y < sim.getHeight()
                             && !BooleanUtils.toBoolean(stencil.getMask(x, y) & Stencil.MSK_STEEL)
                             && !BooleanUtils.toBoolean(stencil.getMask(x, y) & Stencil.MSK_EXIT) && !drowner) {
-                        m.eraseMask(screenMaskX(), StrictMath.max(screenMaskY(), -8), 0, Stencil.MSK_BRICK, 0);
+                        m.eraseMask(sim, screenMaskX(), StrictMath.max(screenMaskY(), -8), 0, Stencil.MSK_BRICK, 0);
                     }
                 } else if (counter >= EXPLODER_LIFE) {
                     hasDied = true;
@@ -890,8 +937,8 @@ public class Lemming {
                 break;
 
         }
-        if (y < GameController.getLevel().getTopBoundary()) {
-            y = GameController.getLevel().getTopBoundary();
+        if (y < sim.getLevel().getTopBoundary()) {
+            y = sim.getLevel().getTopBoundary();
         }
 
         if (!hasDied && type != Type.EXPLODER) {
@@ -902,10 +949,10 @@ public class Lemming {
             switch (s & (Stencil.MSK_TRAP | Stencil.MSK_EXIT)) {
                 case Stencil.MSK_TRAP_LIQUID:
                     if (type != Type.DROWNER) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(object);
+                        SpriteObject spr = sim.getLevel().getSprObject(object);
                         if (spr != null) {
                             boolean triggered = true;
-                            if (spr.canBeTriggered() && !spr.trigger(this)) {
+                            if (spr.canBeTriggered() && !trigger(spr)) {
                                 triggered = false;
                             }
                             if (triggered) {
@@ -913,7 +960,7 @@ public class Lemming {
                                     // erase blocker mask
                                     eraseBlockerMask();
                                 }
-                                GameController.sound.playVisualSFX(spr);
+                                events().playVisualSFX(spr);
                                 drowner = true;
                                 newType = Type.DROWNER;
                             }
@@ -922,10 +969,10 @@ public class Lemming {
                     break;
                 case Stencil.MSK_TRAP_FIRE:
                     if (type != Type.FRIER) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(object);
+                        SpriteObject spr = sim.getLevel().getSprObject(object);
                         if (spr != null) {
                             boolean triggered = true;
-                            if (spr.canBeTriggered() && !spr.trigger(this)) {
+                            if (spr.canBeTriggered() && !trigger(spr)) {
                                 triggered = false;
                             }
                             if (triggered) {
@@ -933,7 +980,7 @@ public class Lemming {
                                     // erase blocker mask
                                     eraseBlockerMask();
                                 }
-                                GameController.sound.playVisualSFX(spr);
+                                events().playVisualSFX(spr);
                                 newType = Type.FRIER;
                             }
                         }
@@ -941,10 +988,10 @@ public class Lemming {
                     break;
                 case Stencil.MSK_TRAP_REMOVE:
                     {
-                        SpriteObject spr = GameController.getLevel().getSprObject(object);
+                        SpriteObject spr = sim.getLevel().getSprObject(object);
                         if (spr != null) {
                             boolean triggered = true;
-                            if (spr.canBeTriggered() && !spr.trigger(this)) {
+                            if (spr.canBeTriggered() && !trigger(spr)) {
                                 triggered = false;
                             }
                             if (triggered) {
@@ -952,14 +999,14 @@ public class Lemming {
                                     // erase blocker mask
                                     eraseBlockerMask();
                                 }
-                                GameController.sound.playVisualSFX(spr);
+                                events().playVisualSFX(spr);
                                 hasDied = true;
                             }
                         }
                         break;
                     }
                 case Stencil.MSK_EXIT:
-                    if (Core.player.isMaximumExitPhysics()) { // All lem types exit in maximum exit physics mode
+                    if (sim.isMaximumExitPhysics()) { // All lem types exit in maximum exit physics mode
                         switch (newType) {
                            case FALLER:
                            case SPLATTER:
@@ -989,10 +1036,10 @@ public class Lemming {
                         case DIGGER:
                         case DROWNER:
                         case MAX_EXIT_LEM:
-                            SpriteObject spr = GameController.getLevel().getSprObject(object);
+                            SpriteObject spr = sim.getLevel().getSprObject(object);
                             if (spr != null) {
                                 boolean triggered = true;
-                                if (spr.canBeTriggered() && !spr.trigger(this)) {
+                                if (spr.canBeTriggered() && !trigger(spr)) {
                                     triggered = false;
                                 }
                                 if (triggered) {
@@ -1000,7 +1047,7 @@ public class Lemming {
                                         // erase blocker mask
                                         eraseBlockerMask();
                                     }
-                                    GameController.sound.playVisualSFX(spr);
+                                    events().playVisualSFX(spr);
                                     newType = Type.HOMER;
                                 }
                             }
@@ -1058,7 +1105,7 @@ public class Lemming {
                         break;
                     case HOMER: {
                             hasExited = true;
-                            GameController.increaseExited();
+                            sim.increaseExited();
                         }
                         break;
                     case FLOATER_START:
@@ -1095,11 +1142,11 @@ public class Lemming {
 
                         int eraseMask = Stencil.MSK_BRICK;
                         int checkMask = 0;
-                        if (!GameController.getLevel().getClassicSteel()) {
+                        if (!sim.getLevel().getClassicSteel()) {
                             eraseMask |= Stencil.MSK_ONE_WAY;
                             checkMask |= Stencil.MSK_STEEL;
                         }
-                        m.eraseMask(screenMaskX(), screenMaskY(), 0, eraseMask, checkMask);
+                        m.eraseMask(sim, screenMaskX(), screenMaskY(), 0, eraseMask, checkMask);
 
                         // check for conversion to walker when hitting steel
                         if (!canDig(true)) {
@@ -1131,7 +1178,26 @@ public class Lemming {
      * @param e The Sound Effect to play
      */
     public void playVisualSFX(Sound.Effect e) {
-        GameController.sound.playVisualSFX(e, footX(), midY()); //NOTE: footX was midX
+        events().playVisualSFX(e, footX(), midY()); //NOTE: footX was midX
+    }
+
+    /**
+     * Get the receiver of sounds and visual SFX, which are side effects of the update.
+     * @return receiver of sounds and visual SFX
+     */
+    private SimulationEvents events() {
+        sim.checkWrite();
+        return sim.getEvents();
+    }
+
+    /**
+     * Trigger the animation of a level object, which is a side effect of the update.
+     * @param spr level object
+     * @return true if the object was triggered, false otherwise
+     */
+    private boolean trigger(final SpriteObject spr) {
+        sim.checkWrite();
+        return spr.trigger(this);
     }
 
     /**
@@ -1155,8 +1221,8 @@ public class Lemming {
         if (BooleanUtils.toBoolean(s & Stencil.MSK_TURN_LEFT) && dir == Direction.RIGHT) {
             int id = objectFoot();
             if (id >= 0) {
-                SpriteObject spr = GameController.getLevel().getSprObject(id);
-                GameController.sound.playVisualSFX(spr);
+                SpriteObject spr = sim.getLevel().getSprObject(id);
+                events().playVisualSFX(spr);
             }
             dir = Direction.LEFT;
             return true;
@@ -1164,8 +1230,8 @@ public class Lemming {
         if (BooleanUtils.toBoolean(s & Stencil.MSK_TURN_RIGHT) && dir == Direction.LEFT) {
             int id = objectFoot();
             if (id >= 0) {
-                SpriteObject spr = GameController.getLevel().getSprObject(id);
-                GameController.sound.playVisualSFX(spr);
+                SpriteObject spr = sim.getLevel().getSprObject(id);
+                events().playVisualSFX(spr);
             }
             dir = Direction.RIGHT;
             return true;
@@ -1227,7 +1293,7 @@ public class Lemming {
      * Adds an explosion effect at the Lemming's position.
      */
     private void addExplosion() {
-        GameController.addExplosion(footX(), midY()); //note: footX was midX()
+        sim.addExplosion(footX(), midY()); //note: footX was midX()
     }
 
     private Type getExploderType() {
@@ -1261,11 +1327,11 @@ public class Lemming {
         int xm = x;
         int ym = y;
         int retval;
-        if (xm >= GameController.getLevel().getLeftBoundary()
-                && xm < GameController.getWidth() + GameController.getLevel().getRightBoundary()
-                && ym >= GameController.getLevel().getTopBoundary()
-                && ym < GameController.getHeight()) {
-            retval = GameController.getStencil().getMask(xm, ym);
+        if (xm >= sim.getLevel().getLeftBoundary()
+                && xm < sim.getWidth() + sim.getLevel().getRightBoundary()
+                && ym >= sim.getLevel().getTopBoundary()
+                && ym < sim.getHeight()) {
+            retval = sim.getStencil().getMask(xm, ym);
         } else {
             retval = Stencil.MSK_EMPTY;
         }
@@ -1280,11 +1346,11 @@ public class Lemming {
         int xm = x;
         int ym = y;
         int retval;
-        if (xm >= GameController.getLevel().getLeftBoundary()
-                && xm < GameController.getWidth() + GameController.getLevel().getRightBoundary()
-                && ym >= GameController.getLevel().getTopBoundary()
-                && ym < GameController.getHeight()) {
-            retval = GameController.getStencil().getMaskObjectID(xm, ym);
+        if (xm >= sim.getLevel().getLeftBoundary()
+                && xm < sim.getWidth() + sim.getLevel().getRightBoundary()
+                && ym >= sim.getLevel().getTopBoundary()
+                && ym < sim.getHeight()) {
+            retval = sim.getStencil().getMaskObjectID(xm, ym);
         } else {
             retval = -1;
         }
@@ -1296,21 +1362,22 @@ public class Lemming {
      * @return true if bashing is possible, false otherwise.
      */
     private boolean canBash() {
-        int xm = x;
         int ypos = y - BASHER_CHECK_STEP;
-        int xb;
-        int bricks = 0;
-        for (int i = 18; i < 22; i++) {
-            if (dir == Direction.RIGHT) {
-                xb = xm + i;
-            } else {
-                xb = xm - i + 1;
-            }
-            if (BooleanUtils.toBoolean(GameController.getStencil().getMask(xb, ypos) & Stencil.MSK_BRICK)) {
-                bricks++;
-            }
+        int xMin;
+        if (dir == Direction.RIGHT) {
+            xMin = x + 18;
+        } else {
+            xMin = x - 21 + 1;
         }
-        return bricks > 0;
+        return sim.getStencil().checkType(xMin, ypos, 4, 1, Stencil.MSK_BRICK);
+    }
+
+    /**
+     * Get the stencil attributes that stop a basher or miner walking in the current direction.
+     * @return Stencil bitmask of steel and opposing one-way arrows
+     */
+    private int getBashStopper() {
+        return Stencil.MSK_STEEL | (dir == Direction.RIGHT ? Stencil.MSK_ONE_WAY_LEFT : Stencil.MSK_ONE_WAY_RIGHT);
     }
 
     /**
@@ -1319,7 +1386,7 @@ public class Lemming {
      */
     private boolean canBashSteel(final boolean playSound) {
         int yMin = y - BASHER_CHECK_STEP_STEEL;
-        int yMax = y - (GameController.getLevel().getClassicSteel()
+        int yMax = y - (sim.getLevel().getClassicSteel()
                 ? BASHER_CHECK_STEP_STEEL : BASHER_CHECK_STEP_STEEL_LOW);
         int xMin;
         int xMax;
@@ -1330,20 +1397,23 @@ public class Lemming {
             xMin = x - 16;
             xMax = x - 16 + 1;
         }
+        if (!sim.getStencil().checkType(xMin, yMin, xMax - xMin + 1, yMax - yMin + 1, getBashStopper())) {
+            return true;
+        }
         for (int yb = yMin; yb <= yMax; yb++) {
             for (int xb = xMin; xb <= xMax; xb++) {
-                int sval = GameController.getStencil().getMask(xb, yb);
+                int sval = sim.getStencil().getMask(xb, yb);
                 boolean hitOneWayLeft = BooleanUtils.toBoolean(sval & Stencil.MSK_ONE_WAY_LEFT) && dir == Direction.RIGHT;
                 boolean hitOneWayRight = BooleanUtils.toBoolean(sval & Stencil.MSK_ONE_WAY_RIGHT) && dir == Direction.LEFT;
                 boolean hitSteel = BooleanUtils.toBoolean(sval & Stencil.MSK_STEEL);
                 if (hitOneWayLeft || hitOneWayRight || hitSteel) {
                     if (playSound) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(GameController.getStencil().getMaskObjectID(xb, yb));
+                        SpriteObject spr = sim.getLevel().getSprObject(sim.getStencil().getMaskObjectID(xb, yb));
                         if (spr != null
                                 && ((hitOneWayLeft && spr.getType() == SpriteObject.Type.ONE_WAY_LEFT)
                                         || (hitOneWayRight && spr.getType() == SpriteObject.Type.ONE_WAY_RIGHT)
                                         || (hitSteel && spr.getType() == SpriteObject.Type.STEEL))) {
-                            GameController.sound.playVisualSFX(spr);
+                            events().playVisualSFX(spr);
                         } else {
                             playVisualSFX(Sound.Effect.STEEL);
                         }
@@ -1360,17 +1430,23 @@ public class Lemming {
      * @return true if digging is possible, false otherwise.
      */
     private boolean canDig(final boolean playSound) {
-        boolean classicSteel = GameController.getLevel().getClassicSteel();
+        boolean classicSteel = sim.getLevel().getClassicSteel();
+        int xMin = x + (classicSteel ? 0 : -4);
+        int xMax = x + (classicSteel ? 1 : 6);
+        // only pixels that are both brick and steel stop a digger, so no steel means no stop
+        if (!sim.getStencil().checkType(xMin, y, xMax - xMin, 2, Stencil.MSK_STEEL)) {
+            return true;
+        }
         for (int i = 0; i < 2; i++) {
             for (int j = (classicSteel ? 0 : -4); j < (classicSteel ? 1 : 6); j++) {
                 int ym = y + i;
                 int xm = x + j;
-                int sval = GameController.getStencil().getMask(xm, ym);
+                int sval = sim.getStencil().getMask(xm, ym);
                 if (BooleanUtils.toBoolean(sval & Stencil.MSK_BRICK) && BooleanUtils.toBoolean(sval & Stencil.MSK_STEEL)) {
                     if (playSound) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(GameController.getStencil().getMaskObjectID(xm, ym));
+                        SpriteObject spr = sim.getLevel().getSprObject(sim.getStencil().getMaskObjectID(xm, ym));
                         if (spr != null && spr.getType() == SpriteObject.Type.STEEL) {
-                            GameController.sound.playVisualSFX(spr);
+                            events().playVisualSFX(spr);
                         } else {
                             playVisualSFX(Sound.Effect.STEEL);
                         }
@@ -1387,8 +1463,8 @@ public class Lemming {
      * @return true if mining is possible, false otherwise.
      */
     private boolean canMine(final boolean start, final boolean playSound) {
-        if (x < GameController.getLevel().getLeftBoundary()
-                || x >= GameController.getWidth() + GameController.getLevel().getRightBoundary()) {
+        if (x < sim.getLevel().getLeftBoundary()
+                || x >= sim.getWidth() + sim.getLevel().getRightBoundary()) {
             if (!start && playSound) {
                 playVisualSFX(Sound.Effect.STEEL);
             }
@@ -1406,20 +1482,25 @@ public class Lemming {
             xMin = x - 14;
             xMax = x - 14 + 1;
         }
+        Stencil stencil = sim.getStencil();
+        if (!stencil.checkType(xMin, yMin, xMax - xMin + 1, yMax - yMin + 1, getBashStopper())
+                && !stencil.checkType(x, y, 2, 2, start ? Stencil.MSK_STEEL : getBashStopper())) {
+            return true;
+        }
         for (int yb = yMin; yb <= yMax; yb++) {
             for (int xb = xMin; xb <= xMax; xb++) {
-                int sval = GameController.getStencil().getMask(xb, yb);
+                int sval = sim.getStencil().getMask(xb, yb);
                 boolean hitOneWayLeft = BooleanUtils.toBoolean(sval & Stencil.MSK_ONE_WAY_LEFT) && dir == Direction.RIGHT;
                 boolean hitOneWayRight = BooleanUtils.toBoolean(sval & Stencil.MSK_ONE_WAY_RIGHT) && dir == Direction.LEFT;
                 boolean hitSteel = BooleanUtils.toBoolean(sval & Stencil.MSK_STEEL);
                 if (hitOneWayLeft || hitOneWayRight || hitSteel) {
                     if (playSound) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(GameController.getStencil().getMaskObjectID(xb, yb));
+                        SpriteObject spr = sim.getLevel().getSprObject(sim.getStencil().getMaskObjectID(xb, yb));
                         if (spr != null
                                 && ((hitOneWayLeft && spr.getType() == SpriteObject.Type.ONE_WAY_LEFT)
                                         || (hitOneWayRight && spr.getType() == SpriteObject.Type.ONE_WAY_RIGHT)
                                         || (hitSteel && spr.getType() == SpriteObject.Type.STEEL))) {
-                            GameController.sound.playVisualSFX(spr);
+                            events().playVisualSFX(spr);
                         } else {
                             playVisualSFX(Sound.Effect.STEEL);
                         }
@@ -1434,18 +1515,18 @@ public class Lemming {
         xMax = x + 1;
         for (int yb = yMin; yb <= yMax; yb++) {
             for (int xb = xMin; xb <= xMax; xb++) {
-                int sval = GameController.getStencil().getMask(xb, yb);
+                int sval = sim.getStencil().getMask(xb, yb);
                 boolean hitOneWayLeft = !start && BooleanUtils.toBoolean(sval & Stencil.MSK_ONE_WAY_LEFT) && dir == Direction.RIGHT;
                 boolean hitOneWayRight = !start && BooleanUtils.toBoolean(sval & Stencil.MSK_ONE_WAY_RIGHT) && dir == Direction.LEFT;
                 boolean hitSteel = BooleanUtils.toBoolean(sval & Stencil.MSK_STEEL);
                 if (hitOneWayLeft || hitOneWayRight || hitSteel) {
                     if (playSound) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(GameController.getStencil().getMaskObjectID(xb, yb));
+                        SpriteObject spr = sim.getLevel().getSprObject(sim.getStencil().getMaskObjectID(xb, yb));
                         if (spr != null
                                 && ((hitOneWayLeft && spr.getType() == SpriteObject.Type.ONE_WAY_LEFT)
                                         || (hitOneWayRight && spr.getType() == SpriteObject.Type.ONE_WAY_RIGHT)
                                         || (hitSteel && spr.getType() == SpriteObject.Type.STEEL))) {
-                            GameController.sound.playVisualSFX(spr);
+                            events().playVisualSFX(spr);
                         } else {
                             playVisualSFX(Sound.Effect.STEEL);
                         }
@@ -1462,26 +1543,17 @@ public class Lemming {
      * @return number of free pixels below the lemming
      */
     private int freeBelow(final int step) {
-        if (x < GameController.getLevel().getLeftBoundary()
-                || x >= GameController.getWidth() + GameController.getLevel().getRightBoundary()) {
+        if (x < sim.getLevel().getLeftBoundary()
+                || x >= sim.getWidth() + sim.getLevel().getRightBoundary()) {
             return 0;
         }
-        int free = 0;
-        int pos;
-        Stencil stencil = GameController.getStencil();
-        int yb = y;
-        pos = x + yb * GameController.getWidth(); // line below the lemming
-        for (int i = 0; i < step; i++) {
-            if (yb + i >= GameController.getHeight()) {
-                return Integer.MAX_VALUE; // convert most skills to faller
-            }
-            int s = stencil.getMask(pos);
-            if (!BooleanUtils.toBoolean(s & Stencil.MSK_BRICK)) {
-                free++;
-            } else {
-                break;
-            }
-            pos += GameController.getWidth();
+        Stencil stencil = sim.getStencil();
+        int pos = x + y * stencil.getWidth(); // line below the lemming
+        // don't look past the bottom of the level
+        int steps = StrictMath.min(step, sim.getHeight() - y);
+        int free = stencil.freeBelow(pos, steps, Stencil.MSK_BRICK);
+        if (free >= steps && free < step) {
+            return Integer.MAX_VALUE; // convert most skills to faller
         }
         return free;
     }
@@ -1497,12 +1569,12 @@ public class Lemming {
     private boolean flipDirBorder() {
         boolean flip = false;
         if (lemRes.dirs > 1) {
-            if (x < GameController.getLevel().getLeftBoundary() && dir == Direction.LEFT) {
-                x = GameController.getLevel().getLeftBoundary() - 1;
+            if (x < sim.getLevel().getLeftBoundary() && dir == Direction.LEFT) {
+                x = sim.getLevel().getLeftBoundary() - 1;
                 flip = true;
-            } else if (x >= GameController.getWidth() + GameController.getLevel().getRightBoundary()
+            } else if (x >= sim.getWidth() + sim.getLevel().getRightBoundary()
                     && dir == Direction.RIGHT) {
-                x = GameController.getWidth() + GameController.getLevel().getRightBoundary();
+                x = sim.getWidth() + sim.getLevel().getRightBoundary();
                 flip = true;
             }
         }
@@ -1517,8 +1589,8 @@ public class Lemming {
      * @return whether there are any free pixels above the the builder
      */
     private boolean freeAboveBuilder() {
-        if (dir == Direction.LEFT && x - 3 < GameController.getLevel().getLeftBoundary()
-                || dir == Direction.RIGHT && x + 4 >= GameController.getWidth() + GameController.getLevel().getRightBoundary()) {
+        if (dir == Direction.LEFT && x - 3 < sim.getLevel().getLeftBoundary()
+                || dir == Direction.RIGHT && x + 4 >= sim.getWidth() + sim.getLevel().getRightBoundary()) {
             return false;
         }
 
@@ -1530,13 +1602,8 @@ public class Lemming {
         } else {
             xm = x - 3;
         }
-        Stencil stencil = GameController.getStencil();
-        for (int yb = yMin; yb <= yMax; yb++) {
-            if (BooleanUtils.toBoolean(stencil.getMask(xm, yb) & Stencil.MSK_BRICK)) {
-                return false;
-            }
-        }
-        return true;
+        Stencil stencil = sim.getStencil();
+        return stencil.freeBelow(xm, yMin, yMax - yMin + 1, Stencil.MSK_BRICK) > yMax - yMin;
     }
 
     /**
@@ -1544,9 +1611,9 @@ public class Lemming {
      * @return number of free pixels above the lemming
      */
     private boolean freeAboveClimber() {
-        if (x < GameController.getLevel().getLeftBoundary()
-                || x >= GameController.getWidth() + GameController.getLevel().getRightBoundary()
-                || x <= GameController.getLevel().getTopBoundary()) {
+        if (x < sim.getLevel().getLeftBoundary()
+                || x >= sim.getWidth() + sim.getLevel().getRightBoundary()
+                || x <= sim.getLevel().getTopBoundary()) {
             return false;
         }
 
@@ -1557,8 +1624,8 @@ public class Lemming {
         } else {
             xm -= 1;
         }
-        Stencil stencil = GameController.getStencil();
-        return ym >= 0 && !BooleanUtils.toBoolean((stencil.getMask(xm, ym) & Stencil.MSK_BRICK));
+        Stencil stencil = sim.getStencil();
+        return ym >= 0 && stencil.freeBelow(xm, ym, 1, Stencil.MSK_BRICK) > 0;
     }
 
     /**
@@ -1566,7 +1633,7 @@ public class Lemming {
      * @return true if Lemming has fallen to/through the bottom of the level, false otherwise
      */
     private boolean crossedLowerBorder() {
-        if (y >= GameController.getHeight() + GameController.getLevel().getBottomBoundary()) {
+        if (y >= sim.getHeight() + sim.getLevel().getBottomBoundary()) {
             hasDied = true;
             playVisualSFX(Sound.Effect.DIE);
             return true;
@@ -1579,26 +1646,22 @@ public class Lemming {
      * @return number of pixels of walkable ground above the Lemming's foot.
      */
     private int aboveGround() {
-        if (x < GameController.getLevel().getLeftBoundary()
-                || x >= GameController.getWidth() + GameController.getLevel().getRightBoundary()) {
-            return GameController.getHeight() + 1;
+        if (x < sim.getLevel().getLeftBoundary()
+                || x >= sim.getWidth() + sim.getLevel().getRightBoundary()) {
+            return sim.getHeight() + 1;
         }
 
         int ym = y - 1;
-        if (ym >= GameController.getHeight()) {
+        if (ym >= sim.getHeight()) {
             return 0;
         }
-        int pos = x;
-        Stencil stencil = GameController.getStencil();
-        pos += ym * GameController.getWidth();
-        int levitation;
-        for (levitation = 0; levitation < WALKER_OBSTACLE_HEIGHT; levitation++, pos -= GameController.getWidth(), ym--) {
-            if (ym < GameController.getLevel().getTopBoundary() - 1) {
-                return WALKER_OBSTACLE_HEIGHT + 1; // forbid leaving level to the top
-            }
-            if (!BooleanUtils.toBoolean(stencil.getMask(pos) & Stencil.MSK_BRICK)) {
-                break;
-            }
+        Stencil stencil = sim.getStencil();
+        int pos = x + ym * stencil.getWidth();
+        // don't look above the top boundary
+        int steps = StrictMath.min(WALKER_OBSTACLE_HEIGHT, ym - sim.getLevel().getTopBoundary() + 2);
+        int levitation = stencil.solidAbove(pos, steps, Stencil.MSK_BRICK);
+        if (levitation >= steps && steps < WALKER_OBSTACLE_HEIGHT) {
+            return WALKER_OBSTACLE_HEIGHT + 1; // forbid leaving level to the top
         }
         return levitation;
     }
@@ -1608,19 +1671,18 @@ public class Lemming {
      * @return true if climber reached a plateau he can walk on, false otherwise
      */
     private boolean reachedPlateau(final int hand) {
-        if (x - 2 < GameController.getLevel().getLeftBoundary()
-                || x + 2 >= GameController.getWidth() + GameController.getLevel().getRightBoundary()) {
+        if (x - 2 < sim.getLevel().getLeftBoundary()
+                || x + 2 >= sim.getWidth() + sim.getLevel().getRightBoundary()) {
             return false;
         }
         int ym = y - hand;
-        if (ym >= GameController.getHeight()) {
+        if (ym >= sim.getHeight()) {
             return true;
-        } else if (ym < 0 || ym <= GameController.getLevel().getTopBoundary()) {
+        } else if (ym < 0 || ym <= sim.getLevel().getTopBoundary()) {
             return false;
         }
-        int pos = x;
-        pos += ym * GameController.getWidth();
-        return !BooleanUtils.toBoolean(GameController.getStencil().getMask(pos) & Stencil.MSK_BRICK);
+        Stencil stencil = sim.getStencil();
+        return stencil.freeBelow(x + ym * stencil.getWidth(), 1, Stencil.MSK_BRICK) > 0;
     }
 
     private void eraseBlockerMask() {
@@ -1628,9 +1690,9 @@ public class Lemming {
         Mask m = res.getMask(dir);
         int maskX = x - res.maskX;
         int maskY = y - res.maskY;
-        m.clearType(maskX, maskY, 0, Stencil.MSK_BLOCKER_LEFT);
-        m.clearType(maskX, maskY, 1, Stencil.MSK_BLOCKER_CENTER);
-        m.clearType(maskX, maskY, 2, Stencil.MSK_BLOCKER_RIGHT);
+        m.clearType(sim, maskX, maskY, 0, Stencil.MSK_BLOCKER_LEFT);
+        m.clearType(sim, maskX, maskY, 1, Stencil.MSK_BLOCKER_CENTER);
+        m.clearType(sim, maskX, maskY, 2, Stencil.MSK_BLOCKER_RIGHT);
     }
 
     /**
@@ -1658,6 +1720,7 @@ public class Lemming {
             throw new ResourceException(LEMM_INI_STR);
         }
         lemmings.clear();
+        maxExtent = 0;
         // read lemmings
         templateColor = p.getInt("templateColor", DEF_TEMPLATE_COLOR) & 0x00ffffff;
         templateColor2 = p.getInt("templateColor2", templateColor) & 0x00ffffff;
@@ -1717,6 +1780,10 @@ public class Lemming {
                 newLemResource.maskY = val[1];
             }
             lemmings.add(newLemResource);
+            maxExtent = Math.max(maxExtent, Math.max(
+                    Math.max(newLemResource.footX, newLemResource.width - newLemResource.footX),
+                    Math.max(newLemResource.footY, newLemResource.height - newLemResource.footY)));
+            maxExtent = Math.max(maxExtent, Math.abs(newLemResource.size));
         }
     }
 
@@ -1839,7 +1906,7 @@ public class Lemming {
                     return playSetSkillSound(false, playSound);
                 }
             case FLAPPER:
-                if (GameController.isOptionEnabled(GameController.SLTooOption.TIMED_BOMBERS)) {
+                if (sim.isTimedBombers()) {
                     if (explodeNumCtr == 0) {
                         explodeNumCtr = MAX_BOMB_TIMER;
                         explodeCtr = 0;
@@ -1887,7 +1954,7 @@ public class Lemming {
                         return playSetSkillSound(false, playSound);
                     }
                 case BUILDER:
-                    if (y < GameController.getLevel().getTopBoundary() + 2) {
+                    if (y < sim.getLevel().getTopBoundary() + 2) {
                         return playSetSkillSound(false, playSound);
                     } else {
                         changeType(type, newSkill);
@@ -1900,7 +1967,7 @@ public class Lemming {
                     int maskX = x - lem.maskX;
                     int maskY = y - lem.maskY;
                     for (int i = 0; i < m.getNumFrames(); i++) {
-                        if (m.checkType(maskX, maskY, i, Stencil.MSK_BLOCKER | Stencil.MSK_EXIT)) {
+                        if (m.checkType(sim, maskX, maskY, i, Stencil.MSK_BLOCKER | Stencil.MSK_EXIT)) {
                             return playSetSkillSound(false, playSound); // overlaps exit or existing blocker
                         }
                     }
@@ -1908,7 +1975,7 @@ public class Lemming {
                     changeType(type, newSkill);
                     counter = 0;
                     // set blocker mask
-                    m.setBlockerMask(maskX, maskY);
+                    m.setBlockerMask(sim, maskX, maskY);
                     return playSetSkillSound(true, playSound);
                 default:
                     break;
@@ -1927,11 +1994,11 @@ public class Lemming {
     private boolean playSetSkillSound(boolean validAssign, boolean playSound) {
         if (validAssign) {
             if (playSound) {
-                GameController.sound.play(Sound.Effect.ASSIGN_SKILL, getPan());
+                events().playSound(Sound.Effect.ASSIGN_SKILL, getPan());
             }
         } else {
             if (playSound) {
-                GameController.sound.play(Sound.Effect.INVALID, getPan());
+                events().playSound(Sound.Effect.INVALID, getPan());
             }
         }
         return validAssign;
@@ -2011,6 +2078,43 @@ public class Lemming {
         return y;
     }
 
+    /**
+     * Get the largest distance in pixels between a Lemming's foot and the edge of any animation frame.
+     * @return largest distance in pixels
+     */
+    public static int getMaxExtent() {
+        return maxExtent;
+    }
+
+    /**
+     * Get the largest distance in pixels between a Lemming's foot and anything drawn for it,
+     * including the countdown and selection images above its head.
+     * @return largest distance in pixels
+     */
+    public static int getMaxDrawExtent() {
+        LemmImage cd = explodeFont.getImage(0);
+        LemmImage sel = MiscGfx.getImage(MiscGfx.Index.SELECT);
+        int overlay = Math.max(Math.max(cd.getWidth(), cd.getHeight()), Math.max(sel.getWidth(), sel.getHeight()));
+        // the overlays are centered on midX() and sit on top of the animation frame
+        return maxExtent + overlay + 3;
+    }
+
+    int getGridCell() {
+        return gridCell;
+    }
+
+    void setGridCell(final int cell) {
+        gridCell = cell;
+    }
+
+    int getGridSerial() {
+        return gridSerial;
+    }
+
+    void setGridSerial(final int serial) {
+        gridSerial = serial;
+    }
+
     public int screenMaskX() {
         return x - lemRes.maskX;
     }
@@ -2121,6 +2225,27 @@ public class Lemming {
     public double getPan() {
         return lemmini.sound.Sound.getPan(x);
     }
+
+    /**
+     * Get the simulation the Lemming is part of.
+     * @return simulation
+     */
+    public Simulation getSimulation() {
+        return sim;
+    }
+
+    /**
+     * Get the hash of everything that influences how the Lemming moves, for {@link StateHash}.
+     * @return hash of position, type, direction, counters and abilities
+     */
+    long getStateHash() {
+        int flags = (canFloat ? 1 : 0) | (canClimb ? 2 : 0) | (canChangeSkill ? 4 : 0) | (flapper ? 8 : 0)
+                | (drowner ? 16 : 0) | (nuke ? 32 : 0) | (hasDied ? 64 : 0) | (hasExited ? 128 : 0);
+        long h = StateHash.add(StateHash.SEED, x, y);
+        h = StateHash.add(h, (type.ordinal() << 8) | (dir.ordinal() << 24) | flags, frameIdx);
+        h = StateHash.add(h, counter, counter2);
+        return StateHash.add(h, explodeNumCtr, explodeCtr);
+    }
 }
 
 /**
@@ -0,0 +1,127 @@
+package lemmini.game;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Uniform grid of Lemming foot positions, used to find the Lemmings inside a rectangle
+ * without testing every Lemming in the level.
+ * Lemmings outside the level are kept in the nearest border cell.
+ */
+final class LemmingGrid {
+
+    /** cells are 2^CELL_SHIFT pixels wide and high */
+    private static final int CELL_SHIFT = 5;
+    /** orders query results the same way as the list of active Lemmings */
+    private static final Comparator<Lemming> BY_SERIAL = Comparator.comparingInt(Lemming::getGridSerial);
+
+    /** Lemmings in each cell (col+row*cols) */
+    private final List<List<Lemming>> cells = new ArrayList<>();
+    /** number of columns */
+    private int cols;
+    /** number of rows */
+    private int rows;
+    /** serial number for the next Lemming added - increases in the order Lemmings are added */
+    private int nextSerial;
+
+    /**
+     * Remove all Lemmings and resize the grid to fit a level.
+     * @param width level width in pixels
+     * @param height level height in pixels
+     */
+    void reset(final int width, final int height) {
+        cols = Math.max((width + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT, 1);
+        rows = Math.max((height + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT, 1);
+        cells.clear();
+        for (int i = 0; i < cols * rows; i++) {
+            cells.add(new ArrayList<>(8));
+        }
+        nextSerial = 0;
+    }
+
+    /**
+     * Add a Lemming. Lemmings have to be added in the same order as they are added
+     * to the list of active Lemmings.
+     * @param l Lemming
+     */
+    void add(final Lemming l) {
+        int cell = getCell(l);
+        cells.get(cell).add(l);
+        l.setGridCell(cell);
+        l.setGridSerial(nextSerial++);
+    }
+
+    /**
+     * Move a Lemming to the cell of its current foot position.
+     * @param l Lemming
+     */
+    void move(final Lemming l) {
+        int oldCell = l.getGridCell();
+        if (oldCell < 0) {
+            return;
+        }
+        int cell = getCell(l);
+        if (cell != oldCell) {
+            cells.get(oldCell).remove(l);
+            cells.get(cell).add(l);
+            l.setGridCell(cell);
+        }
+    }
+
+    /**
+     * Remove a Lemming.
+     * @param l Lemming
+     */
+    void remove(final Lemming l) {
+        int cell = l.getGridCell();
+        if (cell >= 0) {
+            cells.get(cell).remove(l);
+            l.setGridCell(-1);
+        }
+    }
+
+    /**
+     * Collect all Lemmings with their foot inside the given rectangle (edges included),
+     * in the same order as in the list of active Lemmings.
+     * @param xMin minimum x coordinate in pixels
+     * @param yMin minimum y coordinate in pixels
+     * @param xMax maximum x coordinate in pixels
+     * @param yMax maximum y coordinate in pixels
+     * @param out list to fill (cleared first)
+     */
+    void collect(final int xMin, final int yMin, final int xMax, final int yMax, final List<Lemming> out) {
+        out.clear();
+        if (xMin > xMax || yMin > yMax || cells.isEmpty()) {
+            return;
+        }
+        int colMin = getCol(xMin);
+        int colMax = getCol(xMax);
+        int rowMin = getRow(yMin);
+        int rowMax = getRow(yMax);
+        for (int row = rowMin; row <= rowMax; row++) {
+            for (int col = colMin; col <= colMax; col++) {
+                for (Lemming l : cells.get(col + row * cols)) {
+                    int lx = l.footX();
+                    int ly = l.footY();
+                    if (lx >= xMin && lx <= xMax && ly >= yMin && ly <= yMax) {
+                        out.add(l);
+                    }
+                }
+            }
+        }
+        out.sort(BY_SERIAL);
+    }
+
+    private int getCell(final Lemming l) {
+        return getCol(l.footX()) + getRow(l.footY()) * cols;
+    }
+
+    private int getCol(final int x) {
+        return Math.max(Math.min(x >> CELL_SHIFT, cols - 1), 0);
+    }
+
+    private int getRow(final int y) {
+        return Math.max(Math.min(y >> CELL_SHIFT, rows - 1), 0);
+    }
+}
@@ -1,6 +1,7 @@
 package lemmini.game;
 
 import java.awt.Color;
+import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.Transparency;
 import java.util.ArrayList;
@@ -99,6 +100,11 @@ public class Level {
     private SpriteObject[] sprObjFront;
     /** array of all sprite objects (in front and behind) */
     private SpriteObject[] sprObjects;
+    /** spatial indexes of the objects behind and in front of the foreground image */
+    private SpriteObjectIndex sprObjBehindIndex;
+    private SpriteObjectIndex sprObjFrontIndex;
+    /** animation of the sprite objects of the level and the backgrounds */
+    private final AnimationSchedule animation = new AnimationSchedule();
     /** lists of combined level components, grouped by the desired layer */
     private List<SpriteObject> oCombined;
     private List<SpriteObject> oBehind;
@@ -156,6 +162,8 @@ public class Level {
     private final List<Steel> steel;
     private final Background[] backgrounds;
     private final GraphicsBuffer[][] bgBuffers;
+    /** reused list of the areas of a background buffer that have to be drawn again */
+    private final List<Rectangle> dirtyBgRects = new ArrayList<>(32);
     /** level name - originally 32 bytes ASCII filled with whitespace */
     private final String lvlName;
     private final String author;
@@ -169,13 +177,25 @@ public class Level {
 
 
     /**
-     * Load a level and all level resources.
+     * Load a level of the current level pack and all level resources.
      * @param res resource object
      * @param level2 level with resources to reuse
      * @throws ResourceException
      * @throws LemmException
      */
     public Level(final Resource resource, final Level level2) throws ResourceException, LemmException {
+        this(resource, level2, GameController.getCurLevelPack().getMaxFallDistance());
+    }
+
+    /**
+     * Load a level and all level resources.
+     * @param res resource object
+     * @param level2 level with resources to reuse
+     * @param defaultMaxFallDistance maximum fall distance of the level pack
+     * @throws ResourceException
+     * @throws LemmException
+     */
+    public Level(final Resource resource, final Level level2, final int defaultMaxFallDistance) throws ResourceException, LemmException {
         levelProps = new ArrayList<>(4);
         hints = new ArrayList<>(4);
         // read level properties from file
@@ -209,7 +229,7 @@ public class Level {
                 break;
             }
         }
-        maxFallDistance = Props.getInt(levelProps, "maxFallDistance", GameController.getCurLevelPack().getMaxFallDistance());
+        maxFallDistance = Props.getInt(levelProps, "maxFallDistance", defaultMaxFallDistance);
         classicSteel = Props.getBoolean(levelProps, "classicSteel", false);
         switch (p.getInt("autosteelMode", 0)) {
             case 0:
@@ -432,18 +452,11 @@ public class Level {
 
     void createLevelImage() {
         if (fgImage != null && fgImage.getWidth() == levelWidth && fgImage.getHeight() == levelHeight) {
-            GraphicsContext gfx = null;
-            try {
-                gfx = fgImage.createGraphicsContext();
-                gfx.setBackground(BLANK_COLOR);
-                gfx.clearRect(0, 0, fgImage.getWidth(), fgImage.getHeight());
-            } finally {
-                if (gfx != null) {
-                    gfx.dispose();
-                }
-            }
+            fgImage.fillRect(0, 0, fgImage.getWidth(), fgImage.getHeight(), BLANK_COLOR.getRGB());
         } else {
             fgImage = ToolBox.createLemmImage(levelWidth, levelHeight);
+            // the foreground is edited pixel by pixel by terrain painting and by every mask stroke
+            fgImage.enableDirectAccess();
         }
     }
 
@@ -452,6 +465,7 @@ public class Level {
         for (int i = 0; i < backgrounds.length; i++) {
             bgImages[i] = ToolBox.createLemmImage(
                     backgrounds[i].width + BG_BUFFER_PADDING * 2, backgrounds[i].height + BG_BUFFER_PADDING * 2);
+            backgrounds[i].bufferFrames = null;
         }
         if (stencil != null && stencil.getWidth() == levelWidth && stencil.getHeight() == levelHeight) {
             stencil.clear();
@@ -525,6 +539,7 @@ public class Level {
                 width = height2;
                 height = width2;
             }
+            int[] pixels = i.getRGB(0, 0, width2, height2, null, 0, width2);
 
             for (int y = 0; y < height; y++) {
                 if (y + ty < 0 || y + ty >= levelHeight) {
@@ -547,7 +562,7 @@ public class Level {
                         x2 = y2;
                         y2 = height2 - 1 - oldX2;
                     }
-                    int col = i.getRGB(x2, y2);
+                    int col = pixels[x2 + y2 * width2];
                     int alpha = (col >>> 24) & 0xff;
                     boolean isPixelOpaque = alpha >= 0x80;
                     // ignore transparent pixels
@@ -951,6 +966,8 @@ public class Level {
         sprObjFront = null;
         sprObjBehind = null;
         sprObjects = null;
+        sprObjFrontIndex = null;
+        sprObjBehindIndex = null;
         entrances = null;
         System.gc();
 
@@ -971,6 +988,9 @@ public class Level {
         sprObjects = oCombined.toArray(new SpriteObject[oCombined.size()]);
         sprObjFront = oFront.toArray(new SpriteObject[oFront.size()]);
         sprObjBehind = oBehind.toArray(new SpriteObject[oBehind.size()]);
+        sprObjFrontIndex = new SpriteObjectIndex(sprObjFront, levelWidth, levelHeight);
+        sprObjBehindIndex = new SpriteObjectIndex(sprObjBehind, levelWidth, levelHeight);
+        animation.reset(getAllSprObjects());
         System.gc();
     }
 
@@ -993,14 +1013,10 @@ public class Level {
     public void drawBehindObjects(final GraphicsContext g, final int width, final int height,
             final int xOfs, final int yOfs) {
         // draw "behind" objects
-        if (sprObjBehind != null) {
-            for (int n = sprObjBehind.length - 1; n >= 0; n--) {
-                SpriteObject spr = sprObjBehind[n];
-                LemmImage img = spr.getImage();
-                if (spr.getX() + spr.getWidth() > xOfs && spr.getX() < xOfs + width
-                        && spr.getY() + spr.getHeight() > yOfs && spr.getY() < yOfs + height) {
-                    g.drawImage(img, spr.getX() - xOfs, spr.getY() - yOfs);
-                }
+        if (sprObjBehindIndex != null) {
+            for (int n = sprObjBehindIndex.query(xOfs, yOfs, width, height) - 1; n >= 0; n--) {
+                SpriteObject spr = sprObjBehindIndex.getFound(n);
+                g.drawImage(spr.getImage(), spr.getX() - xOfs, spr.getY() - yOfs);
             }
         }
     }
@@ -1016,13 +1032,11 @@ public class Level {
     public void drawInFrontObjects(final GraphicsContext g, final int width, final int height,
             final int xOfs, final int yOfs) {
         // draw "in front" objects
-        if (sprObjFront != null) {
-            for (SpriteObject spr : sprObjFront) {
-                LemmImage img = spr.getImage();
-                if (spr.getX() + spr.getWidth() > xOfs && spr.getX() < xOfs + width
-                        && spr.getY() + spr.getHeight() > yOfs && spr.getY() < yOfs + height) {
-                    g.drawImage(img, spr.getX() - xOfs, spr.getY() - yOfs);
-                }
+        if (sprObjFrontIndex != null) {
+            int numFound = sprObjFrontIndex.query(xOfs, yOfs, width, height);
+            for (int n = 0; n < numFound; n++) {
+                SpriteObject spr = sprObjFrontIndex.getFound(n);
+                g.drawImage(spr.getImage(), spr.getX() - xOfs, spr.getY() - yOfs);
             }
         }
     }
@@ -1050,53 +1064,13 @@ public class Level {
             int bgImageWidthScaled = ToolBox.scale(bgImageWidth, bg.scale);
             int bgImageHeight = bgImage.getHeight() - BG_BUFFER_PADDING * 2;
             int bgImageHeightScaled = ToolBox.scale(bgImageHeight, bg.scale);
-            int bgBufferPaddingScaled = ToolBox.scale(BG_BUFFER_PADDING, bg.scale);
 
             if (bgImageWidthScaled <= 0 || bgImageHeightScaled <= 0) {
                 continue;
             }
 
-            LemmImage unscaledBufferImg = buffers[BG_BUFFER_UNSCALED_INDEX].getImage();
-            GraphicsContext unscaledBufferGfx = buffers[BG_BUFFER_UNSCALED_INDEX].getGraphicsContext();
-            unscaledBufferGfx.clearRect(0, 0, unscaledBufferImg.getWidth(), unscaledBufferImg.getHeight());
-
-            for (int y = BG_BUFFER_PADDING - (bg.tiled ? bgImageHeight : 0), j = 0; j < (bg.tiled ? 3 : 1); y += bgImageHeight, j++) {
-                for (int x = BG_BUFFER_PADDING - (bg.tiled ? bgImageWidth : 0), k = 0; k < (bg.tiled ? 3 : 1);  x += bgImageWidth, k++) {
-                    // draw "behind" objects
-                    if (bg.sprObjBehind != null) {
-                        for (int n = bg.sprObjBehind.length - 1; n >= 0; n--) {
-                            SpriteObject spr = bg.sprObjBehind[n];
-                            LemmImage img = spr.getImage();
-                            unscaledBufferGfx.drawImage(img, x + spr.getX(), y + spr.getY());
-                        }
-                    }
-                }
-            }
-
-            unscaledBufferGfx.drawImage(bgImage, 0, 0);
-
-            for (int y = BG_BUFFER_PADDING - (bg.tiled ? bgImageHeight : 0), j = 0; j < (bg.tiled ? 3 : 1); y += bgImageHeight, j++) {
-                for (int x = BG_BUFFER_PADDING - (bg.tiled ? bgImageWidth : 0), k = 0; k < (bg.tiled ? 3 : 1);  x += bgImageWidth, k++) {
-                    // draw "in front" objects
-                    if (bg.sprObjFront != null) {
-                        for (SpriteObject spr : bg.sprObjFront) {
-                            LemmImage img = spr.getImage();
-                            unscaledBufferGfx.drawImage(img, x + spr.getX(), y + spr.getY());
-                        }
-                    }
-                }
-            }
-
+            updateBackgroundBuffers(bg, bgImage, buffers, bgImageWidthScaled, bgImageHeightScaled);
             LemmImage scaledBufferImg = buffers[BG_BUFFER_SCALED_INDEX].getImage();
-            GraphicsContext scaledBufferGfx = buffers[BG_BUFFER_SCALED_INDEX].getGraphicsContext();
-            scaledBufferGfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                    Core.isBilinear()
-                            ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
-                            : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-            scaledBufferGfx.clearRect(0, 0, scaledBufferImg.getWidth(), scaledBufferImg.getHeight());
-            scaledBufferGfx.drawImage(unscaledBufferImg,
-                    -bgBufferPaddingScaled, -bgBufferPaddingScaled,
-                    bgImageWidthScaled + bgBufferPaddingScaled * 2, bgImageHeightScaled + bgBufferPaddingScaled * 2);
 
             int xOfsNew = (int) (-xOfs * bg.scrollSpeedX) + bg.offsetX;
             int yOfsNew = (int) (-yOfs * bg.scrollSpeedY) + bg.offsetY;
@@ -1121,16 +1095,158 @@ public class Level {
         }
     }
 
-    public void advanceBackgroundFrame() {
-        for (Background bg : backgrounds) {
-            for (SpriteObject spr : bg.sprObjects) {
-                if (spr != null) {
-                    spr.getImageAnim(); // just to animate
+    /**
+     * Bring the buffers of a background up to date. The unscaled buffer is only composed again
+     * where a background object changed its animation frame since the last call. The scaled buffer
+     * is only scaled again if the unscaled buffer or the interpolation changed, and only in the
+     * changed areas if the background has an integer scale without interpolation.
+     * @param bg background
+     * @param bgImage padded background image
+     * @param buffers unscaled and scaled buffer of the background
+     * @param bgImageWidthScaled scaled width of the background image without padding
+     * @param bgImageHeightScaled scaled height of the background image without padding
+     */
+    private void updateBackgroundBuffers(final Background bg, final LemmImage bgImage, final GraphicsBuffer[] buffers,
+            final int bgImageWidthScaled, final int bgImageHeightScaled) {
+        LemmImage unscaledBufferImg = buffers[BG_BUFFER_UNSCALED_INDEX].getImage();
+        LemmImage scaledBufferImg = buffers[BG_BUFFER_SCALED_INDEX].getImage();
+        int bgImageWidth = bgImage.getWidth() - BG_BUFFER_PADDING * 2;
+        int bgImageHeight = bgImage.getHeight() - BG_BUFFER_PADDING * 2;
+        int numSprObjects = (bg.sprObjects == null) ? 0 : bg.sprObjects.length;
+        boolean bilinear = Core.isBilinear();
+
+        dirtyBgRects.clear();
+        boolean invalid = bg.bufferFrames == null || bg.bufferFrames.length != numSprObjects;
+        if (invalid) {
+            bg.bufferFrames = new int[numSprObjects];
+            dirtyBgRects.add(new Rectangle(0, 0, unscaledBufferImg.getWidth(), unscaledBufferImg.getHeight()));
+        } else {
+            for (int n = 0; n < numSprObjects; n++) {
+                SpriteObject spr = bg.sprObjects[n];
+                if (spr == null || spr.getFrameIdx() == bg.bufferFrames[n]) {
+                    continue;
+                }
+                // the object is drawn once per tile
+                for (int y = BG_BUFFER_PADDING - (bg.tiled ? bgImageHeight : 0), j = 0; j < (bg.tiled ? 3 : 1); y += bgImageHeight, j++) {
+                    for (int x = BG_BUFFER_PADDING - (bg.tiled ? bgImageWidth : 0), k = 0; k < (bg.tiled ? 3 : 1);  x += bgImageWidth, k++) {
+                        Rectangle r = new Rectangle(x + spr.getX(), y + spr.getY(), spr.getWidth(), spr.getHeight())
+                                .intersection(new Rectangle(0, 0, unscaledBufferImg.getWidth(), unscaledBufferImg.getHeight()));
+                        if (!r.isEmpty()) {
+                            dirtyBgRects.add(r);
+                        }
+                    }
+                }
+            }
+        }
+        for (int n = 0; n < numSprObjects; n++) {
+            if (bg.sprObjects[n] != null) {
+                bg.bufferFrames[n] = bg.sprObjects[n].getFrameIdx();
+            }
+        }
+
+        GraphicsContext unscaledBufferGfx = buffers[BG_BUFFER_UNSCALED_INDEX].getGraphicsContext();
+        for (Rectangle r : dirtyBgRects) {
+            unscaledBufferGfx.setClip(r.x, r.y, r.width, r.height);
+            composeBackground(bg, bgImage, unscaledBufferGfx, bgImageWidth, bgImageHeight);
+        }
+        unscaledBufferGfx.setClip(0, 0, unscaledBufferImg.getWidth(), unscaledBufferImg.getHeight());
+
+        GraphicsContext scaledBufferGfx = buffers[BG_BUFFER_SCALED_INDEX].getGraphicsContext();
+        int bgBufferPaddingScaled = ToolBox.scale(BG_BUFFER_PADDING, bg.scale);
+        int scaledWidth = bgImageWidthScaled + bgBufferPaddingScaled * 2;
+        int scaledHeight = bgImageHeightScaled + bgBufferPaddingScaled * 2;
+        // only integer nearest neighbour scaling gives the same pixels when a part is scaled again
+        boolean exact = !bilinear && bg.scale == Math.rint(bg.scale);
+        if (invalid || bg.bufferBilinear != bilinear || (!exact && !dirtyBgRects.isEmpty())) {
+            dirtyBgRects.clear();
+            dirtyBgRects.add(new Rectangle(0, 0, scaledBufferImg.getWidth(), scaledBufferImg.getHeight()));
+            scaledBufferGfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    bilinear
+                            ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                            : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            bg.bufferBilinear = bilinear;
+        } else {
+            // map the dirty areas into the scaled buffer, with a margin for the interpolation
+            double fx = (double) scaledWidth / unscaledBufferImg.getWidth();
+            double fy = (double) scaledHeight / unscaledBufferImg.getHeight();
+            for (Rectangle r : dirtyBgRects) {
+                int x1 = (int) Math.floor(r.x * fx) - bgBufferPaddingScaled - 2;
+                int y1 = (int) Math.floor(r.y * fy) - bgBufferPaddingScaled - 2;
+                int x2 = (int) Math.ceil((r.x + r.width) * fx) - bgBufferPaddingScaled + 2;
+                int y2 = (int) Math.ceil((r.y + r.height) * fy) - bgBufferPaddingScaled + 2;
+                r.setBounds(x1, y1, x2 - x1, y2 - y1);
+            }
+        }
+        for (Rectangle r : dirtyBgRects) {
+            scaledBufferGfx.setClip(r.x, r.y, r.width, r.height);
+            scaledBufferGfx.clearRect(r.x, r.y, r.width, r.height);
+            scaledBufferGfx.drawImage(unscaledBufferImg,
+                    -bgBufferPaddingScaled, -bgBufferPaddingScaled, scaledWidth, scaledHeight);
+        }
+        scaledBufferGfx.setClip(0, 0, scaledBufferImg.getWidth(), scaledBufferImg.getHeight());
+    }
+
+    /**
+     * Compose the background image and its objects into the current clip area of the unscaled buffer.
+     * @param bg background
+     * @param bgImage padded background image
+     * @param gfx graphics context of the unscaled buffer
+     * @param bgImageWidth width of the background image without padding
+     * @param bgImageHeight height of the background image without padding
+     */
+    private static void composeBackground(final Background bg, final LemmImage bgImage, final GraphicsContext gfx,
+            final int bgImageWidth, final int bgImageHeight) {
+        gfx.clearRect(0, 0, bgImage.getWidth(), bgImage.getHeight());
+
+        for (int y = BG_BUFFER_PADDING - (bg.tiled ? bgImageHeight : 0), j = 0; j < (bg.tiled ? 3 : 1); y += bgImageHeight, j++) {
+            for (int x = BG_BUFFER_PADDING - (bg.tiled ? bgImageWidth : 0), k = 0; k < (bg.tiled ? 3 : 1);  x += bgImageWidth, k++) {
+                // draw "behind" objects
+                if (bg.sprObjBehind != null) {
+                    for (int n = bg.sprObjBehind.length - 1; n >= 0; n--) {
+                        SpriteObject spr = bg.sprObjBehind[n];
+                        LemmImage img = spr.getImage();
+                        gfx.drawImage(img, x + spr.getX(), y + spr.getY());
+                    }
+                }
+            }
+        }
+
+        gfx.drawImage(bgImage, 0, 0);
+
+        for (int y = BG_BUFFER_PADDING - (bg.tiled ? bgImageHeight : 0), j = 0; j < (bg.tiled ? 3 : 1); y += bgImageHeight, j++) {
+            for (int x = BG_BUFFER_PADDING - (bg.tiled ? bgImageWidth : 0), k = 0; k < (bg.tiled ? 3 : 1);  x += bgImageWidth, k++) {
+                // draw "in front" objects
+                if (bg.sprObjFront != null) {
+                    for (SpriteObject spr : bg.sprObjFront) {
+                        LemmImage img = spr.getImage();
+                        gfx.drawImage(img, x + spr.getX(), y + spr.getY());
+                    }
                 }
             }
         }
     }
 
+    /**
+     * Animate the sprite objects of the level and the backgrounds by one frame.
+     */
+    void animateObjects() {
+        animation.animate();
+    }
+
+    /**
+     * Bring the animation counters of all sprite objects up to date before their state is saved.
+     */
+    void syncAnimation() {
+        animation.syncCounters();
+    }
+
+    /**
+     * Schedule the animation of all sprite objects again after their state was restored.
+     */
+    void resetAnimation() {
+        animation.reset(getAllSprObjects());
+    }
+
     public void openBackgroundEntrances() {
         for (Background bg : backgrounds) {
             for (SpriteObject spr : bg.sprObjects) {
@@ -1214,13 +1330,13 @@ public class Level {
 
         // now tint green
         if (tint) {
-            for (int y = 0; y < img.getHeight(); y++) {
-                for (int x = 0; x < img.getWidth(); x++) {
-                    int c = img.getRGB(x, y);
-                    c = Minimap.tintColor(c);
-                    img.setRGB(x, y, c);
-                }
+            int w = img.getWidth();
+            int h = img.getHeight();
+            int[] rgb = img.getRGB(0, 0, w, h, null, 0, w);
+            for (int i = 0; i < rgb.length; i++) {
+                rgb[i] = Minimap.tintColor(rgb[i]);
             }
+            img.setRGB(0, 0, w, h, rgb, 0, w);
         }
 
         return img;
@@ -1250,6 +1366,65 @@ public class Level {
         return sprObjects.length;
     }
 
+    /**
+     * Get the sprite objects of the level followed by those of the backgrounds.
+     * The order doesn't change while the level is played.
+     * @return all sprite objects
+     */
+    List<SpriteObject> getAllSprObjects() {
+        List<SpriteObject> all = new ArrayList<>(getNumSprObjects());
+        if (sprObjects != null) {
+            for (SpriteObject spr : sprObjects) {
+                if (spr != null) {
+                    all.add(spr);
+                }
+            }
+        }
+        for (Background bg : backgrounds) {
+            if (bg.sprObjects != null) {
+                for (SpriteObject spr : bg.sprObjects) {
+                    if (spr != null) {
+                        all.add(spr);
+                    }
+                }
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Show or hide the pixels of objects that are only visible on terrain where the terrain was changed.
+     * Pixels are hidden where the terrain is no longer opaque and shown where it became opaque,
+     * except for one-way arrows that may only appear on the original terrain.
+     * @param rects changed rectangles in level coordinates
+     */
+    void updateVisOnTerrain(final List<Rectangle> rects) {
+        for (Rectangle r : rects) {
+            for (int y = r.y; y < r.y + r.height; y++) {
+                for (int x = r.x; x < r.x + r.width; x++) {
+                    int[] objects = stencil.getIDs(x, y);
+                    if (objects.length == 0) {
+                        continue;
+                    }
+                    boolean opaque = fgImage.isPixelOpaque(x, y);
+                    for (int obj : objects) {
+                        SpriteObject spr = getSprObject(obj);
+                        if (spr == null || !spr.getVisOnTerrain()) {
+                            continue;
+                        }
+                        if (!opaque) {
+                            spr.setPixelVisibility(x - spr.getX(), y - spr.getY(), false);
+                        } else if ((classicSteel || !spr.getType().isOneWay())
+                                && !(spr.getType().isOneWay()
+                                        && BooleanUtils.toBoolean(stencil.getMask(x, y) & Stencil.MSK_NO_ONE_WAY_DRAW))) {
+                            spr.setPixelVisibility(x - spr.getX(), y - spr.getY(), true);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Get level Entrance via idx.
      * @param idx index
@@ -1705,6 +1880,10 @@ public class Level {
         double scrollSpeedX;
         double scrollSpeedY;
         double scale;
+        /** animation frames of the objects when the buffers were last drawn, null if the buffers are invalid */
+        int[] bufferFrames;
+        /** interpolation of the scaled buffer */
+        boolean bufferBilinear;
 
         Background(int width, int height, List<LvlObject> objects, List<Terrain> terrain,
                 boolean tiled, int tint, int offsetX, int offsetY,
@@ -1,6 +1,7 @@
 package lemmini.game;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -37,6 +38,11 @@ import lemmini.tools.ToolBox;
  */
 public class Mask {
 
+    /** mask pixels with at least this alpha value change the stencil */
+    private static final int OPAQUE_ALPHA = 0x80;
+    /** stencil attribute set by each of the first frames of the blocker mask */
+    private static final int[] BLOCKER_TYPES = {Stencil.MSK_BLOCKER_LEFT, Stencil.MSK_BLOCKER_CENTER, Stencil.MSK_BLOCKER_RIGHT};
+
     /** width of mask in pixels */
     private final int width;
     /** height of mask in pixels */
@@ -45,6 +51,8 @@ public class Mask {
     private final List<LemmImage> mask;
     /** for recoloring purposes */
     private final List<LemmImage> originalColorMask;
+    /** compiled form of each frame in {@link #mask} */
+    private final List<Shape> shapes;
 
     /**
      * Constructor.
@@ -56,25 +64,26 @@ public class Mask {
         height = img.getHeight() / frames;
         mask = ToolBox.getAnimation(img, frames);
         originalColorMask = new ArrayList<>(mask);
+        shapes = new ArrayList<>(mask.size());
+        for (LemmImage m : mask) {
+            shapes.add(new Shape(m, width, height));
+        }
     }
 
     /**
      * Apply erase mask (to foreground image, minimap and stencil).
+     * @param sim simulation
      * @param x0 x position in pixels
      * @param y0 y position in pixels
      * @param maskNum index of mask if there are multiple animation frames, else 0
      * @param eraseMask Stencil attributes to erase
      * @param checkMask Stencil attributes that make the pixel indestructible
      */
-    public void eraseMask(final int x0, final int y0, final int maskNum, final int eraseMask, final int checkMask) {
-        LemmImage fgImage = GameController.getFgImage();
-        LemmImage fgImageSmall = Minimap.getImage();
-        Stencil stencil = GameController.getStencil();
-        LemmImage m = mask.get(maskNum);
-        double scaleX = (double) fgImageSmall.getWidth() / (double) fgImage.getWidth();
-        double scaleY = (double) fgImageSmall.getHeight() / (double) fgImage.getHeight();
-        double scaleXHalf = scaleX / 2.0;
-        double scaleYHalf = scaleY / 2.0;
+    public void eraseMask(final Simulation sim, final int x0, final int y0, final int maskNum, final int eraseMask, final int checkMask) {
+        sim.checkWrite();
+        LemmImage fgImage = sim.getFgImage();
+        Stencil stencil = sim.getStencil();
+        Shape shape = shapes.get(maskNum);
         int yMax = y0 + height;
         if (yMax >= fgImage.getHeight()) {
             yMax = fgImage.getHeight();
@@ -83,67 +92,54 @@ public class Mask {
         if (xMax >= fgImage.getWidth()) {
             xMax = fgImage.getWidth();
         }
+        // bounds of the erased pixels, for the terrain journal
+        int xMinChanged = Integer.MAX_VALUE;
+        int xMaxChanged = Integer.MIN_VALUE;
+        int yMinChanged = Integer.MAX_VALUE;
+        int yMaxChanged = Integer.MIN_VALUE;
 
-        int bgCol = Minimap.isTinted() ? 0 : GameController.getLevel().getBgColor().getRGB();
-
-        for (int y = y0; y < yMax; y++) {
-            if (y < 0) {
-                continue;
-            }
-            double scaledY = (y + 0.5) * scaleY % 1.0;
-            boolean drawSmallY = (scaledY >= (0.5 - scaleYHalf) % 1.0 && scaledY < (0.5 + scaleYHalf) % 1.0)
-                    || Math.abs(scaleY) >= 1.0;
-            for (int x = x0; x < xMax; x++) {
-                if (x < 0) {
-                    continue;
-                }
-                double scaledX = (x + 0.5) * scaleX % 1.0;
-                boolean drawSmallX = (scaledX >= (0.5 - scaleXHalf) % 1.0 && scaledX < (0.5 + scaleXHalf) % 1.0)
-                        || Math.abs(scaleX) >= 1.0;
-                int maskAlpha = m.getRGB(x - x0, y - y0) >>> 24;
-                int s = stencil.getMask(x, y);
-                if (!BooleanUtils.toBoolean(s & checkMask)) {
-                    int[] objects = stencil.getIDs(x, y);
-                    // erase pixel
-                    fgImage.removeAlpha(x, y, maskAlpha); // erase pixel in fgImage
-                    if (drawSmallX && drawSmallY) {
-                        // erase pixel in fgImageSmall
-                        fgImageSmall.removeAlpha(ToolBox.scale(x, scaleX), ToolBox.scale(y, scaleY), maskAlpha);
-                        fgImageSmall.addRGBBehind(ToolBox.scale(x, scaleX), ToolBox.scale(y, scaleY), bgCol);
-                    }
-                    if (!fgImage.isPixelOpaque(x, y)) {
-                        for (int obj : objects) {
-                            SpriteObject spr = GameController.getLevel().getSprObject(obj);
-                            // remove pixel from all object images that are visible only on terrain
-                            if (spr != null && spr.getVisOnTerrain()) {
-                                spr.setPixelVisibility(x - spr.getX(), y - spr.getY(), false);
-                            }
+        // fully transparent mask pixels don't change anything, so only the covered spans are visited
+        for (int y = Math.max(y0, 0); y < yMax; y++) {
+            int row = y - y0;
+            for (int i = shape.coverRows[row]; i < shape.coverRows[row + 1]; i += 2) {
+                int xEnd = Math.min(x0 + shape.coverSpans[i + 1], xMax);
+                for (int x = Math.max(x0 + shape.coverSpans[i], 0); x < xEnd; x++) {
+                    int maskAlpha = shape.rgb[x - x0 + row * width] >>> 24;
+                    int s = stencil.getMask(x, y);
+                    if (!BooleanUtils.toBoolean(s & checkMask)) {
+                        // erase pixel
+                        fgImage.removeAlpha(x, y, maskAlpha);
+                        if (maskAlpha >= OPAQUE_ALPHA) {
+                            // erase brick in stencil
+                            stencil.andMask(x, y, ~eraseMask);
                         }
-                    }
-                    if (m.isPixelOpaque(x - x0, y - y0)) {
-                        // erase brick in stencil
-                        stencil.andMask(x, y, ~eraseMask);
+                        xMinChanged = Math.min(xMinChanged, x);
+                        xMaxChanged = Math.max(xMaxChanged, x);
+                        yMinChanged = Math.min(yMinChanged, y);
+                        yMaxChanged = y;
                     }
                 }
             }
         }
+        if (xMinChanged <= xMaxChanged) {
+            // minimap and objects visible on terrain are updated from the journal
+            sim.getTerrainJournal().add(xMinChanged, yMinChanged,
+                    xMaxChanged - xMinChanged + 1, yMaxChanged - yMinChanged + 1);
+        }
     }
 
     /**
      * Paint one step (of a stair created by a Builder)
+     * @param sim simulation
      * @param x0 x position in pixels
      * @param y0 y position in pixels
      * @param maskNum index of mask if there are multiple animation frames, else 0
      */
-    public void paintStep(final int x0, final int y0, final int maskNum) {
-        LemmImage fgImage = GameController.getFgImage();
-        LemmImage fgImageSmall = Minimap.getImage();
-        Stencil stencil = GameController.getStencil();
-        LemmImage m = mask.get(maskNum);
-        double scaleX = (double) fgImageSmall.getWidth() / (double) fgImage.getWidth();
-        double scaleY = (double) fgImageSmall.getHeight() / (double) fgImage.getHeight();
-        double scaleXHalf = scaleX / 2.0;
-        double scaleYHalf = scaleY / 2.0;
+    public void paintStep(final Simulation sim, final int x0, final int y0, final int maskNum) {
+        sim.checkWrite();
+        LemmImage fgImage = sim.getFgImage();
+        Stencil stencil = sim.getStencil();
+        Shape shape = shapes.get(maskNum);
         int yMax = y0 + height;
         if (yMax >= fgImage.getHeight()) {
             yMax = fgImage.getHeight();
@@ -152,65 +148,37 @@ public class Mask {
         if (xMax >= fgImage.getWidth()) {
             xMax = fgImage.getWidth();
         }
+        int xMin = Math.max(x0, 0);
+        int yMin = Math.max(y0, 0);
 
-        for (int y = y0; y < yMax; y++) {
-            if (y < 0) {
-                continue;
-            }
-            double scaledY = (y + 0.5) * scaleY % 1.0;
-            boolean drawSmallY = (scaledY >= (0.5 - scaleYHalf) % 1.0
-                    && scaledY < (0.5 + scaleYHalf) % 1.0)
-                    || Math.abs(scaleY) >= 1.0;
-            for (int x = x0; x < xMax; x++) {
-                if (x < 0) {
-                    continue;
-                }
-                double scaledX = (x + 0.5) * scaleX % 1.0;
-                boolean drawSmallX = (scaledX >= (0.5 - scaleXHalf) % 1.0
-                        && scaledX < (0.5 + scaleXHalf) % 1.0)
-                        || Math.abs(scaleX) >= 1.0;
-                int color = m.getRGB(x - x0, y - y0);
-                int[] objects = stencil.getIDs(x, y);
-                fgImage.addRGB(x, y, color);
-                if (drawSmallX && drawSmallY) {
-                    int stepCol;
-                    if (Minimap.isTinted()) {
-                        stepCol = Minimap.tintColor(color);
-                    } else {
-                        stepCol = color;
+        // fully transparent mask pixels don't change anything, so only the covered spans are visited
+        for (int y = yMin; y < yMax; y++) {
+            int row = y - y0;
+            for (int i = shape.coverRows[row]; i < shape.coverRows[row + 1]; i += 2) {
+                int xEnd = Math.min(x0 + shape.coverSpans[i + 1], xMax);
+                for (int x = Math.max(x0 + shape.coverSpans[i], 0); x < xEnd; x++) {
+                    int color = shape.rgb[x - x0 + row * width];
+                    fgImage.addRGB(x, y, color);
+                    if ((color >>> 24) >= OPAQUE_ALPHA) {
+                        stencil.orMask(x, y, Stencil.MSK_BRICK);
                     }
-                    // green pixel in fgImageSmall
-                    fgImageSmall.addRGB(ToolBox.scale(x, scaleX), ToolBox.scale(y, scaleY), stepCol);
-                }
-                if (fgImage.isPixelOpaque(x, y)) {
-                    // get object
-                    for (int obj : objects) {
-                        SpriteObject spr = GameController.getLevel().getSprObject(obj);
-                        // add pixel to all object images that are visible only on terrain
-                        if (spr != null && spr.getVisOnTerrain()
-                                && (GameController.getLevel().getClassicSteel()
-                                        || !spr.getType().isOneWay())
-                                && !(spr.getType().isOneWay()
-                                        && BooleanUtils.toBoolean(stencil.getMask(x, y) & Stencil.MSK_NO_ONE_WAY_DRAW))) {
-                            spr.setPixelVisibility(x - spr.getX(), y - spr.getY(), true);
-                        }
-                    }
-                }
-                if (m.isPixelOpaque(x - x0, y - y0)) {
-                    stencil.orMask(x, y, Stencil.MSK_BRICK);
                 }
             }
         }
+        // minimap and objects visible on terrain are updated from the journal
+        sim.getTerrainJournal().add(xMin, yMin, xMax - xMin, yMax - yMin);
     }
 
     /**
      * Create blocker mask in the Stencil only (Lemming is assigned a Blocker)
+     * @param sim simulation
      * @param x0 x position in pixels
      * @param y0 y position in pixels
      */
-    public void setBlockerMask(final int x0, final int y0) {
-        LemmImage fgImage = GameController.getFgImage();
-        Stencil stencil = GameController.getStencil();
+    public void setBlockerMask(final Simulation sim, final int x0, final int y0) {
+        sim.checkWrite();
+        LemmImage fgImage = sim.getFgImage();
+        Stencil stencil = sim.getStencil();
         int yMax = y0 + height;
         if (yMax >= fgImage.getHeight()) {
             yMax = fgImage.getHeight();
@@ -220,34 +188,14 @@ public class Mask {
             xMax = fgImage.getWidth();
         }
 
-        for (ListIterator<LemmImage> lit = mask.listIterator(); lit.hasNext(); ) {
-            int i = lit.nextIndex();
-            if (i >= 3) {
-                break;
-            }
-            LemmImage m = lit.next();
-            for (int y = y0; y < yMax; y++) {
-                if (y < 0) {
-                    continue;
-                }
-                for (int x = x0; x < xMax; x++) {
-                    if (x < 0) {
-                        continue;
-                    }
-                    if (m.isPixelOpaque(x - x0, y - y0)) {
-                        switch (i) {
-                            case 0:
-                                stencil.orMask(x, y, Stencil.MSK_BLOCKER_LEFT); // set type in stencil
-                                break;
-                            case 1:
-                                stencil.orMask(x, y, Stencil.MSK_BLOCKER_CENTER); // set type in stencil
-                                break;
-                            case 2:
-                                stencil.orMask(x, y, Stencil.MSK_BLOCKER_RIGHT); // set type in stencil
-                                break;
-                            default:
-                                break;
-                        }
+        for (int n = 0; n < BLOCKER_TYPES.length && n < shapes.size(); n++) {
+            Shape shape = shapes.get(n);
+            for (int y = Math.max(y0, 0); y < yMax; y++) {
+                int row = y - y0;
+                for (int i = shape.opaqueRows[row]; i < shape.opaqueRows[row + 1]; i += 2) {
+                    int xEnd = Math.min(x0 + shape.opaqueSpans[i + 1], xMax);
+                    for (int x = Math.max(x0 + shape.opaqueSpans[i], 0); x < xEnd; x++) {
+                        stencil.orMask(x, y, BLOCKER_TYPES[n]); // set type in stencil
                         //fgImage.setRGB(x, y, 0xff00ff00); // debug
                     }
                 }
@@ -257,37 +205,28 @@ public class Mask {
 
     /**
      * Use mask to check bitmask properties of Stencil.
+     * @param sim simulation
      * @param x0 x position in pixels
      * @param y0 y position in pixels
      * @param maskNum index of mask if there are multiple animation frames, else 0
      * @param type Stencil bitmask to check (may contain several attributes)
      * @return true if at least one pixel with one of the given attributes is found
      */
-    public boolean checkType(final int x0, final int y0, final int maskNum, final int type) {
-        Stencil stencil = GameController.getStencil();
-        LemmImage m = mask.get(maskNum);
+    public boolean checkType(final Simulation sim, final int x0, final int y0, final int maskNum, final int type) {
+        Stencil stencil = sim.getStencil();
+        Shape shape = shapes.get(maskNum);
         int yMax = y0 + height;
         if (yMax >= stencil.getHeight()) {
             yMax = stencil.getHeight();
         }
-        int xMax = x0 + width;
-        if (xMax >= stencil.getWidth()) {
-            xMax = stencil.getWidth();
-        }
 
-        for (int y = y0; y < yMax; y++) {
-            if (y < 0) {
-                continue;
-            }
-            for (int x = x0; x < xMax; x++) {
-                if (x < 0) {
-                    continue;
-                }
-                if (m.isPixelOpaque(x - x0, y - y0)) {
-                    int s = stencil.getMask(x, y);
-                    if ((s & type) != 0) {
-                        return true;
-                    }
+        for (int y = Math.max(y0, 0); y < yMax; y++) {
+            int row = y - y0;
+            for (int i = shape.opaqueRows[row]; i < shape.opaqueRows[row + 1]; i += 2) {
+                // pixels outside the stencil are skipped by the stencil itself
+                int xStart = x0 + shape.opaqueSpans[i];
+                if (stencil.checkType(xStart, y, x0 + shape.opaqueSpans[i + 1] - xStart, 1, type)) {
+                    return true;
                 }
             }
         }
@@ -296,15 +235,17 @@ public class Mask {
 
     /**
      * Erase certain properties from Stencil bitmask.
+     * @param sim simulation
      * @param x0 x position in pixels
      * @param y0 y position in pixels
      * @param maskNum index of mask if there are multiple animation frames, else 0
      * @param type Stencil bitmask to erase (may contain several attributes)
      */
-    public void clearType(final int x0, final int y0, final int maskNum, final int type) {
-        LemmImage fgImage = GameController.getFgImage();
-        Stencil stencil = GameController.getStencil();
-        LemmImage m = mask.get(maskNum);
+    public void clearType(final Simulation sim, final int x0, final int y0, final int maskNum, final int type) {
+        sim.checkWrite();
+        LemmImage fgImage = sim.getFgImage();
+        Stencil stencil = sim.getStencil();
+        Shape shape = shapes.get(maskNum);
         int yMax = y0 + height;
         if (yMax >= fgImage.getHeight()) {
             yMax = fgImage.getHeight();
@@ -314,15 +255,11 @@ public class Mask {
             xMax = fgImage.getWidth();
         }
 
-        for (int y = y0; y < yMax; y++) {
-            if (y < 0) {
-                continue;
-            }
-            for (int x = x0; x < xMax; x++) {
-                if (x < 0) {
-                    continue;
-                }
-                if (m.isPixelOpaque(x - x0, y - y0)) {
+        for (int y = Math.max(y0, 0); y < yMax; y++) {
+            int row = y - y0;
+            for (int i = shape.opaqueRows[row]; i < shape.opaqueRows[row + 1]; i += 2) {
+                int xEnd = Math.min(x0 + shape.opaqueSpans[i + 1], xMax);
+                for (int x = Math.max(x0 + shape.opaqueSpans[i], 0); x < xEnd; x++) {
                     stencil.andMask(x, y, ~type); // erase type in stencil
                     //fgImage.setRGB(x, y, 0xffff0000); // debug
                 }
@@ -339,6 +276,7 @@ public class Mask {
             i.replaceColor(templateCol, replaceCol);
             i.replaceColor(templateCol2, replaceCol2);
             mask.set(fi, i);
+            shapes.set(fi, new Shape(i, width, height));
         }
     }
 
@@ -365,4 +303,70 @@ public class Mask {
     public int getNumFrames() {
         return mask.size();
     }
+
+    /**
+     * Mask frame compiled into horizontal spans per row, so that the transparent parts
+     * of the frame are skipped without looking at them.
+     * Spans are stored as pairs (first x, last x + 1); the spans of row r are found
+     * at indices rows[r] to rows[r + 1] - 1 of the span array.
+     */
+    private static final class Shape {
+
+        /** ARGB value of each pixel (x+y*width) */
+        private final int[] rgb;
+        /** start of each row in {@link #coverSpans} */
+        private final int[] coverRows;
+        /** spans of pixels that aren't fully transparent */
+        private final int[] coverSpans;
+        /** start of each row in {@link #opaqueSpans} */
+        private final int[] opaqueRows;
+        /** spans of pixels that are opaque enough to change the stencil */
+        private final int[] opaqueSpans;
+
+        private Shape(final LemmImage img, final int width, final int height) {
+            rgb = img.getRGB(0, 0, width, height, null, 0, width);
+            coverRows = new int[height + 1];
+            coverSpans = compile(rgb, width, height, 1, coverRows);
+            opaqueRows = new int[height + 1];
+            opaqueSpans = compile(rgb, width, height, OPAQUE_ALPHA, opaqueRows);
+        }
+
+        /**
+         * Collect the spans of pixels with at least the given alpha value.
+         * @param rgb ARGB value of each pixel
+         * @param width width in pixels
+         * @param height height in pixels
+         * @param minAlpha minimum alpha value of a pixel in a span
+         * @param rows receives the start of each row in the returned array
+         * @return spans as pairs (first x, last x + 1)
+         */
+        private static int[] compile(final int[] rgb, final int width, final int height,
+                final int minAlpha, final int[] rows) {
+            int[] spans = new int[16];
+            int n = 0;
+            for (int y = 0; y < height; y++) {
+                rows[y] = n;
+                int x = 0;
+                while (x < width) {
+                    while (x < width && (rgb[x + y * width] >>> 24) < minAlpha) {
+                        x++;
+                    }
+                    if (x == width) {
+                        break;
+                    }
+                    int start = x;
+                    while (x < width && (rgb[x + y * width] >>> 24) >= minAlpha) {
+                        x++;
+                    }
+                    if (n + 2 > spans.length) {
+                        spans = Arrays.copyOf(spans, spans.length * 2);
+                    }
+                    spans[n++] = start;
+                    spans[n++] = x;
+                }
+            }
+            rows[height] = n;
+            return Arrays.copyOf(spans, n);
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package lemmini.game;
 
 import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.List;
 
 import lemmini.graphics.GraphicsContext;
 import lemmini.graphics.LemmImage;
@@ -51,6 +53,16 @@ public class Minimap {
     private static int visibleHeight;
     private static int xPos;
     private static boolean tinted;
+    /** minimap column sampled by each level column, or -1 if the level column isn't sampled */
+    private static int[] columnMap = new int[0];
+    /** minimap row sampled by each level row, or -1 if the level row isn't sampled */
+    private static int[] rowMap = new int[0];
+    /** minimap pixels as drawn when the level was started, row by row */
+    private static int[] initialPixels = new int[0];
+    /** sampled foreground pixels when the level was started, in the same layout */
+    private static int[] initialTerrain = new int[0];
+    /** level background color, or 0 if the minimap is tinted */
+    private static int bgColor;
 
     /**
      * init
@@ -65,6 +77,11 @@ public class Minimap {
         Level level = GameController.getLevel();
         LemmImage fgImage = GameController.getFgImage();
         img = level.createMinimap(fgImage, scaleX, scaleY, false, tint, false);
+        // the minimap is edited pixel by pixel by every mask stroke
+        img.enableDirectAccess();
+        columnMap = createSampleMap(fgImage.getWidth(), img.getWidth());
+        rowMap = createSampleMap(fgImage.getHeight(), img.getHeight());
+        sampleInitialState(level, fgImage);
         visibleWidth = Math.min(img.getWidth(), MAX_VISIBLE_WIDTH);
         visibleHeight = Math.min(img.getHeight(), MAX_VISIBLE_HEIGHT);
         MiscGfx.setMinimapWidth(visibleWidth);
@@ -76,6 +93,104 @@ public class Minimap {
         }
     }
 
+    /**
+     * Create the lookup table that maps level coordinates to the minimap pixels they are drawn to.
+     * Only one level coordinate per minimap pixel is sampled, all others map to -1.
+     * @param levelSize level width or height in pixels
+     * @param minimapSize minimap width or height in pixels
+     * @return lookup table with one entry per level coordinate
+     */
+    private static int[] createSampleMap(final int levelSize, final int minimapSize) {
+        int[] map = new int[levelSize];
+        double scale = (double) minimapSize / (double) levelSize;
+        double scaleHalf = scale / 2.0;
+        for (int i = 0; i < levelSize; i++) {
+            double scaled = (i + 0.5) * scale % 1.0;
+            boolean sampled = (scaled >= (0.5 - scaleHalf) % 1.0 && scaled < (0.5 + scaleHalf) % 1.0)
+                    || Math.abs(scale) >= 1.0;
+            map[i] = sampled ? ToolBox.scale(i, scale) : -1;
+        }
+        return map;
+    }
+
+    /**
+     * Remember the minimap and the sampled terrain as they are when the level starts, so that
+     * changed terrain pixels can be composited again without redrawing the whole minimap.
+     * @param level level
+     * @param fgImage foreground image
+     */
+    private static void sampleInitialState(final Level level, final LemmImage fgImage) {
+        int w = img.getWidth();
+        int h = img.getHeight();
+        initialPixels = img.getRGB(0, 0, w, h, null, 0, w);
+        initialTerrain = new int[w * h];
+        for (int y = 0; y < rowMap.length; y++) {
+            if (rowMap[y] < 0) {
+                continue;
+            }
+            for (int x = 0; x < columnMap.length; x++) {
+                if (columnMap[x] >= 0) {
+                    initialTerrain[columnMap[x] + rowMap[y] * w] = fgImage.getRGB(x, y);
+                }
+            }
+        }
+        bgColor = tinted ? 0 : level.getBgColor().getRGB();
+    }
+
+    /**
+     * Composite the minimap pixels of changed terrain again from the foreground image.
+     * Pixels whose terrain is still the same as at the start of the level keep their original
+     * look. Changed pixels look like they did when the masks were drawn to the minimap directly:
+     * the terrain pixel in front of the background color, while objects behind and in front of
+     * the terrain are dropped there, so erased terrain shows the background and builder steps
+     * cover objects in front of the terrain.
+     * @param rects changed rectangles in level coordinates
+     */
+    static void terrainChanged(final List<Rectangle> rects) {
+        if (img == null) {
+            return;
+        }
+        LemmImage fgImage = GameController.getFgImage();
+        int w = img.getWidth();
+        for (Rectangle r : rects) {
+            int xMax = Math.min(r.x + r.width, columnMap.length);
+            int yMax = Math.min(r.y + r.height, rowMap.length);
+            for (int y = r.y; y < yMax; y++) {
+                int smallY = rowMap[y];
+                if (smallY < 0) {
+                    continue;
+                }
+                for (int x = r.x; x < xMax; x++) {
+                    int smallX = columnMap[x];
+                    if (smallX < 0) {
+                        continue;
+                    }
+                    int i = smallX + smallY * w;
+                    int terrain = fgImage.getRGB(x, y);
+                    if (sameTerrain(terrain, initialTerrain[i])) {
+                        img.setRGB(smallX, smallY, initialPixels[i]);
+                    } else {
+                        img.setRGB(smallX, smallY, bgColor);
+                        img.addRGB(smallX, smallY, terrain);
+                        if (tinted) {
+                            img.setRGB(smallX, smallY, tintColor(img.getRGB(smallX, smallY)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether two terrain pixels look the same. All fully transparent pixels are equal.
+     * @param a ARGB value
+     * @param b ARGB value
+     * @return true if both pixels look the same
+     */
+    private static boolean sameTerrain(final int a, final int b) {
+        return a == b || (a >>> 24) == 0 && (b >>> 24) == 0;
+    }
+
     /**
      * Draw minimap.
      * @param g Graphics object to draw on
@@ -141,6 +256,22 @@ public class Minimap {
         return xPos;
     }
 
+    /**
+     * Get the smallest level x coordinate of a Lemming that can show up in the visible part of the minimap.
+     * @return x coordinate in pixels
+     */
+    public static int getVisibleLevelXMin() {
+        return ToolBox.unscale(xPos - LEMM_DOT_SCALE, scaleX) - 1;
+    }
+
+    /**
+     * Get the largest level x coordinate of a Lemming that can show up in the visible part of the minimap.
+     * @return x coordinate in pixels
+     */
+    public static int getVisibleLevelXMax() {
+        return ToolBox.unscale(xPos + visibleWidth + LEMM_DOT_SCALE, scaleX) + 1;
+    }
+
     public static double getScaleX() {
         return scaleX;
     }
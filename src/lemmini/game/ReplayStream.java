@@ -6,13 +6,11 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Locale;
 
-import javax.swing.JOptionPane;
-
-import lemmini.LemminiFrame;
 import lemmini.tools.ToolBox;
 
 /*
@@ -47,7 +45,14 @@ public class ReplayStream {
     static final int NUKE = 4;
     static final int END = 5;
 
-    static final int CURRENT_FORMAT = 1;
+    /** format of replays without state hashes, which older versions can read as well */
+    static final int BASE_FORMAT = 1;
+    /** format of replays with state hashes */
+    static final int CURRENT_FORMAT = 2;
+    /** first line of the state hash trailer */
+    private static final String STATE_HASHES = "#STATEHASHES ";
+    /** number of state hashes per line of the trailer */
+    private static final int STATE_HASHES_PER_LINE = 16;
     static final String CURRENT_REVISION = Core.REVISION;
     static final String SUPERLEMMINI_REVISION = "0.104";
 
@@ -56,6 +61,10 @@ public class ReplayStream {
     private int format;
     private String revision;
     private int players;
+    /** state hash of each frame from frame 0 on, see {@link StateHash} */
+    private long[] stateHashes;
+    /** number of valid entries in {@link #stateHashes} */
+    private int numStateHashes;
 
     /**
      * Constructor.
@@ -64,6 +73,8 @@ public class ReplayStream {
         events = new ArrayList<>(256);
         replayIndex = 0;
         format = 0;
+        stateHashes = new long[1024];
+        numStateHashes = 0;
     }
 
     /**
@@ -99,6 +110,7 @@ public class ReplayStream {
      */
     public void clear() {
         events.clear();
+        numStateHashes = 0;
     }
 
     /**
@@ -117,6 +129,84 @@ public class ReplayStream {
             }
         }
         replayIndex = 0;
+        numStateHashes = Math.min(numStateHashes, ctr);
+    }
+
+    /**
+     * Move to the first replay event of a frame, e.g. after restoring a snapshot.
+     * @param ctr frame counter
+     */
+    void seek(final int ctr) {
+        replayIndex = 0;
+        while (replayIndex < events.size() && events.get(replayIndex).frameCtr < ctr) {
+            replayIndex++;
+        }
+    }
+
+    /**
+     * Get the number of replay events.
+     * @return number of replay events
+     */
+    int getNumEvents() {
+        return events.size();
+    }
+
+    /**
+     * Remove the replay events recorded after a snapshot and the state hashes of its frame
+     * and all later frames. The events are cut by number, not by frame, since an assignment
+     * in the second try of a frame is recorded for the next frame before that frame starts.
+     * @param ctr frame counter
+     * @param numEvents number of replay events to keep
+     */
+    void truncate(final int ctr, final int numEvents) {
+        if (numEvents < events.size()) {
+            events.subList(numEvents, events.size()).clear();
+        }
+        seek(ctr);
+        numStateHashes = Math.min(numStateHashes, ctr);
+    }
+
+    /**
+     * Store the state hash of a frame. Hashes are only kept for an unbroken run of frames
+     * from frame 0 on, so a hash for a later frame is ignored.
+     * @param ctr frame counter
+     * @param hash state hash
+     */
+    void addStateHash(final int ctr, final long hash) {
+        if (ctr > numStateHashes) {
+            return;
+        }
+        if (ctr == stateHashes.length) {
+            stateHashes = Arrays.copyOf(stateHashes, stateHashes.length * 2);
+        }
+        stateHashes[ctr] = hash;
+        numStateHashes = ctr + 1;
+    }
+
+    /**
+     * Check whether the state hash of a frame is known.
+     * @param ctr frame counter
+     * @return true if the replay contains the state hash of the frame
+     */
+    boolean hasStateHash(final int ctr) {
+        return ctr >= 0 && ctr < numStateHashes;
+    }
+
+    /**
+     * Get the state hash of a frame.
+     * @param ctr frame counter
+     * @return state hash
+     */
+    long getStateHash(final int ctr) {
+        return stateHashes[ctr];
+    }
+
+    /**
+     * Check whether the loaded replay was created with a compatible version.
+     * @return true if the replay should play properly, false otherwise
+     */
+    public boolean isCompatible() {
+        return revision == null || revision.equals(CURRENT_REVISION) || revision.equals(SUPERLEMMINI_REVISION);
     }
 
     /**
@@ -126,6 +216,18 @@ public class ReplayStream {
      * @throws LemmException
      */
     public ReplayLevelInfo load(final Path fname) throws LemmException {
+        return load(fname, GameController.isOptionEnabled(GameController.SLTooOption.TIMED_BOMBERS));
+    }
+
+    /**
+     * Load replay buffer from file.
+     * @param fname file name
+     * @param timedBombers timed bomber setting for old replays that don't store it with
+     *        each ASSIGN_SKILL event
+     * @return replay information
+     * @throws LemmException
+     */
+    public ReplayLevelInfo load(final Path fname, final boolean timedBombers) throws LemmException {
         try (BufferedReader br = ToolBox.getBufferedReader(fname)) {
             List<ReplayEvent> ev = new ArrayList<>(256);
             String line = br.readLine();
@@ -181,7 +283,25 @@ public class ReplayStream {
                 rli.setLvlName(null);
             }
             // read events
+            long[] hashes = new long[1024];
+            int numHashes = 0;
             while ((line = br.readLine()) != null) {
+                if (line.startsWith(STATE_HASHES)) {
+                    // the state hash trailer is the last part of the file
+                    int n = Integer.parseInt(line.substring(STATE_HASHES.length()).trim());
+                    hashes = new long[Math.max(n, 1024)];
+                    while (numHashes < n && (line = br.readLine()) != null) {
+                        for (String h : line.split(",")) {
+                            if (numHashes < n) {
+                                hashes[numHashes++] = Long.parseUnsignedLong(h.trim(), 16);
+                            }
+                        }
+                    }
+                    if (numHashes < n) {
+                        throw new LemmException("Replay file contains an incomplete list of state hashes.");
+                    }
+                    break;
+                }
                 e = line.split(",");
                 for (int i = 0; i < e.length; i++) {
                     e[i] = e[i].trim();
@@ -196,10 +316,10 @@ public class ReplayStream {
                             throw new LemmException("Not enough values in replay event for ASSIGN_SKILL.");
                         }
 
-                        // If 5th value (Timed/Untimed Bomber) is missing, use the current user setting
+                        // If 5th value (Timed/Untimed Bomber) is missing, use the given setting
                         boolean isTimedBomber = (e.length >= 5)
                             ? Boolean.parseBoolean(e[4])
-                            : GameController.isOptionEnabled(GameController.SLTooOption.TIMED_BOMBERS);
+                            : timedBombers;
 
                         ev.add(new ReplayAssignSkillEvent(
                             Integer.parseInt(e[0]),
@@ -243,13 +363,8 @@ public class ReplayStream {
                 }
             }
             events = ev;                              // For backwards compatibility
-            if (!revision.equals(CURRENT_REVISION) && !revision.equals(SUPERLEMMINI_REVISION)) {
-                JOptionPane.showMessageDialog(LemminiFrame.getFrame(),
-                        "This replay was created with a potentially incompatible version of RetroLemmini. "
-                        + "For this reason, the replay might not play properly.",
-                        "Load Replay",
-                        JOptionPane.WARNING_MESSAGE);
-            }
+            stateHashes = hashes;
+            numStateHashes = numHashes;
             return rli;
         } catch (IOException | NumberFormatException | ArrayIndexOutOfBoundsException e) {
             throw new LemmException("Error reading replay file.");
@@ -265,7 +380,7 @@ public class ReplayStream {
         try {
             w.write("#REPLAY NEW");
             w.newLine();
-            w.write("#FORMAT " + CURRENT_FORMAT);
+            w.write("#FORMAT " + ((numStateHashes > 0) ? CURRENT_FORMAT : BASE_FORMAT));
             w.newLine();
             w.write("#REVISION " + CURRENT_REVISION);
             w.newLine();
@@ -280,6 +395,18 @@ public class ReplayStream {
                 w.write(r.toString()); // will use toString of the correct child object
                 w.newLine();
             }
+            if (numStateHashes > 0) {
+                w.write(STATE_HASHES + numStateHashes);
+                w.newLine();
+                for (int i = 0; i < numStateHashes; i++) {
+                    w.write(String.format(Locale.ROOT, "%016x", stateHashes[i]));
+                    if (i % STATE_HASHES_PER_LINE == STATE_HASHES_PER_LINE - 1 || i == numStateHashes - 1) {
+                        w.newLine();
+                    } else {
+                        w.write(',');
+                    }
+                }
+            }
 
             return true;
         } catch (IOException e) {
@@ -0,0 +1,357 @@
+package lemmini.game;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Verifies replays without a user interface: each replay is resolved against its level pack,
+ * simulated headless until the level ends and checked whether enough Lemmings were saved
+ * and, if the replay contains state hashes, whether every frame plays as it was recorded.
+ * Replays are simulated in parallel by a number of worker threads.
+ * Optionally, each replay is simulated a second time with the two-phase Lemming update
+ * and the state hashes of both runs are compared frame by frame.
+ */
+public final class ReplayVerifier {
+
+    /** a level that doesn't end within one hour of game time is given up */
+    public static final int DEFAULT_MAX_FRAMES = 360 * GameController.FRAMES_PER_10_SECONDS;
+    /**
+     * Timed bombers setting for replays that don't store it with their events (the default of
+     * the game), so the result doesn't depend on the settings of whoever runs the verifier.
+     */
+    private static final boolean TIMED_BOMBERS = true;
+    /** replays don't store the maximum exit physics mode, so it's always off (the default of the game) */
+    private static final boolean MAXIMUM_EXIT_PHYSICS = false;
+
+    /** number of worker threads */
+    private final int threads;
+    /** maximum number of frames to simulate per replay */
+    private final int maxFrames;
+    /** levels are loaded one at a time, since loading styles isn't thread-safe */
+    private final Object loadLock = new Object();
+    /** flag: compare the sequential and the two-phase Lemming update */
+    private boolean compareParallelSensing;
+
+    /**
+     * Result of verifying one replay.
+     */
+    public static final class Result {
+        /** replay file */
+        private final Path path;
+        /** level the replay was recorded in, or null if unknown */
+        private final String levelName;
+        private final int saved;
+        private final int needed;
+        /** number of frames simulated */
+        private final int frames;
+        /** flag: the level ended before the frame limit */
+        private final boolean finished;
+        /** first frame that differs from the recorded state, or -1 */
+        private final int divergedFrame;
+        /** subsystems that diverged, or null */
+        private final String divergedSubsystems;
+        /** first difference between the sequential and the two-phase update, or null */
+        private final String mismatch;
+        /** error message, or null if the replay could be simulated */
+        private final String error;
+
+        Result(final Path path, final String levelName, final Simulation sim, final String mismatch) {
+            this.path = path;
+            this.levelName = levelName;
+            saved = sim.getNumExited();
+            needed = sim.getNumToRescue();
+            frames = sim.getReplayFrame();
+            finished = sim.isFinished();
+            divergedFrame = sim.getDivergedFrame();
+            divergedSubsystems = sim.getDivergedSubsystems();
+            this.mismatch = mismatch;
+            error = null;
+        }
+
+        Result(final Path path, final String levelName, final String error) {
+            this.path = path;
+            this.levelName = levelName;
+            saved = 0;
+            needed = 0;
+            frames = 0;
+            finished = false;
+            divergedFrame = -1;
+            divergedSubsystems = null;
+            mismatch = null;
+            this.error = error;
+        }
+
+        /**
+         * Check whether the replay still solves its level the way it was recorded.
+         * @return true if enough Lemmings were saved and no frame diverged, false otherwise
+         */
+        public boolean isPassed() {
+            return error == null && saved >= needed && divergedFrame < 0 && mismatch == null;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public int getSaved() {
+            return saved;
+        }
+
+        public int getNeeded() {
+            return needed;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public int getDivergedFrame() {
+            return divergedFrame;
+        }
+
+        @Override
+        public String toString() {
+            String status = isPassed() ? "PASS" : "FAIL";
+            if (error != null) {
+                return String.format(Locale.ROOT, "%s  %s: %s", status, path, error);
+            }
+            int seconds = frames * 10 / GameController.FRAMES_PER_10_SECONDS;
+            String diverged = (divergedFrame < 0) ? StringUtils.EMPTY
+                    : String.format(Locale.ROOT, "  diverged in frame %d (%s)", divergedFrame, divergedSubsystems);
+            if (mismatch != null) {
+                diverged += "  " + mismatch;
+            }
+            return String.format(Locale.ROOT, "%s  saved %d/%d  time %d-%02d%s%s  %s (%s)",
+                    status, saved, needed, seconds / 60, seconds % 60,
+                    finished ? StringUtils.EMPTY : " (level didn't end)", diverged, path, levelName);
+        }
+    }
+
+    /**
+     * Constructor.
+     * @param threads number of worker threads
+     * @param maxFrames maximum number of frames to simulate per replay
+     */
+    public ReplayVerifier(final int threads, final int maxFrames) {
+        this.threads = Math.max(threads, 1);
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Also simulate each replay with the two-phase Lemming update and compare the state of
+     * every frame with the sequential update. The two-phase update is used in every frame,
+     * however few Lemmings there are.
+     * @param c true: compare both updates
+     */
+    public void setCompareParallelSensing(final boolean c) {
+        compareParallelSensing = c;
+    }
+
+    /**
+     * Verify all replays in a directory and its subdirectories and print a report.
+     * GameController must be initialized.
+     * @param dir directory of replays
+     * @return 0 if all replays passed, 1 otherwise
+     * @throws IOException
+     * @throws ResourceException
+     * @throws InterruptedException
+     */
+    public int run(final Path dir) throws IOException, ResourceException, InterruptedException {
+        List<Path> replays;
+        try (Stream<Path> files = Files.walk(dir)) {
+            replays = files.filter(Files::isRegularFile)
+                    .filter(f -> FilenameUtils.getExtension(f.getFileName().toString()).equalsIgnoreCase("rpl"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        System.out.println(String.format(Locale.ROOT, "verifying %d replays in %s with %d threads...",
+                replays.size(), dir, threads));
+
+        long start = System.nanoTime();
+        List<Result> results = verify(replays);
+        long nanos = Math.max(System.nanoTime() - start, 1);
+
+        long frames = 0;
+        int failed = 0;
+        for (Result r : results) {
+            System.out.println(r);
+            frames += r.getFrames();
+            if (!r.isPassed()) {
+                failed++;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%d replays, %d failed, %d frames simulated in %.1f s (%.0f frames/s)",
+                results.size(), failed, frames, nanos / 1e9, frames * 1e9 / nanos));
+        return (failed == 0) ? 0 : 1;
+    }
+
+    /**
+     * Verify replays.
+     * The mods of a level pack are global resources, so the replays are grouped by level pack
+     * and the groups are verified one after another.
+     * @param replays replay files
+     * @return results in the order of the replay files
+     * @throws ResourceException
+     * @throws InterruptedException
+     */
+    public List<Result> verify(final List<Path> replays) throws ResourceException, InterruptedException {
+        Result[] results = new Result[replays.size()];
+        // replays by level pack, -1 for replays that can't be resolved
+        Map<Integer, List<Integer>> groups = new TreeMap<>();
+        List<ReplayStream> streams = new ArrayList<>(replays.size());
+        List<int[]> levels = new ArrayList<>(replays.size());
+        for (int i = 0; i < replays.size(); i++) {
+            Path path = replays.get(i);
+            ReplayStream replay = new ReplayStream();
+            int[] lvl = null;
+            try {
+                ReplayLevelInfo rli = replay.load(path, TIMED_BOMBERS);
+                lvl = GameController.findReplayLevel(rli);
+                if (lvl == null) {
+                    results[i] = new Result(path, null, "Level specified in replay file does not exist.");
+                }
+            } catch (LemmException ex) {
+                results[i] = new Result(path, null, ex.getMessage());
+            }
+            streams.add(replay);
+            levels.add(lvl);
+            groups.computeIfAbsent((lvl == null) ? -1 : lvl[0], k -> new ArrayList<>()).add(i);
+        }
+        groups.remove(-1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ReplayVerifier");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            for (Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+                GameController.selectModsHeadless(group.getKey());
+                List<Future<Result>> futures = new ArrayList<>(group.getValue().size());
+                for (int i : group.getValue()) {
+                    Path path = replays.get(i);
+                    ReplayStream replay = streams.get(i);
+                    int[] lvl = levels.get(i);
+                    futures.add(pool.submit(() -> verify(path, replay, lvl)));
+                }
+                for (int n = 0; n < futures.size(); n++) {
+                    int i = group.getValue().get(n);
+                    try {
+                        results[i] = futures.get(n).get();
+                    } catch (ExecutionException ex) {
+                        Throwable cause = ex.getCause();
+                        results[i] = new Result(replays.get(i), null, cause.getClass().getSimpleName() + ": " + cause.getMessage());
+                    }
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        List<Result> list = new ArrayList<>(results.length);
+        for (Result r : results) {
+            list.add(r);
+        }
+        return list;
+    }
+
+    /**
+     * Simulate one replay until the level ends.
+     * @param path replay file
+     * @param replay loaded replay
+     * @param lvl index of level pack, rating and level
+     * @return result
+     */
+    private Result verify(final Path path, final ReplayStream replay, final int[] lvl) {
+        LevelPack lp = GameController.getLevelPack(lvl[0]);
+        String levelName = String.format(Locale.ROOT, "%s - %s %d",
+                lp.getName(), lp.getRatings().get(lvl[1]), lvl[2] + 1);
+        Simulation sim;
+        Simulation twoPhase = null;
+        try {
+            sim = createSimulation(lp, lvl, replay);
+            if (compareParallelSensing) {
+                // the replay stream keeps the playback position, so the second run needs its own
+                ReplayStream replay2 = new ReplayStream();
+                replay2.load(path, TIMED_BOMBERS);
+                twoPhase = createSimulation(lp, lvl, replay2);
+                twoPhase.setParallelSensing(true);
+                // compare every frame, not only the frames with enough Lemmings to pay off
+                twoPhase.setParallelSensingMinLemmings(0);
+                // both runs are compared frame by frame
+                sim.setStateHashing(true);
+                twoPhase.setStateHashing(true);
+            }
+        } catch (ResourceException | LemmException ex) {
+            return new Result(path, levelName, ex.getMessage());
+        }
+        String mismatch = null;
+        while (!sim.isFinished() && sim.getReplayFrame() < maxFrames) {
+            update(sim);
+            if (twoPhase != null) {
+                update(twoPhase);
+                if (twoPhase.getStateHash() != sim.getStateHash()) {
+                    mismatch = String.format(Locale.ROOT, "two-phase update differs in frame %d (%s)",
+                            sim.getReplayFrame() - 1, StateHash.diff(sim.getStateHash(), twoPhase.getStateHash()));
+                    twoPhase = null;
+                }
+            }
+        }
+        return new Result(path, levelName, sim, mismatch);
+    }
+
+    /**
+     * Create the simulation of a replay and prepare it for playback.
+     * @param lp level pack
+     * @param lvl index of level pack, rating and level
+     * @param replay loaded replay
+     * @return simulation in replay mode
+     * @throws ResourceException
+     * @throws LemmException
+     */
+    private Simulation createSimulation(final LevelPack lp, final int[] lvl, final ReplayStream replay)
+            throws ResourceException, LemmException {
+        Simulation sim;
+        synchronized (loadLock) {
+            Level level = new Level(lp.getInfo(lvl[1], lvl[2]).getLevelResource(), null, lp.getMaxFallDistance());
+            sim = new Simulation(level, replay, SimulationEvents.NONE);
+        }
+        sim.setMaximumExitPhysics(MAXIMUM_EXIT_PHYSICS);
+        sim.setTimedBombers(TIMED_BOMBERS);
+        replay.rewind();
+        sim.setReplayMode(true);
+        return sim;
+    }
+
+    /**
+     * Simulate one frame of a replay.
+     * @param sim simulation
+     */
+    private static void update(final Simulation sim) {
+        if (sim.isReplayMode() && sim.isReplayEnded()) {
+            // like in the game, the level goes on without any user input
+            sim.setReplayMode(false);
+        }
+        sim.update();
+    }
+}
@@ -0,0 +1,1398 @@
+package lemmini.game;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+import lemmini.gameutil.Sprite;
+import lemmini.graphics.LemmImage;
+import lemmini.sound.Sound;
+
+/**
+ * The game mechanics of one level: terrain, Lemmings, level objects, counters and replay.
+ * A simulation doesn't draw anything and doesn't depend on the user interface; sounds,
+ * visual SFX and replayed user input are passed to its {@link SimulationEvents}.
+ * Several simulations can run at the same time, each in its own thread.
+ * The simulation isn't synchronized - it must only be used by one thread at a time.
+ * With {@link #setParallelSensing(boolean)}, it uses the common fork-join pool internally.
+ */
+public final class Simulation {
+
+    private static final int MAX_START_SOUND_CTR = 28;
+    /** open entrance after about 2 seconds */
+    private static final int MAX_ENTRANCE_OPEN_CTR = 72;
+    /** one second is 33.333 ticks */
+    private static final int[] MAX_SECOND_CTR = {34, 33, 33};
+    /** one second in superlemming mode is 100 ticks */
+    private static final int[] MAX_SUPERLEMMING_SECOND_CTR = {100};
+    /** estimated size of a copied Lemming or explosion in snapshots */
+    private static final int SNAPSHOT_OBJECT_SIZE = 128;
+    /** below this number of Lemmings, sensing in parallel costs more than it saves */
+    private static final int PARALLEL_SENSING_MIN_LEMMINGS = 64;
+    /** thrown when a Lemming that senses in parallel tries to change something besides itself */
+    private static final RuntimeException SENSING_ABORTED = new RuntimeException(null, null, false, false) {
+        private static final long serialVersionUID = 1L;
+    };
+
+    /** level object */
+    private final Level level;
+    /** the foreground stencil */
+    private final Stencil stencil;
+    /** the foreground image */
+    private final LemmImage fgImage;
+    /** level width in pixels */
+    private final int width;
+    /** level height in pixels */
+    private final int height;
+    /** receiver of sounds, visual SFX and replayed user input */
+    private final SimulationEvents events;
+    /** replay stream, played back in replay mode and recorded otherwise */
+    private final ReplayStream replay;
+    /** list of all active Lemmings in the Level - indexed by replay ASSIGN_SKILL events */
+    private final ArrayList<Lemming> lemmings;
+    /** foot positions of all active Lemmings, for finding the Lemmings in a rectangle */
+    private final LemmingGrid lemmingGrid = new LemmingGrid();
+    /** list of all active explosions */
+    private final List<Explosion> explosions = new LinkedList<>();
+    /** sprite objects of the entrances */
+    private final Set<SpriteObject> entranceSprites = new HashSet<>();
+    /** terrain changed during the current frame */
+    private final TerrainJournal terrainJournal = new TerrainJournal();
+    /** copy-on-write tiles of the foreground image for snapshots */
+    private final ForegroundTiles fgTiles = new ForegroundTiles();
+    /** order in which the entrances release Lemmings */
+    private final TrapDoor trapDoor;
+
+    /** result of sensing on a copy of each Lemming, null if the Lemming must be updated sequentially */
+    private Lemming[] sensedLemmings = new Lemming[0];
+    /** bounds (xMin, yMin, xMax, yMax) of the stencil pixels read while sensing each Lemming */
+    private int[][] sensedReads = new int[0][];
+    /** bounds (xMin, yMin, xMax, yMax) of the stencil changes of the Lemmings updated so far in this frame */
+    private final List<int[]> changedBounds = new ArrayList<>();
+    /** flag: Lemmings sense the terrain in parallel before they are updated in order */
+    private boolean parallelSensing;
+    /** smallest number of Lemmings for which the two-phase update is used */
+    private int parallelSensingMinLemmings = PARALLEL_SENSING_MIN_LEMMINGS;
+    /** flag: the Lemmings are sensing in parallel right now, so nothing but Lemming copies may change */
+    private boolean sensing;
+    /** flag: Lemmings of all types exit in maximum exit physics mode */
+    private boolean maximumExitPhysics;
+    /** flag: bombers count down before they explode */
+    private boolean timedBombers = true;
+    /** flag: the time limit is ignored */
+    private boolean debugMode;
+    /** flag: the level has ended */
+    private boolean finished;
+    /** flag: entrances is opened */
+    private boolean entranceOpened;
+    /** flag: nuke was activated */
+    private boolean nuke;
+    /** flag: Superlemming mode is active */
+    private boolean superLemming;
+    private final boolean forceNormalTimerSpeed;
+    /** frame counter for handling opening of entrances */
+    private int entranceOpenCtr;
+    private int startSoundCtr;
+    private boolean startSoundPlayed;
+    /** frame counter for handling time */
+    private int secondCtr;
+    /** frame counter used to handle release of new Lemmings */
+    private int releaseCtr;
+    /** threshold to release a new Lemming */
+    private int releaseBase;
+    /** frame counter used for handling replays */
+    private int replayFrame;
+    /** old value of release rate */
+    private int releaseRateOld;
+    /** old value of nuke flag */
+    private boolean nukeOld;
+    /** flag: replay mode is active */
+    private boolean replayMode;
+    /** flag: the end of the replay was reached */
+    private boolean replayEnded;
+    /** number of Lemmings which exited the level */
+    private int numExited;
+    /** release rate */
+    private int releaseRate;
+    private final boolean lockReleaseRate;
+    /** number of Lemmings available */
+    private final int numLemmingsMax;
+    /** number of Lemmings who entered the level */
+    private int numLemmingsOut;
+    /** number of Lemmings which have to be rescued to finish the level */
+    private final int numToRescue;
+    /** time left in seconds */
+    private int time;
+    private final int timeLimit;
+    private int timeElapsedTillLastExited;
+    private boolean timed;
+    /** number of climber skills left to be assigned */
+    private int numClimbers;
+    /** number of floater skills left to be assigned */
+    private int numFloaters;
+    /** number of bomber skills left to be assigned */
+    private int numBombers;
+    /** number of blocker skills left to be assigned */
+    private int numBlockers;
+    /** number of builder skills left to be assigned */
+    private int numBuilders;
+    /** number of basher skills left to be assigned */
+    private int numBashers;
+    /** number of miner skills left to be assigned */
+    private int numMiners;
+    /** number of digger skills left to be assigned */
+    private int numDiggers;
+    private int numSkillsUsed;
+    /** free running update counter */
+    private int updateCtr;
+    /** state hash of the current frame, see {@link StateHash} */
+    private long stateHash;
+    /** flag: calculate the state hash of every frame, not only of those compared with the replay */
+    private boolean stateHashing;
+    /** first frame whose state hash differs from the one stored in the replay, or -1 */
+    private int divergedFrame = -1;
+    /** subsystems that diverged in {@link #divergedFrame} */
+    private String divergedSubsystems;
+
+    /**
+     * Constructor: paint the level and set up its mechanics.
+     * @param lvl level
+     * @param rs replay stream; it's played back in replay mode and recorded otherwise
+     * @param ev receiver of sounds, visual SFX and replayed user input
+     * @throws LemmException
+     * @throws ResourceException
+     */
+    public Simulation(final Level lvl, final ReplayStream rs, final SimulationEvents ev)
+            throws LemmException, ResourceException {
+        level = lvl;
+        replay = rs;
+        events = ev;
+
+        numExited = 0;
+        releaseRate = level.getReleaseRate();
+        lockReleaseRate = level.isReleaseRateLocked();
+        numLemmingsMax = level.getNumLemmings();
+        lemmings = new ArrayList<>(numLemmingsMax);
+        numLemmingsOut = 0;
+        numToRescue = level.getNumToRescue();
+        numClimbers = level.getNumClimbers();
+        numFloaters = level.getNumFloaters();
+        numBombers = level.getNumBombers();
+        numBlockers = level.getNumBlockers();
+        numBuilders = level.getNumBuilders();
+        numBashers = level.getNumBashers();
+        numMiners = level.getNumMiners();
+        numDiggers = level.getNumDiggers();
+        numSkillsUsed = 0;
+        width = level.getWidth();
+        height = level.getHeight();
+        lemmingGrid.reset(width, height);
+        terrainJournal.reset(width, height);
+        time = level.getTimeLimitSeconds();
+        if (time <= 0) {
+            timed = false;
+            time = 0;
+        } else {
+            timed = true;
+        }
+        timeLimit = time;
+        timeElapsedTillLastExited = 0;
+
+        level.paintLevel();
+        stencil = level.getStencil();
+        fgImage = level.getFgImage();
+        fgTiles.reset(fgImage);
+        terrainJournal.addListener(level::updateVisOnTerrain);
+        terrainJournal.addListener(fgTiles);
+
+        trapDoor = new TrapDoor(level.getNumEntrances(), level.getEntranceOrder());
+        startSoundPlayed = false;
+        startSoundCtr = 0;
+        entranceOpened = false;
+        entranceOpenCtr = 0;
+        secondCtr = 0;
+        releaseCtr = 0;
+
+        for (int i = 0; i < level.getNumEntrances(); i++) {
+            SpriteObject spr = level.getSprObject(level.getEntrance(i).id);
+            if (spr != null) {
+                entranceSprites.add(spr);
+            }
+        }
+
+        calcReleaseBase();
+
+        superLemming = level.isSuperLemming();
+        forceNormalTimerSpeed = level.getForceNormalTimerSpeed();
+
+        replayFrame = 0;
+        replayEnded = false;
+        releaseRateOld = releaseRate;
+        nukeOld = false;
+    }
+
+    /**
+     * Update the whole game state by one frame.
+     */
+    public void update() {
+        countUpdate();
+        step();
+        endFrame();
+    }
+
+    /**
+     * Count an update, also if the game is paused.
+     */
+    void countUpdate() {
+        updateCtr++;
+    }
+
+    /**
+     * Apply the replay events of the current frame (in replay mode) and move everything
+     * by one frame.
+     */
+    void step() {
+        if (replayMode) {
+            applyReplayEvents();
+        }
+        // the hash covers the state including the user input of this frame, which is the same
+        // when recording and when playing back
+        // it's only calculated if it's recorded or compared, which is rarely the case
+        if (stateHashing || replayMode && divergedFrame < 0 && replay.hasStateHash(replayFrame)) {
+            stateHash = calcStateHash();
+            if (replayMode) {
+                checkStateHash();
+            }
+        }
+
+        // store locally to avoid it's overwritten amidst function
+        boolean nukeTemp = nuke;
+
+        // time
+        secondCtr++;
+        if (secondCtr > ((superLemming && forceNormalTimerSpeed)
+                ? MAX_SUPERLEMMING_SECOND_CTR[time % MAX_SUPERLEMMING_SECOND_CTR.length]
+                : MAX_SECOND_CTR[time % MAX_SECOND_CTR.length])) {
+            // one second passed
+            secondCtr -= (superLemming && forceNormalTimerSpeed)
+                    ? MAX_SUPERLEMMING_SECOND_CTR[time % MAX_SUPERLEMMING_SECOND_CTR.length]
+                    : MAX_SECOND_CTR[time % MAX_SECOND_CTR.length];
+
+            if (timed) {
+                if (time > 0) {
+                    time--;
+                }
+            } else {
+                time++;
+            }
+            if (!debugMode && time <= 0 && timed) {
+                // level failed
+                endLevel();
+            }
+        }
+        // release
+        if (entranceOpened && !nukeTemp && numLemmingsOut < numLemmingsMax && --releaseCtr <= 0) {
+            releaseCtr = releaseBase;
+            if (level.getNumEntrances() != 0) {
+                Level.Entrance e = level.getEntrance(trapDoor.getNext());
+                Lemming l = new Lemming(this, e.xPos + 2, e.yPos + Lemming.HEIGHT, e.leftEntrance ? Lemming.Direction.LEFT : Lemming.Direction.RIGHT);
+                lemmings.add(l);
+                lemmingGrid.add(l);
+                numLemmingsOut++;
+            }
+        }
+        // nuking
+        if (nukeTemp && ((updateCtr & 1) == 1)) {
+            for (Lemming l : lemmings) {
+                if (!l.nuke() && !l.hasDied() && !l.hasExited()) {
+                    l.setSkill(Lemming.Type.NUKE, false);
+                    break;
+                }
+            }
+        }
+
+        if (!startSoundPlayed) {
+            if (++startSoundCtr == MAX_START_SOUND_CTR) {
+                //show the Let's Go graphic several times
+                for (SpriteObject spr : entranceSprites) {
+                    //display the graphic right below the opening sprite.
+                    int y = spr.getY() + spr.getHeight() + (Vsfx.IMG_HEIGHT / 2);
+                    events.showVisualSFX(Sound.Effect.START, spr.midX(), y);
+                }
+                //play the actual sfx only once
+                events.playSound(Sound.Effect.START, 0.0);
+                startSoundPlayed = true;
+            }
+        }
+        // open trap doors?
+        if (!entranceOpened) {
+            if (++entranceOpenCtr == MAX_ENTRANCE_OPEN_CTR) {
+                for (int i = 0; i < level.getNumSprObjects(); i++) {
+                    SpriteObject spr = level.getSprObject(i);
+                    if (spr != null && spr.getAnimMode() == Sprite.Animation.ONCE_ENTRANCE) {
+                        spr.setAnimMode(Sprite.Animation.ONCE);
+                    }
+                }
+                level.openBackgroundEntrances();
+                // this is the *creak* sound of the doors opening (sound_5 door.wav)
+                entranceSprites.forEach(events::playSound);
+            } else if (entranceOpenCtr == MAX_ENTRANCE_OPEN_CTR + 30) {
+                entranceOpened = true;
+                releaseCtr = 0; // first lemming to enter at once
+                events.entrancesOpened();
+            }
+        }
+        // end of game conditions
+        if ((nukeTemp || numLemmingsOut == numLemmingsMax) && lemmings.isEmpty()) {
+            // End the level only if no objects are triggered.
+            boolean endLevel = true;
+            for (int i = 0; i < level.getNumSprObjects(); i++) {
+                SpriteObject sprite = level.getSprObject(i);
+                if (sprite != null && sprite.isTriggered()) {
+                    endLevel = false;
+                    break;
+                }
+            }
+            if (endLevel) {
+                endLevel();
+            }
+        }
+
+        //animate or remove Lemmings
+        boolean sensed = parallelSensing && lemmings.size() >= parallelSensingMinLemmings;
+        if (sensed) {
+            senseLemmings();
+        }
+        // survivors are moved down in place, so the list is compacted in a single pass and keeps its order
+        int numLive = 0;
+        for (int i = 0; i < lemmings.size(); i++) {
+            Lemming l = lemmings.get(i);
+            if (sensed) {
+                animateSensed(i, l);
+            } else {
+                l.animate();
+            }
+            if (!l.hasDied() && !l.hasExited()) {
+                lemmings.set(numLive++, l);
+                lemmingGrid.move(l);
+            } else {
+                lemmingGrid.remove(l);
+            }
+        }
+        lemmings.subList(numLive, lemmings.size()).clear();
+        if (sensed) {
+            stencil.setTrackChanges(false);
+        }
+
+        //animate or remove Explosions
+        for (Iterator<Explosion> it = explosions.iterator(); it.hasNext(); ) {
+            Explosion e = it.next();
+            if (e.isFinished()) {
+                it.remove();
+            } else {
+                e.update();
+            }
+        }
+
+        // animate level objects
+        level.animateObjects();
+    }
+
+    /**
+     * First phase of the two-phase update: update a copy of each Lemming in parallel.
+     * The copies only read the terrain, which doesn't change meanwhile. A copy that tries to
+     * change anything else (terrain, objects, counters, sounds) is dropped. The stencil records
+     * which pixels each copy read and, until the end of the frame, which pixels are changed.
+     */
+    private void senseLemmings() {
+        int n = lemmings.size();
+        if (sensedLemmings.length < n) {
+            sensedLemmings = new Lemming[n * 2];
+            sensedReads = new int[n * 2][];
+        }
+        changedBounds.clear();
+        stencil.resetChangedBounds();
+        stencil.setTrackChanges(true);
+        stencil.setTrackReads(true);
+        sensing = true;
+        try {
+            IntStream.range(0, n).parallel().forEach(this::senseLemming);
+        } finally {
+            sensing = false;
+            stencil.setTrackReads(false);
+        }
+    }
+
+    /**
+     * Update a copy of a Lemming.
+     * @param i index of the Lemming
+     */
+    private void senseLemming(final int i) {
+        Lemming copy = new Lemming(lemmings.get(i));
+        stencil.resetReadBounds();
+        try {
+            copy.animate();
+            sensedLemmings[i] = copy;
+            sensedReads[i] = stencil.getReadBounds();
+        } catch (RuntimeException ex) {
+            // side effect or error: the Lemming is updated sequentially, which repeats an error
+            sensedLemmings[i] = null;
+        }
+    }
+
+    /**
+     * Second phase of the two-phase update: take over the sensed state of a Lemming unless the
+     * Lemmings updated before it changed the terrain it looked at, otherwise update it again.
+     * The Lemmings are handled in order, so the result is the same as without sensing.
+     * @param i index of the Lemming
+     * @param l Lemming
+     */
+    private void animateSensed(final int i, final Lemming l) {
+        Lemming copy = sensedLemmings[i];
+        sensedLemmings[i] = null;
+        int[] r = sensedReads[i];
+        sensedReads[i] = null;
+        if (copy != null) {
+            boolean valid = true;
+            for (int[] b : changedBounds) {
+                if (b[0] <= r[2] && b[2] >= r[0] && b[1] <= r[3] && b[3] >= r[1]) {
+                    valid = false;
+                    break;
+                }
+            }
+            if (valid) {
+                l.setState(copy);
+                return;
+            }
+        }
+        l.animate();
+        if (stencil.hasChanged()) {
+            changedBounds.add(stencil.getChangedBounds());
+            stencil.resetChangedBounds();
+        }
+    }
+
+    /**
+     * Called before a Lemming changes anything besides its own state. While the Lemmings sense
+     * in parallel, this drops the copy that is being updated.
+     */
+    void checkWrite() {
+        if (sensing) {
+            throw SENSING_ABORTED;
+        }
+    }
+
+    /**
+     * Finish the current frame: bring everything derived from the terrain up to date
+     * and advance the frame counter.
+     */
+    void endFrame() {
+        terrainJournal.flush();
+        replayFrame++;
+    }
+
+    /**
+     * Apply the replay events of the current frame.
+     */
+    private void applyReplayEvents() {
+        ReplayEvent r;
+        while ((r = replay.getNext(replayFrame)) != null) {
+            switch (r.type) {
+                case ReplayStream.ASSIGN_SKILL: {
+                    ReplayAssignSkillEvent rs = (ReplayAssignSkillEvent) r;
+                    Lemming l = lemmings.get(rs.lemming);
+                    l.setSkill(rs.skill, false, r);
+                    l.setSelected();
+                    useSkill(rs.skill);
+                    events.playSound(Sound.Effect.SELECT_SKILL, l.getPan());
+                    break;
+                }
+                case ReplayStream.SET_RELEASE_RATE:
+                    if (!lockReleaseRate) {
+                        ReplayReleaseRateEvent rr = (ReplayReleaseRateEvent) r;
+                        setReleaseRate(rr.releaseRate);
+                        events.playPitchedSound(Sound.PitchedEffect.RELEASE_RATE, releaseRate + 99);
+                        releaseRateOld = releaseRate;
+                    }
+                    break;
+                case ReplayStream.NUKE:
+                    nuke();
+                    events.replayNuked();
+                    nukeOld = nuke;
+                    break;
+                case ReplayStream.MOVE_POS: {
+                    ReplayMovePosEvent rx = (ReplayMovePosEvent) r;
+                    if (rx.player == 0) {
+                        events.replayScrolled(rx.xPos, rx.yPos);
+                    }
+                    break;
+                }
+                case ReplayStream.SELECT_SKILL: {
+                    ReplaySelectSkillEvent rs = (ReplaySelectSkillEvent) r;
+                    if (rs.player == 0) {
+                        events.replaySkillSelected(rs.skill);
+                    }
+                    break;
+                }
+                case ReplayStream.END:
+                    replayEnded = true;
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Calculate the hash of the current state. Explosions are left out, since their particles
+     * are random and don't influence the game mechanics.
+     * @return frame hash
+     */
+    private long calcStateHash() {
+        long lemms = StateHash.SEED;
+        for (Lemming l : lemmings) {
+            lemms = StateHash.add(lemms, l.getStateHash());
+        }
+
+        long counters = StateHash.add(StateHash.SEED, numExited, numLemmingsOut);
+        counters = StateHash.add(counters, releaseRate, releaseCtr);
+        counters = StateHash.add(counters, time, secondCtr);
+        counters = StateHash.add(counters, entranceOpenCtr, trapDoor.getCounter());
+        counters = StateHash.add(counters, timeElapsedTillLastExited, numSkillsUsed);
+        counters = StateHash.add(counters, numClimbers, numFloaters);
+        counters = StateHash.add(counters, numBombers, numBlockers);
+        counters = StateHash.add(counters, numBuilders, numBashers);
+        counters = StateHash.add(counters, numMiners, numDiggers);
+        counters = StateHash.add(counters, (nuke ? 1 : 0) | (entranceOpened ? 2 : 0)
+                | (superLemming ? 4 : 0) | (timed ? 8 : 0) | (finished ? 16 : 0), 0);
+
+        long objects = StateHash.SEED;
+        for (int n = 0; n < level.getNumSprObjects(); n++) {
+            SpriteObject spr = level.getSprObject(n);
+            if (spr != null) {
+                objects = StateHash.add(objects, spr.getFrameIdx(),
+                        (spr.getAnimMode().ordinal() << 1) | (spr.isTriggered() ? 1 : 0));
+            }
+        }
+
+        return StateHash.combine(stencil.getStateHash(), lemms, counters, objects);
+    }
+
+    /**
+     * Compare the state hash of the current frame with the one stored in the replay and
+     * report the first difference.
+     */
+    private void checkStateHash() {
+        if (divergedFrame < 0 && replay.hasStateHash(replayFrame)) {
+            long expected = replay.getStateHash(replayFrame);
+            if (expected != stateHash) {
+                divergedFrame = replayFrame;
+                divergedSubsystems = StateHash.diff(expected, stateHash);
+                events.stateDiverged(divergedFrame, divergedSubsystems);
+            }
+        }
+    }
+
+    /**
+     * End the level.
+     */
+    private void endLevel() {
+        finished = true;
+        events.levelEnded();
+    }
+
+    /**
+     * Assign a skill to a Lemming if there are skills of this type left.
+     * @param lemm Lemming
+     * @param skill skill to assign
+     * @param unlimited true: ignore the number of skills left
+     * @return true if the skill was assigned, false otherwise
+     */
+    boolean assignSkill(final Lemming lemm, final Lemming.Type skill, final boolean unlimited) {
+        if (unlimited) {
+            return lemm.setSkill(skill, true);
+        }
+        switch (skill) {
+            case CLIMBER:
+            case FLOATER:
+            case FLAPPER:
+            case BLOCKER:
+            case BUILDER:
+            case BASHER:
+            case MINER:
+            case DIGGER:
+                break;
+            default:
+                return false;
+        }
+        if (getNumSkills(skill) <= 0) {
+            events.playSound(Sound.Effect.INVALID, lemm.getPan());
+            return false;
+        }
+        if (!lemm.setSkill(skill, true)) {
+            return false;
+        }
+        useSkill(skill);
+        return true;
+    }
+
+    /**
+     * Count one assigned skill.
+     * @param skill assigned skill
+     */
+    private void useSkill(final Lemming.Type skill) {
+        switch (skill) {
+            case CLIMBER:
+                if (numClimbers != Integer.MAX_VALUE) {
+                    numClimbers--;
+                    numSkillsUsed++;
+                }
+                break;
+            case FLOATER:
+                if (numFloaters != Integer.MAX_VALUE) {
+                    numFloaters--;
+                    numSkillsUsed++;
+                }
+                break;
+            case FLAPPER:
+                if (numBombers != Integer.MAX_VALUE) {
+                    numBombers--;
+                    numSkillsUsed++;
+                }
+                break;
+            case BLOCKER:
+                if (numBlockers != Integer.MAX_VALUE) {
+                    numBlockers--;
+                    numSkillsUsed++;
+                }
+                break;
+            case BUILDER:
+                if (numBuilders != Integer.MAX_VALUE) {
+                    numBuilders--;
+                    numSkillsUsed++;
+                }
+                break;
+            case BASHER:
+                if (numBashers != Integer.MAX_VALUE) {
+                    numBashers--;
+                    numSkillsUsed++;
+                }
+                break;
+            case MINER:
+                if (numMiners != Integer.MAX_VALUE) {
+                    numMiners--;
+                    numSkillsUsed++;
+                }
+                break;
+            case DIGGER:
+                if (numDiggers != Integer.MAX_VALUE) {
+                    numDiggers--;
+                    numSkillsUsed++;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Get the number of skills of a type left to be assigned.
+     * @param skill skill type
+     * @return number of skills left, Integer.MAX_VALUE if unlimited, 0 for types that can't be assigned
+     */
+    public int getNumSkills(final Lemming.Type skill) {
+        switch (skill) {
+            case CLIMBER:
+                return numClimbers;
+            case FLOATER:
+                return numFloaters;
+            case FLAPPER:
+                return numBombers;
+            case BLOCKER:
+                return numBlockers;
+            case BUILDER:
+                return numBuilders;
+            case BASHER:
+                return numBashers;
+            case MINER:
+                return numMiners;
+            case DIGGER:
+                return numDiggers;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Calculate the counter threshold for releasing a new Lemmings.
+     */
+    private void calcReleaseBase() {
+        // the original formula is: release lemming every (107-releaseRate)/2 time steps
+        // where one step is 60ms (3s/50) or 66ms (4s/60).
+        // Lemmini runs at 30ms/33ms, so the term has to be multiplied by 2
+        // 107-releaseRate should be correct
+        releaseBase = 107 - releaseRate;
+    }
+
+    /**
+     * Activate the nuke.
+     */
+    void nuke() {
+        nuke = true;
+        events.playSound(Sound.Effect.NUKE, 0.0);
+    }
+
+    /**
+     * Lemming has exited the Level.
+     */
+    void increaseExited() {
+        checkWrite();
+        numExited++;
+        timeElapsedTillLastExited = time;
+    }
+
+    /**
+     * Add a Lemming.
+     * @param l Lemming
+     */
+    void addLemming(final Lemming l) {
+        lemmings.add(l);
+        lemmingGrid.add(l);
+    }
+
+    /**
+     * Add a new explosion.
+     * @param x x coordinate in pixels.
+     * @param y y coordinate in pixels.
+     */
+    void addExplosion(final int x, final int y) {
+        checkWrite();
+        // create particle explosion
+        explosions.add(new Explosion(x, y, level.getParticleCol()));
+    }
+
+    /**
+     * Save the state of the simulation between two frames. Only the foreground tiles that
+     * changed since the last snapshot are copied.
+     * @return snapshot that can be restored into this simulation
+     */
+    public Snapshot saveSnapshot() {
+        terrainJournal.flush();
+
+        List<Lemming> lemmingsCopy = new ArrayList<>(lemmings.size());
+        Map<Lemming, Integer> lemmingIndexes = new IdentityHashMap<>(lemmings.size());
+        for (Lemming l : lemmings) {
+            lemmingIndexes.put(l, lemmingsCopy.size());
+            lemmingsCopy.add(new Lemming(l));
+        }
+        List<Explosion> explosionsCopy = new ArrayList<>(explosions.size());
+        for (Explosion e : explosions) {
+            explosionsCopy.add(new Explosion(e));
+        }
+        level.syncAnimation();
+        List<SpriteObject> sprObjects = level.getAllSprObjects();
+        List<Sprite.State> sprStates = new ArrayList<>(sprObjects.size());
+        int[] sprLemmings = new int[sprObjects.size()];
+        for (int i = 0; i < sprObjects.size(); i++) {
+            SpriteObject spr = sprObjects.get(i);
+            sprStates.add(spr.saveState());
+            sprLemmings[i] = lemmingIndexes.getOrDefault(spr.getLemming(), -1);
+        }
+
+        Snapshot s = new Snapshot(this, stencil.saveState(), fgTiles.save(),
+                lemmingsCopy, explosionsCopy, sprStates, sprLemmings);
+        s.replayFrame = replayFrame;
+        s.replayEvents = replay.getNumEvents();
+        s.updateCtr = updateCtr;
+        s.releaseRate = releaseRate;
+        s.releaseRateOld = releaseRateOld;
+        s.nuke = nuke;
+        s.nukeOld = nukeOld;
+        s.numExited = numExited;
+        s.numLemmingsOut = numLemmingsOut;
+        s.time = time;
+        s.timeElapsedTillLastExited = timeElapsedTillLastExited;
+        s.numClimbers = numClimbers;
+        s.numFloaters = numFloaters;
+        s.numBombers = numBombers;
+        s.numBlockers = numBlockers;
+        s.numBuilders = numBuilders;
+        s.numBashers = numBashers;
+        s.numMiners = numMiners;
+        s.numDiggers = numDiggers;
+        s.numSkillsUsed = numSkillsUsed;
+        s.secondCtr = secondCtr;
+        s.releaseCtr = releaseCtr;
+        s.entranceOpenCtr = entranceOpenCtr;
+        s.entranceOpened = entranceOpened;
+        s.startSoundCtr = startSoundCtr;
+        s.startSoundPlayed = startSoundPlayed;
+        s.trapDoorCounter = trapDoor.getCounter();
+        s.finished = finished;
+        s.estimatedSize = s.stencil.getByteSize() + fgTiles.getCopiedPixels() * 4L
+                + (lemmingsCopy.size() + explosionsCopy.size()) * SNAPSHOT_OBJECT_SIZE;
+        return s;
+    }
+
+    /**
+     * Restore the state of the simulation from a snapshot.
+     * In replay mode, the replay continues from the restored frame. Otherwise, the replay
+     * events recorded after the snapshot was saved are removed.
+     * @param s snapshot saved by {@link #saveSnapshot()}
+     * @return false if the snapshot was saved by a different simulation, true otherwise
+     */
+    public boolean restoreSnapshot(final Snapshot s) {
+        if (s.simulation != this) {
+            return false;
+        }
+
+        stencil.restoreState(s.stencil);
+
+        lemmings.clear();
+        lemmingGrid.reset(width, height);
+        for (Lemming l : s.lemmings) {
+            Lemming copy = new Lemming(l);
+            lemmings.add(copy);
+            lemmingGrid.add(copy);
+        }
+        explosions.clear();
+        for (Explosion e : s.explosions) {
+            explosions.add(new Explosion(e));
+        }
+
+        // sprite visibility has to be restored before the foreground updates it
+        List<SpriteObject> sprObjects = level.getAllSprObjects();
+        for (int i = 0; i < sprObjects.size(); i++) {
+            int lemmingIndex = s.sprObjLemmings[i];
+            sprObjects.get(i).restoreState(s.sprObjects.get(i),
+                    lemmingIndex < 0 ? null : lemmings.get(lemmingIndex), events);
+        }
+        level.resetAnimation();
+        fgTiles.restore(s.fgTiles, terrainJournal);
+
+        replayFrame = s.replayFrame;
+        updateCtr = s.updateCtr;
+        releaseRate = s.releaseRate;
+        releaseRateOld = s.releaseRateOld;
+        nuke = s.nuke;
+        nukeOld = s.nukeOld;
+        numExited = s.numExited;
+        numLemmingsOut = s.numLemmingsOut;
+        time = s.time;
+        timeElapsedTillLastExited = s.timeElapsedTillLastExited;
+        numClimbers = s.numClimbers;
+        numFloaters = s.numFloaters;
+        numBombers = s.numBombers;
+        numBlockers = s.numBlockers;
+        numBuilders = s.numBuilders;
+        numBashers = s.numBashers;
+        numMiners = s.numMiners;
+        numDiggers = s.numDiggers;
+        numSkillsUsed = s.numSkillsUsed;
+        secondCtr = s.secondCtr;
+        releaseCtr = s.releaseCtr;
+        entranceOpenCtr = s.entranceOpenCtr;
+        entranceOpened = s.entranceOpened;
+        startSoundCtr = s.startSoundCtr;
+        startSoundPlayed = s.startSoundPlayed;
+        trapDoor.setCounter(s.trapDoorCounter);
+        finished = s.finished;
+        calcReleaseBase();
+
+        if (divergedFrame >= replayFrame) {
+            divergedFrame = -1;
+            divergedSubsystems = null;
+        }
+        if (replayMode) {
+            replay.seek(replayFrame);
+            replayEnded = false;
+        } else {
+            replay.truncate(replayFrame, s.replayEvents);
+        }
+        return true;
+    }
+
+    /**
+     * Get level object.
+     * @return level object
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Get foreground stencil of level.
+     * @return foreground stencil of level
+     */
+    public Stencil getStencil() {
+        return stencil;
+    }
+
+    /**
+     * Get foreground image of level.
+     * @return foreground image of level
+     */
+    public LemmImage getFgImage() {
+        return fgImage;
+    }
+
+    /**
+     * Get the journal of terrain changes.
+     * @return journal of terrain changes
+     */
+    public TerrainJournal getTerrainJournal() {
+        return terrainJournal;
+    }
+
+    /**
+     * Get the receiver of sounds, visual SFX and replayed user input.
+     * @return event sink
+     */
+    public SimulationEvents getEvents() {
+        return events;
+    }
+
+    /**
+     * Get the replay stream.
+     * @return replay stream
+     */
+    public ReplayStream getReplay() {
+        return replay;
+    }
+
+    /**
+     * Get level width.
+     * @return level width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Get level height.
+     * @return level height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Get list of all Lemmings in this level.
+     * @return list of all Lemmings in this level
+     */
+    public List<Lemming> getLemmings() {
+        return Collections.unmodifiableList(lemmings);
+    }
+
+    /**
+     * Get the foot positions of all active Lemmings.
+     * @return grid of Lemmings
+     */
+    LemmingGrid getLemmingGrid() {
+        return lemmingGrid;
+    }
+
+    /**
+     * Get list of all active explosions.
+     * @return list of all active explosions
+     */
+    List<Explosion> getExplosions() {
+        return Collections.unmodifiableList(explosions);
+    }
+
+    /**
+     * Check whether Lemmings of all types exit in maximum exit physics mode.
+     * @return true if maximum exit physics mode is active
+     */
+    boolean isMaximumExitPhysics() {
+        return maximumExitPhysics;
+    }
+
+    /**
+     * Enable or disable maximum exit physics mode.
+     * @param m true: Lemmings of all types exit in maximum exit physics mode
+     */
+    public void setMaximumExitPhysics(final boolean m) {
+        maximumExitPhysics = m;
+    }
+
+    /**
+     * Check whether bombers assigned by the player count down before they explode.
+     * Bombers assigned by a replay use the setting stored with the replay event.
+     * @return true if bombers are timed
+     */
+    boolean isTimedBombers() {
+        return timedBombers;
+    }
+
+    /**
+     * Enable or disable timed bombers for skills assigned by the player.
+     * @param t true: bombers count down before they explode
+     */
+    public void setTimedBombers(final boolean t) {
+        timedBombers = t;
+    }
+
+    /**
+     * Enable the two-phase update of the Lemmings: first all Lemmings sense the terrain in
+     * parallel, then the results are applied in order. The result is identical to the
+     * sequential update, which is still used for small numbers of Lemmings.
+     * @param p true: sense in parallel
+     */
+    public void setParallelSensing(final boolean p) {
+        parallelSensing = p;
+    }
+
+    /**
+     * Set the smallest number of Lemmings for which the two-phase update is used.
+     * The default is where sensing in parallel starts to pay off. 0 uses it in every frame,
+     * which is what comparing it to the sequential update needs.
+     * @param n number of Lemmings
+     */
+    void setParallelSensingMinLemmings(final int n) {
+        parallelSensingMinLemmings = n;
+    }
+
+    /**
+     * Set debug mode, in which the time limit is ignored.
+     * @param d true: debug mode, false: normal mode
+     */
+    public void setDebugMode(final boolean d) {
+        debugMode = d;
+    }
+
+    /**
+     * Check whether the level has ended.
+     * @return true if the level has ended, false otherwise
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Enable or disable replay mode.
+     * @param r true: play back the replay stream, false: record it
+     */
+    public void setReplayMode(final boolean r) {
+        replayMode = r;
+        replayEnded = false;
+    }
+
+    /**
+     * Check whether replay mode is active.
+     * @return true if replay mode is active, false otherwise
+     */
+    public boolean isReplayMode() {
+        return replayMode;
+    }
+
+    /**
+     * Check whether the end of the replay was reached in replay mode.
+     * @return true if the end of the replay was reached
+     */
+    public boolean isReplayEnded() {
+        return replayEnded;
+    }
+
+    /**
+     * Get the number of frames played.
+     * @return replay frame
+     */
+    public int getReplayFrame() {
+        return replayFrame;
+    }
+
+    int getReleaseRateOld() {
+        return releaseRateOld;
+    }
+
+    void setReleaseRateOld(final int r) {
+        releaseRateOld = r;
+    }
+
+    boolean isNukeOld() {
+        return nukeOld;
+    }
+
+    void setNukeOld(final boolean n) {
+        nukeOld = n;
+    }
+
+    /**
+     * Get the release rate.
+     * @return release rate
+     */
+    public int getReleaseRate() {
+        return releaseRate;
+    }
+
+    /**
+     * Set the release rate.
+     * @param r release rate
+     */
+    void setReleaseRate(final int r) {
+        releaseRate = r;
+        calcReleaseBase();
+    }
+
+    /**
+     * Check whether the release rate can't be changed.
+     * @return true if the release rate is locked
+     */
+    public boolean isReleaseRateLocked() {
+        return lockReleaseRate;
+    }
+
+    /**
+     * Check whether the nuke was activated.
+     * @return true if the nuke was activated
+     */
+    public boolean isNuked() {
+        return nuke;
+    }
+
+    /**
+     * Activate/deactivate Superlemming mode.
+     * @param sl true: activate, false: deactivate
+     */
+    void setSuperLemming(final boolean sl) {
+        superLemming = sl;
+    }
+
+    /**
+     * Get Superlemming state.
+     * @return true is Superlemming mode is active, false otherwise
+     */
+    public boolean isSuperLemming() {
+        return superLemming;
+    }
+
+    /**
+     * Get number of lemmings that exited the level.
+     * @return number of lemmings that exited the level
+     */
+    public int getNumExited() {
+        return numExited;
+    }
+
+    /**
+     * Set number of Lemmings that exited the level.
+     * @param n number of Lemmings that exited the level
+     */
+    void setNumExited(final int n) {
+        numExited = n;
+    }
+
+    /**
+     * Get maximum number of Lemmings for this level.
+     * @return maximum number of Lemmings for this level
+     */
+    public int getNumLemmingsMax() {
+        return numLemmingsMax;
+    }
+
+    /**
+     * Get the number of Lemmings who entered the level.
+     * @return number of released Lemmings
+     */
+    public int getNumLemmingsOut() {
+        return numLemmingsOut;
+    }
+
+    /**
+     * Get number of Lemmings to rescue.
+     * @return number of Lemmings to rescue
+     */
+    public int getNumToRescue() {
+        return numToRescue;
+    }
+
+    /**
+     * Get the number of skills assigned.
+     * @return number of skills assigned
+     */
+    public int getNumSkillsUsed() {
+        return numSkillsUsed;
+    }
+
+    /**
+     * Get time left in seconds, or the time passed if the level has no time limit.
+     * @return time in seconds
+     */
+    public int getTime() {
+        return time;
+    }
+
+    /**
+     * Get the time limit.
+     * @return time limit in seconds, 0 if the level has no time limit
+     */
+    public int getTimeLimit() {
+        return timeLimit;
+    }
+
+    /**
+     * Get the time when the last Lemming exited.
+     * @return time in seconds
+     */
+    public int getTimeElapsedTillLastExited() {
+        return timeElapsedTillLastExited;
+    }
+
+    public boolean isTimed() {
+        return timed;
+    }
+
+    void setTimed(final boolean isTimed) {
+        timed = isTimed;
+    }
+
+    /**
+     * Get the number of updates, including those while the game was paused.
+     * @return update counter
+     */
+    public int getUpdateCtr() {
+        return updateCtr;
+    }
+
+    /**
+     * Get the state hash of the last simulated frame.
+     * Unless {@link #setStateHashing(boolean)} is enabled, the hash is only calculated for
+     * frames that are compared with the hashes stored in the replay.
+     * @return frame hash, see {@link StateHash}
+     */
+    public long getStateHash() {
+        return stateHash;
+    }
+
+    /**
+     * Calculate the state hash of every frame, e.g. to record it in the replay.
+     * @param h true: calculate the hash of every frame
+     */
+    public void setStateHashing(final boolean h) {
+        stateHashing = h;
+    }
+
+    /**
+     * Get the first frame whose state differs from the one recorded in the replay.
+     * @return frame number, or -1 if no difference was found
+     */
+    public int getDivergedFrame() {
+        return divergedFrame;
+    }
+
+    /**
+     * Get the subsystems that diverged in {@link #getDivergedFrame()}.
+     * @return comma separated subsystem names, or null if no difference was found
+     */
+    public String getDivergedSubsystems() {
+        return divergedSubsystems;
+    }
+
+    /**
+     * Get the score.
+     * @return score
+     */
+    public int getScore() {
+        return numExited * 100 / numLemmingsMax * 100 + numClimbers + numFloaters + numBombers
+                + numBlockers + numBuilders + numBashers + numMiners + numDiggers;
+    }
+}
+
+
+/**
+ * Trapdoor/Entrance class
+ * Trapdoor logic: for numbers >1, just take the next door for each lemming and wrap around to 1 when
+ * the last one is reached.
+ * Special rule for 3 trapdoors: the order is 1, 2, 3, 2 (loop), not 1, 2, 3 (loop)
+ *
+ * @author Volker Oth
+ */
+class TrapDoor {
+    /** pattern for three entrances */
+    private static final int[] PATTERN3 = {0, 1, 2, 1};
+
+    /** order of entrances */
+    private final int[] entranceOrder;
+    /** entrance counter */
+    private int counter;
+
+    /**
+     * Constructor.
+     * @param e number of entrances
+     * @param eOrder order of entrances if not null; otherwise, use default
+     */
+    TrapDoor(final int e, final int[] eOrder) throws LemmException {
+        if (e == 0) {
+            throw new LemmException("Level does not have any entrances.");
+        }
+        if (eOrder == null) {
+            if (e == 3) {
+                // special case: 3 entrances
+                entranceOrder = PATTERN3;
+            } else {
+                entranceOrder = new int[e];
+                for (int i = 0; i < entranceOrder.length; i++) {
+                    entranceOrder[i] = i;
+                }
+            }
+        } else {
+            int newSize = 0;
+            for (int en : eOrder) {
+                if (en >= 0 && en < e) {
+                    newSize++;
+                }
+            }
+            if (newSize == 0) {
+                throw new LemmException("No entrances in this level are used.");
+            }
+            if (newSize == eOrder.length) {
+                entranceOrder = eOrder.clone();
+            } else {
+                entranceOrder = new int[newSize];
+                for (int i = 0, j = 0; i < eOrder.length && j < entranceOrder.length; i++) {
+                    int en = eOrder[i];
+                    if (en >= 0 && en < e) {
+                        entranceOrder[j++] = eOrder[i];
+                    }
+                }
+            }
+        }
+        counter = 0;
+    }
+
+    /**
+     * Get entrance counter.
+     * @return index into the order of entrances
+     */
+    int getCounter() {
+        return counter;
+    }
+
+    /**
+     * Set entrance counter.
+     * @param c index into the order of entrances
+     */
+    void setCounter(final int c) {
+        counter = c;
+    }
+
+    /**
+     * Get index of next entrance.
+     * @return index of next entrance
+     */
+    int getNext() {
+        int retVal = entranceOrder[counter++];
+        if (counter >= entranceOrder.length) {
+            counter = 0;
+        }
+        return retVal;
+    }
+}
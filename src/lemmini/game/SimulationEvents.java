@@ -0,0 +1,115 @@
+package lemmini.game;
+
+import lemmini.sound.Sound;
+
+/**
+ * Receives everything a {@link Simulation} wants to be heard or seen, but which doesn't
+ * influence the game mechanics: sounds, visual SFX and replayed user input.
+ * All methods do nothing by default, so {@link #NONE} can be used to run a simulation
+ * without any sound or user interface.
+ */
+public interface SimulationEvents {
+
+    /** event sink that ignores all events */
+    SimulationEvents NONE = new SimulationEvents() {
+    };
+
+    /**
+     * Play a sound effect.
+     * @param e sound effect
+     * @param pan panning (-1.0 left to 1.0 right)
+     */
+    default void playSound(final Sound.Effect e, final double pan) {
+    }
+
+    /**
+     * Play the sound of a level object.
+     * @param spr level object
+     */
+    default void playSound(final SpriteObject spr) {
+    }
+
+    /**
+     * Play a pitched sound effect.
+     * @param pe pitched sound effect
+     * @param pitch pitch value
+     */
+    default void playPitchedSound(final Sound.PitchedEffect pe, final int pitch) {
+    }
+
+    /**
+     * Play the sound of a level object and show its visual SFX.
+     * @param spr level object
+     */
+    default void playVisualSFX(final SpriteObject spr) {
+    }
+
+    /**
+     * Play a sound and show its visual SFX.
+     * @param idx sound index
+     * @param x x position in pixels
+     * @param y y position in pixels
+     */
+    default void playVisualSFX(final int idx, final int x, final int y) {
+    }
+
+    /**
+     * Play a sound effect and show its visual SFX.
+     * @param e sound effect
+     * @param x x position in pixels
+     * @param y y position in pixels
+     */
+    default void playVisualSFX(final Sound.Effect e, final int x, final int y) {
+    }
+
+    /**
+     * Show the visual SFX of a sound effect without playing it.
+     * @param e sound effect
+     * @param x x position in pixels
+     * @param y y position in pixels
+     */
+    default void showVisualSFX(final Sound.Effect e, final int x, final int y) {
+    }
+
+    /**
+     * The entrances have opened and the first Lemming is about to be released.
+     */
+    default void entrancesOpened() {
+    }
+
+    /**
+     * The level ended, either because no Lemmings are left or because the time is up.
+     */
+    default void levelEnded() {
+    }
+
+    /**
+     * The state of a frame differs from the state recorded in the replay. Only the first
+     * difference is reported.
+     * @param frame frame number
+     * @param subsystems comma separated names of the diverged subsystems
+     */
+    default void stateDiverged(final int frame, final String subsystems) {
+    }
+
+    /**
+     * A replayed skill selection was applied.
+     * @param skill selected skill
+     */
+    default void replaySkillSelected(final Lemming.Type skill) {
+    }
+
+    /**
+     * A replayed nuke was applied.
+     */
+    default void replayNuked() {
+    }
+
+    /**
+     * A replayed scrolling position was applied.
+     * @param x horizontal position of the screen center in pixels
+     * @param y vertical position of the screen center in pixels
+     */
+    default void replayScrolled(final int x, final int y) {
+    }
+}
@@ -0,0 +1,91 @@
+package lemmini.game;
+
+import java.util.List;
+
+import lemmini.gameutil.Sprite;
+
+/**
+ * State of the simulation at the start of a frame, saved by {@link Simulation#saveSnapshot()}
+ * and restored by {@link Simulation#restoreSnapshot(Snapshot)}.
+ * A snapshot can be restored any number of times, but only into the simulation it was saved from.
+ */
+public final class Snapshot {
+
+    /** simulation the snapshot was saved from */
+    final Simulation simulation;
+    /** stencil attributes */
+    final Stencil.State stencil;
+    /** pixels of the foreground tiles (shared with other snapshots, must not be modified) */
+    final int[][] fgTiles;
+    /** copies of the active Lemmings */
+    final List<Lemming> lemmings;
+    /** copies of the active explosions */
+    final List<Explosion> explosions;
+    /** state of all sprite objects, in the order of {@link Level#getAllSprObjects()} */
+    final List<Sprite.State> sprObjects;
+    /** index of the Lemming that triggered each sprite object, or -1 */
+    final int[] sprObjLemmings;
+    /** estimated memory in bytes that isn't shared with the previous snapshot */
+    long estimatedSize;
+
+    int replayFrame;
+    /** number of replay events recorded when the snapshot was saved */
+    int replayEvents;
+    int updateCtr;
+    int releaseRate;
+    int releaseRateOld;
+    boolean nuke;
+    boolean nukeOld;
+    Lemming.Type lemmSkill;
+    Lemming.Type lemmSkillOld;
+    int numExited;
+    int numLemmingsOut;
+    int time;
+    int timeElapsedTillLastExited;
+    int numClimbers;
+    int numFloaters;
+    int numBombers;
+    int numBlockers;
+    int numBuilders;
+    int numBashers;
+    int numMiners;
+    int numDiggers;
+    int numSkillsUsed;
+    int secondCtr;
+    int releaseCtr;
+    int entranceOpenCtr;
+    boolean entranceOpened;
+    int startSoundCtr;
+    boolean startSoundPlayed;
+    int trapDoorCounter;
+    boolean finished;
+
+    Snapshot(final Simulation simulation, final Stencil.State stencil, final int[][] fgTiles,
+            final List<Lemming> lemmings, final List<Explosion> explosions,
+            final List<Sprite.State> sprObjects, final int[] sprObjLemmings) {
+        this.simulation = simulation;
+        this.stencil = stencil;
+        this.fgTiles = fgTiles;
+        this.lemmings = lemmings;
+        this.explosions = explosions;
+        this.sprObjects = sprObjects;
+        this.sprObjLemmings = sprObjLemmings;
+    }
+
+    /**
+     * Get the estimated memory used by this snapshot. Foreground tiles are counted
+     * for the snapshot that copied them.
+     * @return size in bytes
+     */
+    public long getEstimatedSize() {
+        return estimatedSize;
+    }
+
+    /**
+     * Get the replay frame at which the snapshot was saved.
+     * @return replay frame
+     */
+    public int getReplayFrame() {
+        return replayFrame;
+    }
+}
@@ -322,16 +322,11 @@ public class SpriteObject extends Sprite {
     public void setVisOnTerrain(boolean vis) {
         visOnTerrain = vis;
         if (vis && !modifiable) {
+            // the frames may be tinted, so they must not be shared with the graphic set
             frames = new ArrayList<>(frames);
-            origColors = new int[numFrames][];
             for (ListIterator<LemmImage> lit = frames.listIterator(); lit.hasNext(); ) {
-                int i = lit.nextIndex();
-                LemmImage frame = ToolBox.copyLemmImage(lit.next());
-                lit.set(frame);
-                origColors[i] = frame.getRGB(0, 0, width, height, null, 0, width);
+                lit.set(ToolBox.copyLemmImage(lit.next()));
             }
-        } else if (!vis && modifiable) {
-            origColors = null;
         }
         modifiable = vis;
     }
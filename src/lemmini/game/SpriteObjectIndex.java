@@ -0,0 +1,127 @@
+package lemmini.game;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid of the bounding boxes of sprite objects, used to find the objects that
+ * overlap the visible part of the level without testing every object in the level.
+ * Objects don't move, so the grid is only built once. Objects outside the level are kept
+ * in the nearest border cells.
+ */
+final class SpriteObjectIndex {
+
+    /** cells are 2^CELL_SHIFT pixels wide and high */
+    private static final int CELL_SHIFT = 6;
+
+    /** indexed objects */
+    private final SpriteObject[] objects;
+    /** indexes of the objects overlapping each cell (col+row*cols) */
+    private final int[][] cells;
+    /** number of columns */
+    private final int cols;
+    /** number of rows */
+    private final int rows;
+    /** last query each object was found in, to report it only once */
+    private final int[] queryStamps;
+    private int query;
+    /** indexes of the objects found by the last query */
+    private int[] found = new int[16];
+    private int numFound;
+
+    /**
+     * Constructor.
+     * @param objects objects to index
+     * @param width level width in pixels
+     * @param height level height in pixels
+     */
+    SpriteObjectIndex(final SpriteObject[] objects, final int width, final int height) {
+        this.objects = objects;
+        cols = Math.max((width + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT, 1);
+        rows = Math.max((height + (1 << CELL_SHIFT) - 1) >> CELL_SHIFT, 1);
+        List<List<Integer>> lists = new ArrayList<>(cols * rows);
+        for (int i = 0; i < cols * rows; i++) {
+            lists.add(new ArrayList<>(0));
+        }
+        for (int n = 0; n < objects.length; n++) {
+            SpriteObject spr = objects[n];
+            if (spr == null || spr.getWidth() <= 0 || spr.getHeight() <= 0) {
+                continue;
+            }
+            int colMax = getCol(spr.getX() + spr.getWidth() - 1);
+            int rowMax = getRow(spr.getY() + spr.getHeight() - 1);
+            for (int row = getRow(spr.getY()); row <= rowMax; row++) {
+                for (int col = getCol(spr.getX()); col <= colMax; col++) {
+                    lists.get(col + row * cols).add(n);
+                }
+            }
+        }
+        cells = new int[cols * rows][];
+        for (int i = 0; i < cells.length; i++) {
+            cells[i] = lists.get(i).stream().mapToInt(Integer::intValue).toArray();
+        }
+        queryStamps = new int[objects.length];
+    }
+
+    /**
+     * Find the objects that overlap a rectangle. The result is available through
+     * {@link #getFound(int)} until the next query.
+     * @param x x position in pixels
+     * @param y y position in pixels
+     * @param width width in pixels
+     * @param height height in pixels
+     * @return number of objects found
+     */
+    int query(final int x, final int y, final int width, final int height) {
+        numFound = 0;
+        if (width <= 0 || height <= 0) {
+            return 0;
+        }
+        if (++query == 0) {
+            // the stamps wrapped around
+            Arrays.fill(queryStamps, 0);
+            query = 1;
+        }
+        int colMax = getCol(x + width - 1);
+        int rowMax = getRow(y + height - 1);
+        for (int row = getRow(y); row <= rowMax; row++) {
+            for (int col = getCol(x); col <= colMax; col++) {
+                for (int n : cells[col + row * cols]) {
+                    if (queryStamps[n] == query) {
+                        continue;
+                    }
+                    queryStamps[n] = query;
+                    SpriteObject spr = objects[n];
+                    if (spr.getX() + spr.getWidth() > x && spr.getX() < x + width
+                            && spr.getY() + spr.getHeight() > y && spr.getY() < y + height) {
+                        if (numFound == found.length) {
+                            found = Arrays.copyOf(found, numFound * 2);
+                        }
+                        found[numFound++] = n;
+                    }
+                }
+            }
+        }
+        // keep the drawing order
+        Arrays.sort(found, 0, numFound);
+        return numFound;
+    }
+
+    /**
+     * Get an object found by the last query, in the order of the indexed objects.
+     * @param i index in the result, less than the value returned by the query
+     * @return object
+     */
+    SpriteObject getFound(final int i) {
+        return objects[found[i]];
+    }
+
+    private int getCol(final int x) {
+        return Math.max(Math.min(x >> CELL_SHIFT, cols - 1), 0);
+    }
+
+    private int getRow(final int y) {
+        return Math.max(Math.min(y >> CELL_SHIFT, rows - 1), 0);
+    }
+}
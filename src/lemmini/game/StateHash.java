@@ -0,0 +1,126 @@
+package lemmini.game;
+
+import java.util.Locale;
+import java.util.StringJoiner;
+
+/**
+ * 64-bit hash of the simulation state at the start of a frame, used to find the first frame
+ * in which a replay plays differently than it was recorded.
+ * The hash consists of one 16-bit lane per subsystem, so a mismatch also tells which part
+ * of the simulation diverged. A divergence is missed in a frame with a chance of 1:65536 per
+ * lane, but it usually shows up again in the following frames.
+ */
+final class StateHash {
+
+    /**
+     * Parts of the simulation with a lane of their own.
+     */
+    enum Subsystem {
+        /** stencil of the terrain */
+        TERRAIN (48),
+        /** positions, types, directions and counters of all Lemmings */
+        LEMMINGS (32),
+        /** time, release rate, skills and the other level counters */
+        COUNTERS (16),
+        /** animation state of the level objects */
+        OBJECTS (0);
+
+        private final int shift;
+
+        private Subsystem(final int s) {
+            shift = s;
+        }
+    }
+
+    /** start value of a hash */
+    static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private StateHash() {
+    }
+
+    /**
+     * Mix the bits of a value (finalizer of SplitMix64).
+     * @param v value
+     * @return mixed value, 0 for 0
+     */
+    static long mix(final long v) {
+        long z = v;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Add a value to a hash. The order of the values matters.
+     * @param h hash
+     * @param v value
+     * @return new hash
+     */
+    static long add(final long h, final long v) {
+        return mix(h + v) ^ Long.rotateLeft(h, 23);
+    }
+
+    /**
+     * Add two ints to a hash.
+     * @param h hash
+     * @param a first value
+     * @param b second value
+     * @return new hash
+     */
+    static long add(final long h, final int a, final int b) {
+        return add(h, ((long) a << 32) | (b & 0xffffffffL));
+    }
+
+    /**
+     * Get the contribution of one stencil pixel to the terrain hash. The terrain hash is the sum
+     * of the contributions of all pixels, so it can be updated whenever a single pixel changes.
+     * @param pos position (x+y*width)
+     * @param val stencil value
+     * @return contribution, 0 for empty pixels
+     */
+    static long pixel(final int pos, final int val) {
+        return (val == 0) ? 0 : mix(((long) pos << 32) | (val & 0xffffffffL));
+    }
+
+    /**
+     * Combine the hashes of all subsystems into the hash of a frame.
+     * @param terrain terrain hash
+     * @param lemmings Lemming hash
+     * @param counters counter hash
+     * @param objects level object hash
+     * @return frame hash
+     */
+    static long combine(final long terrain, final long lemmings, final long counters, final long objects) {
+        return lane(terrain, Subsystem.TERRAIN) | lane(lemmings, Subsystem.LEMMINGS)
+                | lane(counters, Subsystem.COUNTERS) | lane(objects, Subsystem.OBJECTS);
+    }
+
+    /**
+     * List the subsystems whose lanes differ between two frame hashes.
+     * @param expected recorded frame hash
+     * @param actual simulated frame hash
+     * @return comma separated names of the diverged subsystems
+     */
+    static String diff(final long expected, final long actual) {
+        StringJoiner sj = new StringJoiner(", ");
+        for (Subsystem s : Subsystem.values()) {
+            if (((expected ^ actual) >>> s.shift & 0xffff) != 0) {
+                sj.add(s.name().toLowerCase(Locale.ROOT));
+            }
+        }
+        return sj.toString();
+    }
+
+    /**
+     * Fold a 64-bit hash into the 16-bit lane of a subsystem.
+     * @param h hash
+     * @param s subsystem
+     * @return lane value at its position in the frame hash
+     */
+    private static long lane(final long h, final Subsystem s) {
+        long f = mix(h);
+        f ^= f >>> 32;
+        f ^= f >>> 16;
+        return (f & 0xffff) << s.shift;
+    }
+}
@@ -1,5 +1,11 @@
 package lemmini.game;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 import org.apache.commons.lang3.ArrayUtils;
 
 /*
@@ -65,12 +71,42 @@ public class Stencil {
     /** the level exit */
     public static final int MSK_EXIT = 1 << 15;
 
-    /** array which represents the stencil buffer */
-    private final StencilPixel[] stencil;
+    /** gadget bits that are replaced when a new gadget is added to a pixel */
+    private static final int MSK_GADGET = ~(MSK_BRICK | MSK_STEEL_BRICK | MSK_NO_ONE_WAY | MSK_NO_ONE_WAY_DRAW | MSK_ONE_WAY);
+    /** attributes that are also kept in bit planes - each entry gets its own plane (see {@link #getPlane(int)}) */
+    private static final int[] PLANE_TYPES = {MSK_BRICK, MSK_STEEL, MSK_ONE_WAY_LEFT, MSK_ONE_WAY_RIGHT};
+    /** union of all attributes kept in bit planes */
+    private static final int MSK_PLANES = MSK_BRICK | MSK_STEEL | MSK_ONE_WAY;
+
+    /** stencil value of each pixel (x+y*width) */
+    private final int[] mask;
+    /** ID of the object whose gadget mask covers each pixel, or -1 if none */
+    private final int[] maskObjectID;
+    /** index into {@link #idSets} of the object IDs covering each pixel */
+    private final int[] idSetIndex;
+    /** distinct sets of object IDs, shared by all pixels covered by the same objects; index 0 is the empty set */
+    private final List<int[]> idSets = new ArrayList<>(64);
+    /** maps (set index, added ID) to the index of the resulting set */
+    private final Map<Long, Integer> idSetTransitions = new HashMap<>(64);
     /** width of stencil (=width of level) */
     private final int width;
     /** height of stencil (=height of level) */
     private final int height;
+    /** bit planes, one per entry of {@link #PLANE_TYPES} */
+    private final BitPlane[] planes;
+    /** sum of {@link StateHash#pixel(int, int)} over all pixels, kept up to date by every change */
+    private long hash;
+    /** bounds of the pixels changed since {@link #resetChangedBounds()} */
+    private int changedXMin = Integer.MAX_VALUE;
+    private int changedYMin = Integer.MAX_VALUE;
+    private int changedXMax = Integer.MIN_VALUE;
+    private int changedYMax = Integer.MIN_VALUE;
+    /** flag: record the bounds of the changed pixels, see {@link #setTrackChanges(boolean)} */
+    private boolean trackChanges;
+    /** flag: record the bounds of the pixels each thread reads, see {@link #setTrackReads(boolean)} */
+    private boolean trackReads;
+    /** bounds (xMin, yMin, xMax, yMax) of the pixels read by the current thread since {@link #resetReadBounds()} */
+    private final ThreadLocal<int[]> readBounds = ThreadLocal.withInitial(() -> new int[4]);
 
 
     /**
@@ -81,20 +117,30 @@ public class Stencil {
     public Stencil(final int w, final int h) {
         width = w;
         height = h;
-        stencil = new StencilPixel[width * height];
-        for (int i = 0; i < stencil.length; i++) {
-            stencil[i] = new StencilPixel();
+        mask = new int[width * height];
+        maskObjectID = new int[width * height];
+        idSetIndex = new int[width * height];
+        planes = new BitPlane[PLANE_TYPES.length];
+        for (int i = 0; i < planes.length; i++) {
+            planes[i] = new BitPlane(PLANE_TYPES[i], width, height);
         }
+        clear();
     }
 
     /**
      * Clear stencil (fill with MSK_EMPTY).
      */
     public void clear() {
-        int size = width * height;
-        for (int idx = 0; idx < size; idx++) {
-            stencil[idx].clear();
+        Arrays.fill(mask, MSK_EMPTY);
+        Arrays.fill(maskObjectID, -1);
+        Arrays.fill(idSetIndex, 0);
+        idSets.clear();
+        idSets.add(ArrayUtils.EMPTY_INT_ARRAY);
+        idSetTransitions.clear();
+        for (BitPlane plane : planes) {
+            plane.clear();
         }
+        hash = 0;
     }
 
      /**
@@ -108,7 +154,9 @@ public class Stencil {
             return;
         }
         int pos = x + y * width;
-        stencil[pos].setMask(val);
+        int old = mask[pos];
+        mask[pos] = val;
+        updatePlanes(x, y, old, val);
     }
 
     /**
@@ -117,12 +165,12 @@ public class Stencil {
      * @param val stencil value
      */
     public void setMask(final int pos, final int val) {
-        int y = pos / width;
-        int x = pos % width;
-
-        //System.out.println("This shouldn't be printed at all");
-
-        setMask(x, y, val);
+        if (pos < 0 || pos >= mask.length) {
+            return;
+        }
+        int old = mask[pos];
+        mask[pos] = val;
+        updatePlanes(pos, old, val);
     }
 
     /**
@@ -137,7 +185,9 @@ public class Stencil {
         }
 
         int pos = x + y * width;
-        stencil[pos].andMask(val);
+        int old = mask[pos];
+        mask[pos] = old & val;
+        updatePlanes(x, y, old, mask[pos]);
     }
 
     /**
@@ -146,9 +196,12 @@ public class Stencil {
      * @param val stencil value
      */
     public void andMask(final int pos, final int val) {
-        int y = pos / width;
-        int x = pos % width;
-        andMask(x, y, val);
+        if (pos < 0 || pos >= mask.length) {
+            return;
+        }
+        int old = mask[pos];
+        mask[pos] = old & val;
+        updatePlanes(pos, old, mask[pos]);
     }
 
     /**
@@ -163,7 +216,9 @@ public class Stencil {
         }
 
         int pos = x + y * width;
-        stencil[pos].orMask(val);
+        int old = mask[pos];
+        mask[pos] = old | val;
+        updatePlanes(x, y, old, mask[pos]);
     }
 
     /**
@@ -172,9 +227,12 @@ public class Stencil {
      * @param val stencil value
      */
     public void orMask(final int pos, final int val) {
-        int y = pos / width;
-        int x = pos % width;
-        orMask(x, y, val);
+        if (pos < 0 || pos >= mask.length) {
+            return;
+        }
+        int old = mask[pos];
+        mask[pos] = old | val;
+        updatePlanes(pos, old, mask[pos]);
     }
 
     /**
@@ -189,7 +247,7 @@ public class Stencil {
         }
 
         int pos = x + y * width;
-        stencil[pos].setMaskObjectID(id);
+        maskObjectID[pos] = id;
     }
 
     /**
@@ -198,12 +256,10 @@ public class Stencil {
      * @param id identifier
      */
     public void setMaskObjectID(final int pos, final int id) {
-        int y = pos / width;
-        int x = pos % width;
-
-        //System.out.println("This shouldn't be printed at all");
-
-        setMaskObjectID(x, y, id);
+        if (pos < 0 || pos >= mask.length) {
+            return;
+        }
+        maskObjectID[pos] = id;
     }
 
     /**
@@ -216,8 +272,11 @@ public class Stencil {
         if (x < 0 || x >= width || y < 0 || y >= height) {
             return 0;
         }
+        if (trackReads) {
+            addRead(x, y, x, y);
+        }
         int pos = x + y * width;
-        return stencil[pos].getMask();
+        return mask[pos];
     }
 
     /**
@@ -226,9 +285,13 @@ public class Stencil {
      * @return stencil value
      */
     public int getMask(final int pos) {
-        int y = pos / width;
-        int x = pos % width;
-        return getMask(x, y);
+        if (pos < 0 || pos >= mask.length) {
+            return 0;
+        }
+        if (trackReads) {
+            addRead(pos);
+        }
+        return mask[pos];
     }
 
     /**
@@ -243,7 +306,180 @@ public class Stencil {
             return;
         }
         int pos = x + y * width;
-        stencil[pos].addGadget(aMask, aID);
+        int old = mask[pos];
+        int existingGadget = old & MSK_GADGET;
+        if (existingGadget > aMask) {
+            return;
+        }
+        mask[pos] = (old & ~existingGadget) | aMask;
+        maskObjectID[pos] = aID;
+        updatePlanes(x, y, old, mask[pos]);
+    }
+
+    /**
+     * Bring the bit planes and the hash in line with a changed stencil value.
+     * @param pos position (x+y*width)
+     * @param oldVal previous stencil value
+     * @param newVal new stencil value
+     */
+    private void updatePlanes(final int pos, final int oldVal, final int newVal) {
+        if (oldVal != newVal) {
+            hash += StateHash.pixel(pos, newVal) - StateHash.pixel(pos, oldVal);
+            // only split the position if the coordinates are needed
+            if (trackChanges || ((oldVal ^ newVal) & MSK_PLANES) != 0) {
+                int x = pos % width;
+                int y = pos / width;
+                if (trackChanges) {
+                    addChanged(x, y);
+                }
+                updatePlaneBits(x, y, oldVal, newVal);
+            }
+        }
+    }
+
+    /**
+     * Bring the bit planes and the hash in line with a changed stencil value.
+     * @param x x position in pixels
+     * @param y y position in pixels
+     * @param oldVal previous stencil value
+     * @param newVal new stencil value
+     */
+    private void updatePlanes(final int x, final int y, final int oldVal, final int newVal) {
+        if (oldVal != newVal) {
+            int pos = x + y * width;
+            hash += StateHash.pixel(pos, newVal) - StateHash.pixel(pos, oldVal);
+            if (trackChanges) {
+                addChanged(x, y);
+            }
+            updatePlaneBits(x, y, oldVal, newVal);
+        }
+    }
+
+    /**
+     * Extend the bounds of the changed pixels.
+     * @param x x position in pixels
+     * @param y y position in pixels
+     */
+    private void addChanged(final int x, final int y) {
+        if (x < changedXMin) {
+            changedXMin = x;
+        }
+        if (x > changedXMax) {
+            changedXMax = x;
+        }
+        if (y < changedYMin) {
+            changedYMin = y;
+        }
+        if (y > changedYMax) {
+            changedYMax = y;
+        }
+    }
+
+    /**
+     * Start or stop recording the bounds of the changed pixels.
+     * @param track true to record the changed pixels
+     */
+    void setTrackChanges(final boolean track) {
+        trackChanges = track;
+    }
+
+    /**
+     * Forget the bounds of the changed pixels.
+     */
+    void resetChangedBounds() {
+        changedXMin = Integer.MAX_VALUE;
+        changedYMin = Integer.MAX_VALUE;
+        changedXMax = Integer.MIN_VALUE;
+        changedYMax = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Check whether any pixel changed since {@link #resetChangedBounds()}.
+     * @return true if a pixel changed
+     */
+    boolean hasChanged() {
+        return changedXMin <= changedXMax;
+    }
+
+    /**
+     * Get the bounds of the pixels changed since {@link #resetChangedBounds()}.
+     * @return xMin, yMin, xMax and yMax (inclusive)
+     */
+    int[] getChangedBounds() {
+        return new int[] {changedXMin, changedYMin, changedXMax, changedYMax};
+    }
+
+    /**
+     * Start or stop recording the bounds of the pixels each thread reads.
+     * @param track true to record the pixels read
+     */
+    void setTrackReads(final boolean track) {
+        trackReads = track;
+    }
+
+    /**
+     * Forget the bounds of the pixels the current thread read.
+     */
+    void resetReadBounds() {
+        int[] b = readBounds.get();
+        b[0] = Integer.MAX_VALUE;
+        b[1] = Integer.MAX_VALUE;
+        b[2] = Integer.MIN_VALUE;
+        b[3] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Get the bounds of the pixels the current thread read since {@link #resetReadBounds()}.
+     * @return xMin, yMin, xMax, yMax (inclusive), empty if xMin &gt; xMax
+     */
+    int[] getReadBounds() {
+        return readBounds.get().clone();
+    }
+
+    /**
+     * Extend the bounds of the pixels the current thread read.
+     * @param pos position (x+y*width) inside the stencil
+     */
+    private void addRead(final int pos) {
+        int y = pos / width;
+        int x = pos - y * width;
+        addRead(x, y, x, y);
+    }
+
+    /**
+     * Extend the bounds of the pixels the current thread read.
+     * @param xMin x position of the left edge in pixels
+     * @param yMin y position of the top edge in pixels
+     * @param xMax x position of the right edge in pixels (inclusive)
+     * @param yMax y position of the bottom edge in pixels (inclusive)
+     */
+    private void addRead(final int xMin, final int yMin, final int xMax, final int yMax) {
+        int[] b = readBounds.get();
+        b[0] = Math.min(b[0], xMin);
+        b[1] = Math.min(b[1], yMin);
+        b[2] = Math.max(b[2], xMax);
+        b[3] = Math.max(b[3], yMax);
+    }
+
+    /**
+     * Bring the bit planes in line with a changed stencil value.
+     * @param x x position in pixels
+     * @param y y position in pixels
+     * @param oldVal previous stencil value
+     * @param newVal new stencil value
+     */
+    private void updatePlaneBits(final int x, final int y, final int oldVal, final int newVal) {
+        int changed = (oldVal ^ newVal) & MSK_PLANES;
+        if (changed == 0) {
+            return;
+        }
+        for (BitPlane plane : planes) {
+            int oldBit = oldVal & plane.type;
+            int newBit = newVal & plane.type;
+            if ((oldBit == 0) != (newBit == 0)) {
+                plane.set(x, y, newBit != 0);
+            }
+        }
     }
 
     /**
@@ -257,8 +493,7 @@ public class Stencil {
             return;
         }
 
-        int pos = x + y * width;
-        stencil[pos].addObjectID(id);
+        addIDAt(x + y * width, id);
     }
 
     /**
@@ -267,13 +502,27 @@ public class Stencil {
      * @param id identifier
      */
     public void addID(final int pos, final int id) {
-        int y = pos / width;
-        int x = pos % width;
-        addID(x, y, id);
+        if (pos < 0 || pos >= mask.length) {
+            return;
+        }
+        addIDAt(pos, id);
+    }
+
+    private void addIDAt(final int pos, final int id) {
+        int oldSet = idSetIndex[pos];
+        Long transition = ((long) oldSet << 32) | (id & 0xffffffffL);
+        Integer newSet = idSetTransitions.get(transition);
+        if (newSet == null) {
+            newSet = idSets.size();
+            idSets.add(ArrayUtils.add(idSets.get(oldSet), id));
+            idSetTransitions.put(transition, newSet);
+        }
+        idSetIndex[pos] = newSet;
     }
 
     /**
      * Gets all object IDs from the stencil.
+     * The returned array is shared with other pixels and must not be modified.
      * @param x x position in pixels
      * @param y y position in pixels
      * @return identifier
@@ -282,9 +531,12 @@ public class Stencil {
         if (x < 0 || x >= width || y < 0 || y >= height) {
             return ArrayUtils.EMPTY_INT_ARRAY;
         }
+        if (trackReads) {
+            addRead(x, y, x, y);
+        }
 
         int pos = x + y * width;
-        return stencil[pos].getObjectIDs();
+        return idSets.get(idSetIndex[pos]);
     }
 
     /**
@@ -293,105 +545,388 @@ public class Stencil {
      * @return identifier
      */
     public int[] getIDs(final int pos) {
-        int y = pos / width;
-        int x = pos % width;
-        return getIDs(x, y);
+        if (pos < 0 || pos >= mask.length) {
+            return ArrayUtils.EMPTY_INT_ARRAY;
+        }
+        if (trackReads) {
+            addRead(pos);
+        }
+        return idSets.get(idSetIndex[pos]);
     }
 
     public int getMaskObjectID(final int x, final int y) {
         if (x < 0 || x >= width || y < 0 || y >= height) {
             return -1;
         }
+        if (trackReads) {
+            addRead(x, y, x, y);
+        }
 
         int pos = x + y * width;
-        return stencil[pos].getMaskObjectID();
+        return maskObjectID[pos];
     }
 
     public int getMaskObjectID(final int pos) {
-        int y = pos / width;
-        int x = pos % width;
-        return getMaskObjectID(x, y);
+        if (pos < 0 || pos >= mask.length) {
+            return -1;
+        }
+        if (trackReads) {
+            addRead(pos);
+        }
+        return maskObjectID[pos];
     }
 
-    /** Get width of stencil.
-     * @return width of stencil
+    /**
+     * Count the pixels that don't have any of the given attributes, starting at the given
+     * position and walking down the column until a pixel with one of the attributes is found.
+     * Positions outside the stencil count as free, just like in {@link #getMask(int)}.
+     * @param pos position (x+y*width) of the first pixel
+     * @param steps maximum number of pixels to check
+     * @param type Stencil bitmask to look for (may contain several attributes)
+     * @return number of free pixels (at most steps)
      */
-    public int getWidth() {
-        return width;
+    public int freeBelow(final int pos, final int steps, final int type) {
+        if (steps <= 0) {
+            return 0;
+        }
+        // a linear position walks down the column floorMod(pos, width), starting at row floorDiv(pos, width)
+        int y = Math.floorDiv(pos, width);
+        return freeBelow(pos - y * width, y, steps, type);
     }
 
     /**
-     * Get height of stencil.
-     * @return height of stencil
+     * Count the pixels that don't have any of the given attributes, starting at the given
+     * coordinates and walking down the column until a pixel with one of the attributes is found.
+     * Pixels outside the stencil count as free, just like in {@link #getMask(int, int)}.
+     * @param x x position in pixels
+     * @param y y position of the first pixel
+     * @param steps maximum number of pixels to check
+     * @param type Stencil bitmask to look for (may contain several attributes)
+     * @return number of free pixels (at most steps)
      */
-    public int getHeight() {
-        return height;
+    public int freeBelow(final int x, final int y, final int steps, final int type) {
+        if (x < 0 || x >= width) {
+            return Math.max(steps, 0);
+        }
+        int yMin = Math.max(y, 0);
+        int yMax = Math.min(y + steps, height);
+        if (yMin >= yMax) {
+            return Math.max(steps, 0);
+        }
+        if (trackReads) {
+            addRead(x, yMin, x, yMax - 1);
+        }
+        BitPlane plane = getPlane(type);
+        if (plane != null) {
+            int yb = plane.nextSetInColumn(x, yMin, yMax);
+            return (yb < yMax) ? yb - y : steps;
+        }
+        for (int yb = yMin, p = x + yMin * width; yb < yMax; yb++, p += width) {
+            if ((mask[p] & type) != 0) {
+                return yb - y;
+            }
+        }
+        return steps;
     }
-}
 
-class StencilPixel {
-   /** this stores at most one gadget (exit / water / fire etc) but any number of terrain, steel, OWW */
-    private int mask;
-    /** this stores the ID of each individual object */
-    private int maskObjectID;
-    /** this stores an array of all available object IDs */ // BOOKMARK TODO: Investigate and decide if we need this
-    private int[] objectIDs;
-
-    public StencilPixel() {
-        mask = 0;
-        maskObjectID = -1;
-        objectIDs = ArrayUtils.EMPTY_INT_ARRAY;
+    /**
+     * Count the pixels that have at least one of the given attributes, starting at the given
+     * position and walking up the column until a pixel without any of the attributes is found.
+     * Positions outside the stencil count as free, just like in {@link #getMask(int)}.
+     * @param pos position (x+y*width) of the first pixel
+     * @param steps maximum number of pixels to check
+     * @param type Stencil bitmask to look for (may contain several attributes)
+     * @return number of solid pixels (at most steps)
+     */
+    public int solidAbove(final int pos, final int steps, final int type) {
+        if (steps <= 0 || pos < 0 || pos >= mask.length) {
+            return 0;
+        }
+        int y = pos / width;
+        int x = pos - y * width;
+        // rows above the stencil are free, so the count ends at row 0 at the latest
+        int yMin = Math.max(y - steps + 1, 0);
+        if (trackReads) {
+            addRead(x, yMin, x, y);
+        }
+        BitPlane plane = getPlane(type);
+        if (plane != null) {
+            return y - plane.prevClearInColumn(x, y, yMin);
+        }
+        int yb = y;
+        int p = pos;
+        while (yb >= yMin && (mask[p] & type) != 0) {
+            yb--;
+            p -= width;
+        }
+        return y - yb;
     }
 
-    public void clear() {
-        mask = 0;
-        maskObjectID = -1;
-        objectIDs = ArrayUtils.EMPTY_INT_ARRAY;
+    /**
+     * Check whether any pixel in the given rectangle has at least one of the given attributes.
+     * Pixels outside the stencil are ignored, just like in {@link #getMask(int, int)}.
+     * @param x x position of the left edge in pixels
+     * @param y y position of the top edge in pixels
+     * @param w width in pixels
+     * @param h height in pixels
+     * @param type Stencil bitmask to look for (may contain several attributes)
+     * @return true if at least one pixel with one of the attributes was found
+     */
+    public boolean checkType(final int x, final int y, final int w, final int h, final int type) {
+        int xMin = Math.max(x, 0);
+        int xMax = Math.min(x + w, width);
+        int yMin = Math.max(y, 0);
+        int yMax = Math.min(y + h, height);
+        if (xMin >= xMax || yMin >= yMax) {
+            return false;
+        }
+        if (trackReads) {
+            addRead(xMin, yMin, xMax - 1, yMax - 1);
+        }
+        if (isPlaneUnion(type)) {
+            for (BitPlane plane : planes) {
+                if ((type & plane.type) == 0) {
+                    continue;
+                }
+                // scan along the longer side so that each word test covers as many pixels as possible
+                if (xMax - xMin >= yMax - yMin) {
+                    for (int yb = yMin; yb < yMax; yb++) {
+                        if (plane.anyInRow(yb, xMin, xMax)) {
+                            return true;
+                        }
+                    }
+                } else {
+                    for (int xb = xMin; xb < xMax; xb++) {
+                        if (plane.nextSetInColumn(xb, yMin, yMax) < yMax) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+        for (int yb = yMin; yb < yMax; yb++) {
+            for (int xb = xMin, p = xMin + yb * width; xb < xMax; xb++, p++) {
+                if ((mask[p] & type) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
-    public void setMask(int newMask) {
-        mask = newMask;
+    /**
+     * Check whether the given attributes are made up of whole bit planes.
+     * @param type Stencil bitmask
+     * @return true if the attributes can be looked up in the bit planes alone
+     */
+    private static boolean isPlaneUnion(final int type) {
+        return (type & ~MSK_PLANES) == 0 && (type & MSK_STEEL) != MSK_STEEL_BRICK && (type & MSK_STEEL) != MSK_STEEL_OBJECT;
     }
 
-    public void andMask(int newMask) {
-        mask &= newMask;
+    /**
+     * Get the bit plane that holds exactly the given attributes.
+     * @param type Stencil bitmask
+     * @return bit plane, or null if the attributes aren't kept in a single plane
+     */
+    private BitPlane getPlane(final int type) {
+        switch (type) {
+            case MSK_BRICK:
+                return planes[0];
+            case MSK_STEEL:
+                return planes[1];
+            case MSK_ONE_WAY_LEFT:
+                return planes[2];
+            case MSK_ONE_WAY_RIGHT:
+                return planes[3];
+            default:
+                return null;
+        }
     }
 
-    public void orMask(int newMask) {
-        mask |= newMask;
+    /**
+     * Save the stencil attributes. Object IDs are only set while the level is painted,
+     * so they aren't part of the saved state.
+     * @return saved state
+     */
+    public State saveState() {
+        long[][] planeBits = new long[planes.length * 2][];
+        for (int i = 0; i < planes.length; i++) {
+            planeBits[i * 2] = planes[i].rows.clone();
+            planeBits[i * 2 + 1] = planes[i].cols.clone();
+        }
+        return new State(this, mask.clone(), planeBits, hash);
     }
 
-    public void setMaskObjectID(int mo) {
-        maskObjectID = mo;
+    /**
+     * Restore the stencil attributes.
+     * @param state state saved by {@link #saveState()} of this stencil
+     */
+    public void restoreState(final State state) {
+        if (state.stencil != this) {
+            throw new IllegalArgumentException("State was saved from a different stencil.");
+        }
+        System.arraycopy(state.mask, 0, mask, 0, mask.length);
+        for (int i = 0; i < planes.length; i++) {
+            System.arraycopy(state.planeBits[i * 2], 0, planes[i].rows, 0, planes[i].rows.length);
+            System.arraycopy(state.planeBits[i * 2 + 1], 0, planes[i].cols, 0, planes[i].cols.length);
+        }
+        hash = state.hash;
     }
 
-    public void addObjectID(int newID) {
-        objectIDs = ArrayUtils.add(objectIDs, newID);
+    /**
+     * Get the hash of the stencil attributes for {@link StateHash}.
+     * @return terrain hash
+     */
+    long getStateHash() {
+        return hash;
     }
 
-    public int getMask() {
-        return mask;
+    /** Get width of stencil.
+     * @return width of stencil
+     */
+    public int getWidth() {
+        return width;
     }
 
-    public int getMaskObjectID() {
-        return maskObjectID;
+    /**
+     * Get height of stencil.
+     * @return height of stencil
+     */
+    public int getHeight() {
+        return height;
     }
 
-    public int[] getObjectIDs() {
-        return objectIDs;
+    /**
+     * Stencil attributes saved by {@link Stencil#saveState()}.
+     */
+    public static final class State {
+        /** stencil the state was saved from */
+        private final Stencil stencil;
+        /** copy of the attribute of each pixel */
+        private final int[] mask;
+        /** copies of the rows and columns of each bit plane */
+        private final long[][] planeBits;
+        /** terrain hash */
+        private final long hash;
+
+        private State(final Stencil stencil, final int[] mask, final long[][] planeBits, final long hash) {
+            this.stencil = stencil;
+            this.mask = mask;
+            this.planeBits = planeBits;
+            this.hash = hash;
+        }
+
+        /**
+         * Get the memory used by the saved state.
+         * @return size in bytes
+         */
+        long getByteSize() {
+            long size = mask.length * 4L;
+            for (long[] bits : planeBits) {
+                size += bits.length * 8L;
+            }
+            return size;
+        }
     }
 
-    public void addGadget(final int aMask, final int aID) {
-        final int existingGadget = mask & ~(Stencil.MSK_BRICK
-                                          | Stencil.MSK_STEEL_BRICK
-                                          | Stencil.MSK_NO_ONE_WAY
-                                          | Stencil.MSK_NO_ONE_WAY_DRAW
-                                          | Stencil.MSK_ONE_WAY);
-        if (existingGadget > aMask) {
-            return;
+    /**
+     * One stencil attribute packed into long words, once row by row and once column by column,
+     * so that strips of pixels can be tested a word at a time.
+     */
+    private static final class BitPlane {
+
+        /** Stencil bitmask this plane is kept for (a pixel's bit is set if any of these bits is set) */
+        private final int type;
+        /** number of words per row */
+        private final int rowWords;
+        /** number of words per column */
+        private final int colWords;
+        /** bits of each row (bit x of row y is bit x&63 of word y*rowWords+x/64) */
+        private final long[] rows;
+        /** bits of each column (bit y of column x is bit y&63 of word x*colWords+y/64) */
+        private final long[] cols;
+
+        private BitPlane(final int type, final int width, final int height) {
+            this.type = type;
+            rowWords = (width + 63) >>> 6;
+            colWords = (height + 63) >>> 6;
+            rows = new long[rowWords * height];
+            cols = new long[colWords * width];
+        }
+
+        private void clear() {
+            Arrays.fill(rows, 0L);
+            Arrays.fill(cols, 0L);
+        }
+
+        private void set(final int x, final int y, final boolean value) {
+            int r = y * rowWords + (x >>> 6);
+            int c = x * colWords + (y >>> 6);
+            if (value) {
+                rows[r] |= 1L << x;
+                cols[c] |= 1L << y;
+            } else {
+                rows[r] &= ~(1L << x);
+                cols[c] &= ~(1L << y);
+            }
+        }
+
+        /**
+         * Check whether any bit from xMin (inclusive) to xMax (exclusive) is set in the given row.
+         */
+        private boolean anyInRow(final int y, final int xMin, final int xMax) {
+            int base = y * rowWords;
+            int w = xMin >>> 6;
+            int lastW = (xMax - 1) >>> 6;
+            long word = rows[base + w] & (-1L << xMin);
+            while (w < lastW) {
+                if (word != 0) {
+                    return true;
+                }
+                word = rows[base + ++w];
+            }
+            return (word & (-1L >>> (63 - ((xMax - 1) & 63)))) != 0;
+        }
+
+        /**
+         * Find the first set bit from yMin (inclusive) down to yMax (exclusive) in the given column.
+         * @return row of the first set bit, or yMax if there is none
+         */
+        private int nextSetInColumn(final int x, final int yMin, final int yMax) {
+            int base = x * colWords;
+            int w = yMin >>> 6;
+            int lastW = (yMax - 1) >>> 6;
+            long word = cols[base + w] & (-1L << yMin);
+            while (true) {
+                if (word != 0) {
+                    return Math.min((w << 6) + Long.numberOfTrailingZeros(word), yMax);
+                }
+                if (++w > lastW) {
+                    return yMax;
+                }
+                word = cols[base + w];
+            }
+        }
+
+        /**
+         * Find the first clear bit from yMax (inclusive) up to yMin (inclusive) in the given column.
+         * @return row of the first clear bit, or yMin-1 if there is none
+         */
+        private int prevClearInColumn(final int x, final int yMax, final int yMin) {
+            int base = x * colWords;
+            int w = yMax >>> 6;
+            int firstW = yMin >>> 6;
+            long word = ~cols[base + w] & (-1L >>> (63 - (yMax & 63)));
+            while (true) {
+                if (word != 0) {
+                    return Math.max((w << 6) + 63 - Long.numberOfLeadingZeros(word), yMin - 1);
+                }
+                if (--w < firstW) {
+                    return yMin - 1;
+                }
+                word = ~cols[base + w];
+            }
         }
-        mask &= ~existingGadget;
-        mask |= aMask;
-        maskObjectID = aID;
     }
 }
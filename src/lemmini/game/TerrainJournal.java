@@ -0,0 +1,169 @@
+package lemmini.game;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Records which parts of the terrain were changed.
+ * Terrain edits update the foreground image and the stencil right away and only mark the
+ * changed area here. Everything derived from the terrain (minimap, objects that are only
+ * visible on terrain, ...) is brought up to date once per frame by the listeners, which only
+ * get to see the changed rectangles.
+ * Overlapping and touching rectangles are merged, so no pixel is reported twice.
+ */
+public final class TerrainJournal {
+
+    /**
+     * Consumer of terrain changes.
+     */
+    public interface Listener {
+        /**
+         * Called with the terrain changes since the last call.
+         * @param rects changed rectangles in level coordinates - clipped to the level and disjoint
+         */
+        void terrainChanged(List<Rectangle> rects);
+    }
+
+    /** number of rectangles kept before the closest ones are merged */
+    private static final int MAX_RECTS = 32;
+
+    /** changed rectangles since the last flush */
+    private final List<Rectangle> rects = new ArrayList<>(MAX_RECTS + 1);
+    /** consumers of the changes */
+    private final List<Listener> listeners = new ArrayList<>(4);
+    /** level width in pixels */
+    private int width;
+    /** level height in pixels */
+    private int height;
+
+    /**
+     * Forget all changes and resize the journal to fit a level.
+     * @param w level width in pixels
+     * @param h level height in pixels
+     */
+    public synchronized void reset(final int w, final int h) {
+        width = w;
+        height = h;
+        rects.clear();
+    }
+
+    /**
+     * Add a consumer of terrain changes.
+     * @param l listener
+     */
+    public synchronized void addListener(final Listener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Remove a consumer of terrain changes.
+     * @param l listener
+     */
+    public synchronized void removeListener(final Listener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Mark a rectangle of the terrain as changed.
+     * @param x x position in pixels
+     * @param y y position in pixels
+     * @param w width in pixels
+     * @param h height in pixels
+     */
+    public synchronized void add(final int x, final int y, final int w, final int h) {
+        int xMin = Math.max(x, 0);
+        int yMin = Math.max(y, 0);
+        int xMax = Math.min(x + w, width);
+        int yMax = Math.min(y + h, height);
+        if (xMin >= xMax || yMin >= yMax) {
+            return;
+        }
+        Rectangle r = new Rectangle(xMin, yMin, xMax - xMin, yMax - yMin);
+        // merge with every rectangle it overlaps or touches until it's disjoint from all others
+        for (int i = 0; i < rects.size(); ) {
+            Rectangle old = rects.get(i);
+            if (touches(old, r)) {
+                r.add(old);
+                rects.remove(i);
+                i = 0;
+            } else {
+                i++;
+            }
+        }
+        rects.add(r);
+        if (rects.size() > MAX_RECTS) {
+            mergeClosest();
+        }
+    }
+
+    /**
+     * Mark the whole terrain as changed.
+     */
+    public synchronized void addAll() {
+        rects.clear();
+        if (width > 0 && height > 0) {
+            rects.add(new Rectangle(0, 0, width, height));
+        }
+    }
+
+    /**
+     * Check whether there are changes that weren't passed to the listeners yet.
+     * @return true if there are no pending changes
+     */
+    public synchronized boolean isEmpty() {
+        return rects.isEmpty();
+    }
+
+    /**
+     * Pass all pending changes to the listeners and forget them.
+     */
+    public synchronized void flush() {
+        if (rects.isEmpty()) {
+            return;
+        }
+        List<Rectangle> changed = Collections.unmodifiableList(new ArrayList<>(rects));
+        rects.clear();
+        for (Listener l : listeners) {
+            l.terrainChanged(changed);
+        }
+    }
+
+    /**
+     * Merge the pair of rectangles whose union adds the least area, then restore disjointness.
+     */
+    private void mergeClosest() {
+        int bestI = 0;
+        int bestJ = 1;
+        long bestWaste = Long.MAX_VALUE;
+        for (int i = 0; i < rects.size(); i++) {
+            Rectangle a = rects.get(i);
+            for (int j = i + 1; j < rects.size(); j++) {
+                Rectangle b = rects.get(j);
+                Rectangle u = a.union(b);
+                long waste = (long) u.width * u.height - (long) a.width * a.height - (long) b.width * b.height;
+                if (waste < bestWaste) {
+                    bestWaste = waste;
+                    bestI = i;
+                    bestJ = j;
+                }
+            }
+        }
+        Rectangle u = rects.get(bestI).union(rects.get(bestJ));
+        rects.remove(bestJ);
+        rects.remove(bestI);
+        add(u.x, u.y, u.width, u.height);
+    }
+
+    /**
+     * Check whether two rectangles overlap or share an edge.
+     * @param a first rectangle
+     * @param b second rectangle
+     * @return true if the rectangles overlap or touch
+     */
+    private static boolean touches(final Rectangle a, final Rectangle b) {
+        return a.x <= b.x + b.width && b.x <= a.x + a.width
+                && a.y <= b.y + b.height && b.y <= a.y + a.height;
+    }
+}
@@ -2,6 +2,7 @@ package lemmini.gameutil;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.ListIterator;
 
@@ -9,6 +10,7 @@ import org.apache.commons.lang3.ArrayUtils;
 
 import lemmini.game.GameController;
 import lemmini.game.Lemming;
+import lemmini.game.SimulationEvents;
 import lemmini.graphics.LemmImage;
 import lemmini.tools.ToolBox;
 
@@ -53,6 +55,31 @@ public class Sprite {
         ONCE_ENTRANCE;
     }
 
+    /**
+     * Animation and visibility state of a sprite, see {@link Sprite#saveState()}.
+     */
+    public static final class State {
+        private final int counter;
+        private final int frameIdx;
+        private final Animation animMode;
+        private final boolean triggered;
+        /** position at which the trigger sounds are played, if the triggering Lemming is gone */
+        private final int triggerX;
+        private final int triggerY;
+        private final BitSet hiddenPixels;
+
+        private State(final Sprite spr) {
+            counter = spr.counter;
+            frameIdx = spr.frameIdx;
+            animMode = spr.animMode;
+            triggered = spr.triggered;
+            // a removed Lemming doesn't move any more, so its current position is the final one
+            triggerX = (spr.lemming != null) ? spr.lemming.midX() : spr.triggerX;
+            triggerY = (spr.lemming != null) ? spr.lemming.midY() : spr.triggerY;
+            hiddenPixels = (spr.hiddenPixels == null) ? null : (BitSet) spr.hiddenPixels.clone();
+        }
+    }
+
     /** number of animation frames */
     protected final int numFrames;
     /** sprite width in pixels */
@@ -72,8 +99,20 @@ public class Sprite {
     /** list of animation frames */
     protected List<LemmImage> frames;
     protected boolean modifiable;
-    protected int[][] origColors;
+    /** pixels (x+y*width) that are hidden in all animation frames - null if none were hidden yet */
+    private BitSet hiddenPixels;
+    /** animation frames without the hidden pixels - composed when they are requested */
+    private LemmImage[] visibleFrames;
+    /** value of visibilityVersion that each of the visibleFrames was composed for */
+    private int[] visibleFrameVersions;
+    /** incremented whenever the hidden pixels or the animation frames change */
+    private int visibilityVersion;
     private Lemming lemming;
+    /** receiver of the trigger sounds after a restore without the triggering Lemming, otherwise null */
+    private SimulationEvents triggerEvents;
+    /** position of the trigger sounds if triggerEvents is used */
+    private int triggerX;
+    private int triggerY;
 
     /**
      * Get Animation depending on integer value from INI.
@@ -114,15 +153,9 @@ public class Sprite {
         frames = ToolBox.getAnimation(sourceImg, animFrames);
         this.modifiable = modifiable;
         if (modifiable) {
-            origColors = new int[numFrames][];
             for (ListIterator<LemmImage> lit = frames.listIterator(); lit.hasNext(); ) {
-                int i = lit.nextIndex();
-                LemmImage frame = ToolBox.copyLemmImage(lit.next());
-                lit.set(frame);
-                origColors[i] = frame.getRGB(0, 0, width, height, null, 0, width);
+                lit.set(ToolBox.copyLemmImage(lit.next()));
             }
-        } else {
-            origColors = null;
         }
         lemming = null;
     }
@@ -146,16 +179,11 @@ public class Sprite {
         this.modifiable = modifiable;
         if (modifiable) {
             this.frames = new ArrayList<>(frames);
-            origColors = new int[numFrames][];
             for (ListIterator<LemmImage> lit = this.frames.listIterator(); lit.hasNext(); ) {
-                int i = lit.nextIndex();
-                LemmImage frame = ToolBox.copyLemmImage(lit.next());
-                lit.set(frame);
-                origColors[i] = frame.getRGB(0, 0, width, height, null, 0, width);
+                lit.set(ToolBox.copyLemmImage(lit.next()));
             }
         } else {
             this.frames = frames;
-            origColors = null;
         }
         lemming = null;
     }
@@ -180,13 +208,13 @@ public class Sprite {
             lit.set(frame);
         }
         modifiable = src.modifiable;
-        origColors = ArrayUtils.clone(src.origColors);
-        if (origColors != null) {
-            for (int i = 0; i < origColors.length; i++) {
-                origColors[i] = origColors[i].clone();
-            }
+        if (src.hiddenPixels != null) {
+            hiddenPixels = (BitSet) src.hiddenPixels.clone();
         }
         lemming = src.lemming;
+        triggerEvents = src.triggerEvents;
+        triggerX = src.triggerX;
+        triggerY = src.triggerY;
     }
 
     /**
@@ -195,7 +223,37 @@ public class Sprite {
      * @return animation frame at position idx.
      */
     public LemmImage getImage(final int idx) {
-        return frames.get(idx);
+        if (hiddenPixels == null) {
+            return frames.get(idx);
+        }
+        return getVisibleFrame(idx);
+    }
+
+    /**
+     * Get an animation frame without the hidden pixels, composing it again if the
+     * visibility changed since it was last requested.
+     * @param idx index of animation frame
+     * @return animation frame with the hidden pixels made transparent
+     */
+    private LemmImage getVisibleFrame(final int idx) {
+        if (visibleFrames == null) {
+            visibleFrames = new LemmImage[numFrames];
+            visibleFrameVersions = new int[numFrames];
+        }
+        LemmImage frame = visibleFrames[idx];
+        if (frame == null || visibleFrameVersions[idx] != visibilityVersion) {
+            int[] rgb = frames.get(idx).getRGB(0, 0, width, height, null, 0, width);
+            for (int i = hiddenPixels.nextSetBit(0); i >= 0; i = hiddenPixels.nextSetBit(i + 1)) {
+                rgb[i] = 0;
+            }
+            if (frame == null) {
+                frame = ToolBox.createLemmImage(width, height);
+                visibleFrames[idx] = frame;
+            }
+            frame.setRGB(0, 0, width, height, rgb, 0, width);
+            visibleFrameVersions[idx] = visibilityVersion;
+        }
+        return frame;
     }
 
     /**
@@ -214,6 +272,7 @@ public class Sprite {
      */
     public void setImage(final int idx, final LemmImage img) {
         frames.set(idx, img);
+        visibilityVersion++;
     }
 
     /**
@@ -221,6 +280,15 @@ public class Sprite {
      * @return current animation frame (before increasing the animation step).
      */
     public LemmImage getImageAnim() {
+        animate();
+        return getImage(frameIdx);
+    }
+
+    /**
+     * Animate by one game frame without composing the animation frame, which is only
+     * needed when the sprite is drawn.
+     */
+    public void animate() {
         switch (animMode) {
             case LOOP:
                 if (++counter >= speed) {
@@ -248,7 +316,9 @@ public class Sprite {
                     }
                     if (frameIdx > 0) {
                         if (counter == 0 && lemming != null) {
-                            GameController.sound.playVisualSFX(sound[frameIdx], lemming.midX(), lemming.midY()); //NOTE: footX() was midX()
+                            lemming.getSimulation().getEvents().playVisualSFX(sound[frameIdx], lemming.midX(), lemming.midY()); //NOTE: footX() was midX()
+                        } else if (counter == 0 && triggerEvents != null) {
+                            triggerEvents.playVisualSFX(sound[frameIdx], triggerX, triggerY);
                         }
                     } else {
                         frameIdx = 0;
@@ -264,11 +334,11 @@ public class Sprite {
             default:
                 break;
         }
-        return getImage(frameIdx);
     }
 
     /**
      * Set visibility of pixel in all animation frames.
+     * The frames themselves aren't changed - hidden pixels are removed when a frame is requested.
      * @param x x position
      * @param y y position
      * @param visible visible if true, transparent otherwise
@@ -278,10 +348,18 @@ public class Sprite {
             return;
         }
         if (x >= 0 && x < width && y >= 0 && y < height) {
-            for (ListIterator<LemmImage> lit = frames.listIterator(); lit.hasNext(); ) {
-                int i = lit.nextIndex();
-                lit.next().setRGB(x, y, visible ? origColors[i][y * width + x] : 0);
+            int pos = y * width + x;
+            if (hiddenPixels == null) {
+                if (visible) {
+                    return;
+                }
+                hiddenPixels = new BitSet(width * height);
+            }
+            if (hiddenPixels.get(pos) != visible) {
+                return;
             }
+            hiddenPixels.set(pos, !visible);
+            visibilityVersion++;
         }
     }
 
@@ -290,17 +368,18 @@ public class Sprite {
             return;
         }
         for (ListIterator<LemmImage> lit = frames.listIterator(); lit.hasNext(); ) {
-            int i = lit.nextIndex();
-            LemmImage imgSpr = lit.next().transform(false, horizontal, vertical);
-            lit.set(imgSpr);
-
-            int[] buffer = origColors[i].clone();
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    origColors[i][y * width + x] = buffer[(vertical ? (height - y - 1) : y) * width + (horizontal ? (width - x - 1) : x)];
-                }
+            lit.set(lit.next().transform(false, horizontal, vertical));
+        }
+        if (hiddenPixels != null) {
+            BitSet buffer = hiddenPixels;
+            hiddenPixels = new BitSet(width * height);
+            for (int i = buffer.nextSetBit(0); i >= 0; i = buffer.nextSetBit(i + 1)) {
+                int x = i % width;
+                int y = i / width;
+                hiddenPixels.set((vertical ? (height - y - 1) : y) * width + (horizontal ? (width - x - 1) : x));
             }
         }
+        visibilityVersion++;
     }
 
     public void applyTint(int tint) {
@@ -308,15 +387,49 @@ public class Sprite {
             return;
         }
 
-        for (ListIterator<LemmImage> lit = frames.listIterator(); lit.hasNext(); ) {
-            int i = lit.nextIndex();
-            lit.next().applyTint(tint);
-            for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    origColors[i][y * width + x] = LemmImage.applyTint(origColors[i][y * width + x], tint);
-                }
-            }
+        for (LemmImage frame : frames) {
+            frame.applyTint(tint);
         }
+        visibilityVersion++;
+    }
+
+    /**
+     * Save the animation state and the pixel visibility.
+     * @return saved state
+     */
+    public State saveState() {
+        return new State(this);
+    }
+
+    /**
+     * Restore the animation state and the pixel visibility.
+     * If the Lemming that triggered the animation doesn't exist any more, the trigger sounds
+     * are played at the position where it was last seen.
+     * @param state state saved by {@link #saveState()} of this sprite
+     * @param l Lemming that triggered the animation, or null
+     * @param events receiver of the trigger sounds if l is null
+     */
+    public void restoreState(final State state, final Lemming l, final SimulationEvents events) {
+        counter = state.counter;
+        frameIdx = state.frameIdx;
+        animMode = state.animMode;
+        triggered = state.triggered;
+        if (state.hiddenPixels != null || hiddenPixels != null) {
+            hiddenPixels = (state.hiddenPixels == null) ? null : (BitSet) state.hiddenPixels.clone();
+            visibilityVersion++;
+        }
+        lemming = l;
+        triggerEvents = (l == null && state.triggered) ? events : null;
+        triggerX = state.triggerX;
+        triggerY = state.triggerY;
+    }
+
+    /**
+     * Get the Lemming that triggered the animation.
+     * @return Lemming that triggered the animation, or null
+     */
+    public Lemming getLemming() {
+        return lemming;
     }
 
     /**
@@ -357,10 +470,11 @@ public class Sprite {
             return false;
         }
         lemming = l;
+        triggerEvents = null;
         if (sound.length == 1) {
-            GameController.sound.playVisualSFX(sound[0], l.midX(), l.midY()); //NOTE: footX() was midX()
+            l.getSimulation().getEvents().playVisualSFX(sound[0], l.midX(), l.midY()); //NOTE: footX() was midX()
         } else if (sound.length > 1) {
-            GameController.sound.playVisualSFX(sound[1], l.midX(), l.midY()); //NOTE: footX() was midX()
+            l.getSimulation().getEvents().playVisualSFX(sound[1], l.midX(), l.midY()); //NOTE: footX() was midX()
         }
         triggered = true;
         frameIdx = 0;
@@ -368,6 +482,40 @@ public class Sprite {
         return true;
     }
 
+    /**
+     * Get the number of game frames per animation frame.
+     * @return number of game frames per animation frame
+     */
+    public int getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Get the number of game frames since the current animation frame was shown.
+     * @return animation counter
+     */
+    public int getCounter() {
+        return counter;
+    }
+
+    /**
+     * Set the number of game frames since the current animation frame was shown.
+     * @param c animation counter
+     */
+    public void setCounter(final int c) {
+        counter = c;
+    }
+
+    /**
+     * Show the next frame of an endless animation loop without touching the counter.
+     * For schedules that count the game frames of many looped sprites at once.
+     */
+    public void nextLoopFrame() {
+        if (++frameIdx >= numFrames) {
+            frameIdx = 0;
+        }
+    }
+
     /**
      * Get current animation frame index.
      * @return current animation frame index
@@ -0,0 +1,163 @@
+package lemmini.graphics;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.image.VolatileImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copy of a software image in video memory.
+ * Images that are edited pixel by pixel can't be accelerated by Java2D, so every draw is a
+ * software blit. This copy is only updated in the rectangles that were reported as changed
+ * and is restored completely whenever its contents are lost.
+ * If no video memory image can be created, the software image is drawn instead.
+ */
+public class AcceleratedImage {
+
+    /** number of changed rectangles kept before the whole image is copied instead */
+    private static final int MAX_RECTS = 64;
+
+    /** graphics configuration of the screen */
+    private final GraphicsConfiguration gc;
+    /** software image */
+    private LemmImage source;
+    /** copy of the software image, or null if it wasn't created yet */
+    private VolatileImage image;
+    /** changed rectangles since the last update of the copy */
+    private final List<Rectangle> changed = new ArrayList<>(MAX_RECTS);
+    /** flag: the whole copy has to be updated */
+    private boolean allChanged;
+    /** flag: creating the copy failed, so the software image is used */
+    private boolean failed;
+
+    /**
+     * Constructor.
+     * @param gc graphics configuration of the screen
+     */
+    public AcceleratedImage(final GraphicsConfiguration gc) {
+        this.gc = gc;
+    }
+
+    /**
+     * Set the software image to copy. The whole copy is updated the next time it's drawn.
+     * @param src software image
+     */
+    public synchronized void setSource(final LemmImage src) {
+        source = src;
+        if (image != null && (image.getWidth() != src.getWidth() || image.getHeight() != src.getHeight())) {
+            image.flush();
+            image = null;
+        }
+        changed.clear();
+        allChanged = true;
+    }
+
+    /**
+     * Get the software image.
+     * @return software image, or null if none was set
+     */
+    public synchronized LemmImage getSource() {
+        return source;
+    }
+
+    /**
+     * Mark rectangles of the software image as changed.
+     * @param rects changed rectangles
+     */
+    public synchronized void invalidate(final List<Rectangle> rects) {
+        if (allChanged) {
+            return;
+        }
+        if (changed.size() + rects.size() > MAX_RECTS) {
+            changed.clear();
+            allChanged = true;
+            return;
+        }
+        for (Rectangle r : rects) {
+            changed.add(new Rectangle(r));
+        }
+    }
+
+    /**
+     * Draw an unscaled part of the image.
+     * @param g graphics context to draw to
+     * @param dx x position in the graphics context
+     * @param dy y position in the graphics context
+     * @param sx x position in the image
+     * @param sy y position in the image
+     * @param width width in pixels
+     * @param height height in pixels
+     */
+    public synchronized void draw(final GraphicsContext g, final int dx, final int dy,
+            final int sx, final int sy, final int width, final int height) {
+        if (source == null) {
+            return;
+        }
+        if (failed || !update()) {
+            g.drawImage(source, dx, dy, dx + width, dy + height, sx, sy, sx + width, sy + height);
+            return;
+        }
+        do {
+            g.drawImage(image, dx, dy, dx + width, dy + height, sx, sy, sx + width, sy + height);
+        } while (image.contentsLost() && update());
+    }
+
+    /**
+     * Release the video memory.
+     */
+    public synchronized void flush() {
+        if (image != null) {
+            image.flush();
+            image = null;
+        }
+        allChanged = true;
+    }
+
+    /**
+     * Bring the copy up to date, creating or restoring it if needed.
+     * @return true if the copy can be drawn, false if the software image has to be used
+     */
+    private boolean update() {
+        int status = (image == null) ? VolatileImage.IMAGE_INCOMPATIBLE : image.validate(gc);
+        if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+            if (image != null) {
+                image.flush();
+            }
+            image = gc.createCompatibleVolatileImage(source.getWidth(), source.getHeight(), Transparency.TRANSLUCENT);
+            if (image == null || image.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                System.out.println("accelerated image not available, using software rendering");
+                image = null;
+                failed = true;
+                return false;
+            }
+            allChanged = true;
+        } else if (status == VolatileImage.IMAGE_RESTORED) {
+            allChanged = true;
+        }
+
+        if (allChanged) {
+            changed.clear();
+            changed.add(new Rectangle(0, 0, source.getWidth(), source.getHeight()));
+        }
+        if (!changed.isEmpty()) {
+            Graphics2D g = image.createGraphics();
+            try {
+                // replace the pixels, including their alpha
+                g.setComposite(AlphaComposite.Src);
+                for (Rectangle r : changed) {
+                    g.drawImage(source.getImage(), r.x, r.y, r.x + r.width, r.y + r.height,
+                            r.x, r.y, r.x + r.width, r.y + r.height, null);
+                }
+            } finally {
+                g.dispose();
+            }
+            changed.clear();
+            allChanged = false;
+        }
+        return true;
+    }
+}
@@ -3,6 +3,7 @@ package lemmini.graphics;
 import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics2D;
+import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
 import java.awt.image.PixelGrabber;
@@ -193,6 +194,15 @@ public class GraphicsContext {
         graphics.drawImage(image.getImage(), dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
     }
 
+    /**
+     * Draws the specified area of an image that isn't a {@link LemmImage}, e.g. an image in
+     * video memory, into the specified area of this graphics context.
+     * @see #drawImage(LemmImage, int, int, int, int, int, int, int, int)
+     */
+    public void drawImage(Image image, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2) {
+        graphics.drawImage(image, dx1, dy1, dx2, dy2, sx1, sy1, sx2, sy2, null);
+    }
+
     public void setRenderingHint(RenderingHints.Key hintKey, Object hintValue) {
         graphics.setRenderingHint(hintKey, hintValue);
     }
@@ -3,6 +3,11 @@ package lemmini.graphics;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Map;
@@ -32,6 +37,12 @@ import lemmini.tools.ToolBox;
 public class LemmImage {
 
     private final BufferedImage image;
+    /** pixels of the image once direct access is enabled, otherwise null */
+    private int[] pixels;
+    /** index of pixel (0,0) in {@link #pixels} */
+    private int pixelOffset;
+    /** distance between the starts of two rows in {@link #pixels} */
+    private int scanlineStride;
 
     public LemmImage(BufferedImage image) {
         this.image = image;
@@ -120,6 +131,8 @@ public class LemmImage {
         }
         int width2 = tmp.getWidth();
         int height2 = tmp.getHeight();
+        int[] src = getRGB(0, 0, width, height, null, 0, width);
+        int[] dst = new int[width2 * height2];
 
         for (int y = 0; y < height; y++) {
             for (int x = 0; x < width; x++) {
@@ -138,9 +151,10 @@ public class LemmImage {
                     x2 = width2 - 1 - x2;
                 }
 
-                tmp.setRGB(x2, y2, image.getRGB(x, y));
+                dst[x2 + y2 * width2] = src[x + y * width];
             }
         }
+        tmp.setRGB(0, 0, width2, height2, dst, 0, width2);
 
         return new LemmImage(tmp);
     }
@@ -161,20 +175,168 @@ public class LemmImage {
         return image.getHeight();
     }
 
+    /**
+     * Work directly on the pixel array of this image from now on, instead of going through
+     * the color model of the BufferedImage for every pixel. This is only possible for
+     * TYPE_INT_ARGB images.
+     * <p>
+     * Once the pixel array has been handed out, Java2D can't keep an accelerated copy of the
+     * image any more. So this should only be enabled for images that are edited pixel by pixel
+     * while the game is running (foreground and minimap), where such a copy would be thrown
+     * away all the time anyway. All other images keep using the bulk methods, which copy pixels
+     * through the raster and leave the image managed.
+     * @return true if direct access is enabled, false if the image type doesn't allow it
+     */
+    public boolean enableDirectAccess() {
+        if (pixels != null) {
+            return true;
+        }
+        WritableRaster raster = image.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        if (image.getType() != BufferedImage.TYPE_INT_ARGB
+                || !(dataBuffer instanceof DataBufferInt)
+                || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+            return false;
+        }
+        scanlineStride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        pixelOffset = dataBuffer.getOffset()
+                - raster.getSampleModelTranslateY() * scanlineStride - raster.getSampleModelTranslateX();
+        pixels = ((DataBufferInt) dataBuffer).getData();
+        return true;
+    }
+
+    public boolean hasDirectAccess() {
+        return pixels != null;
+    }
+
+    /**
+     * Get the pixel array of this image (ARGB, not premultiplied).
+     * Use {@link #getPixelIndex(int, int)} and {@link #getScanlineStride()} to address it.
+     * @return pixel array, or null if direct access isn't enabled
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Get the index of a pixel in the array returned by {@link #getPixels()}.
+     * @param x x position in pixels (not checked)
+     * @param y y position in pixels (not checked)
+     * @return array index
+     */
+    public int getPixelIndex(int x, int y) {
+        return pixelOffset + x + y * scanlineStride;
+    }
+
+    /**
+     * Get the distance between the starts of two rows in the array returned by {@link #getPixels()}.
+     * @return distance in array elements
+     */
+    public int getScanlineStride() {
+        return scanlineStride;
+    }
+
     public int getRGB(int x, int y) {
         if (x >= 0 && x < getWidth() && y >= 0 && y < getHeight()) {
-            return image.getRGB(x, y);
+            return readRGB(x, y);
         } else {
             return 0;
         }
     }
 
     public int[] getRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset, int scansize) {
-        return image.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+        if (pixels == null) {
+            return image.getRGB(startX, startY, w, h, rgbArray, offset, scansize);
+        }
+        checkRect(startX, startY, w, h);
+        int[] rgb = (rgbArray != null) ? rgbArray : new int[offset + h * scansize];
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(pixels, getPixelIndex(startX, startY + y), rgb, offset + y * scansize, w);
+        }
+        return rgb;
     }
 
     public void setRGB(int x, int y, int rgb) {
         if (x >= 0 && x < getWidth() && y >= 0 && y < getHeight()) {
+            writeRGB(x, y, rgb);
+        }
+    }
+
+    /**
+     * Set a rectangle of pixels.
+     * @param startX x position of the left edge in pixels
+     * @param startY y position of the top edge in pixels
+     * @param w width in pixels
+     * @param h height in pixels
+     * @param rgbArray ARGB values
+     * @param offset index of the first pixel in rgbArray
+     * @param scansize distance between the starts of two rows in rgbArray
+     */
+    public void setRGB(int startX, int startY, int w, int h, int[] rgbArray, int offset, int scansize) {
+        if (pixels == null) {
+            image.setRGB(startX, startY, w, h, rgbArray, offset, scansize);
+            return;
+        }
+        checkRect(startX, startY, w, h);
+        for (int y = 0; y < h; y++) {
+            System.arraycopy(rgbArray, offset + y * scansize, pixels, getPixelIndex(startX, startY + y), w);
+        }
+    }
+
+    /**
+     * Fill a rectangle with one ARGB value (no blending). The rectangle is clipped to the image.
+     * @param x x position of the left edge in pixels
+     * @param y y position of the top edge in pixels
+     * @param w width in pixels
+     * @param h height in pixels
+     * @param rgb ARGB value
+     */
+    public void fillRect(int x, int y, int w, int h, int rgb) {
+        int xMin = Math.max(x, 0);
+        int yMin = Math.max(y, 0);
+        int xMax = Math.min(x + w, getWidth());
+        int yMax = Math.min(y + h, getHeight());
+        if (xMin >= xMax || yMin >= yMax) {
+            return;
+        }
+        if (pixels != null) {
+            for (int yp = yMin; yp < yMax; yp++) {
+                int start = getPixelIndex(xMin, yp);
+                Arrays.fill(pixels, start, start + xMax - xMin, rgb);
+            }
+        } else {
+            int[] row = new int[xMax - xMin];
+            Arrays.fill(row, rgb);
+            for (int yp = yMin; yp < yMax; yp++) {
+                image.setRGB(xMin, yp, row.length, 1, row, 0, row.length);
+            }
+        }
+    }
+
+    /**
+     * Make sure that a rectangle lies completely inside the image before the pixel array is
+     * indexed with it. The raw array would silently wrap into the next row instead, so throw
+     * the same exception that BufferedImage throws.
+     * @param x x position of the left edge in pixels
+     * @param y y position of the top edge in pixels
+     * @param w width in pixels
+     * @param h height in pixels
+     */
+    private void checkRect(int x, int y, int w, int h) {
+        if (w < 0 || h < 0 || x < 0 || y < 0
+                || x > getWidth() - w || y > getHeight() - h) {
+            throw new ArrayIndexOutOfBoundsException("Coordinate out of bounds!");
+        }
+    }
+
+    private int readRGB(int x, int y) {
+        return (pixels != null) ? pixels[getPixelIndex(x, y)] : image.getRGB(x, y);
+    }
+
+    private void writeRGB(int x, int y, int rgb) {
+        if (pixels != null) {
+            pixels[getPixelIndex(x, y)] = rgb;
+        } else {
             image.setRGB(x, y, rgb);
         }
     }
@@ -184,30 +346,18 @@ public class LemmImage {
             return;
         }
 
-        final double alphaA = intToDouble((image.getRGB(x, y) >>> 24) & 0xff);
-        final double alphaB = intToDouble((rgb >>> 24) & 0xff);
-        if (alphaB <= 0.0) {
+        final int alphaB = rgb >>> 24;
+        if (alphaB == 0) {
             return;
-        } else if (alphaA <= 0.0 || alphaB >= 1.0) {
-            image.setRGB(x, y, rgb);
+        }
+        final int rgbA = readRGB(x, y);
+        final int alphaA = rgbA >>> 24;
+        if (alphaA == 0 || alphaB == 0xff) {
+            writeRGB(x, y, rgb);
             return;
         }
-        final double redA = intToDouble((image.getRGB(x, y) >>> 16) & 0xff);
-        final double greenA = intToDouble((image.getRGB(x, y) >>> 8) & 0xff);
-        final double blueA = intToDouble(image.getRGB(x, y) & 0xff);
-        final double redB = intToDouble((rgb >>> 16) & 0xff);
-        final double greenB = intToDouble((rgb >>> 8) & 0xff);
-        final double blueB = intToDouble(rgb & 0xff);
 
-        double alphaNew = alphaB + alphaA * (1.0 - alphaB);
-        double redNew = (redB * alphaB + redA * alphaA * (1.0 - alphaB)) / alphaNew;
-        double greenNew = (greenB * alphaB + greenA * alphaA * (1.0 - alphaB)) / alphaNew;
-        double blueNew = (blueB * alphaB + blueA * alphaA * (1.0 - alphaB)) / alphaNew;
-
-        int rgbNew = (doubleToInt(alphaNew) << 24) | (doubleToInt(redNew) << 16)
-                | (doubleToInt(greenNew) << 8) | doubleToInt(blueNew);
-
-        image.setRGB(x, y, rgbNew);
+        writeRGB(x, y, blend(rgb, rgbA));
     }
 
     public void addRGBBehind(int x, int y, int rgb) {
@@ -215,43 +365,33 @@ public class LemmImage {
             return;
         }
 
-        final double alphaA = intToDouble((image.getRGB(x, y) >>> 24) & 0xff);
-        final double alphaB = intToDouble((rgb >>> 24) & 0xff);
-        if (alphaA >= 1.0 || alphaB <= 0.0) {
+        final int rgbA = readRGB(x, y);
+        final int alphaA = rgbA >>> 24;
+        final int alphaB = rgb >>> 24;
+        if (alphaA == 0xff || alphaB == 0) {
             return;
-        } else if (alphaA <= 0.0) {
-            image.setRGB(x, y, rgb);
+        } else if (alphaA == 0) {
+            writeRGB(x, y, rgb);
             return;
         }
-        final double redA = intToDouble((image.getRGB(x, y) >>> 16) & 0xff);
-        final double greenA = intToDouble((image.getRGB(x, y) >>> 8) & 0xff);
-        final double blueA = intToDouble(image.getRGB(x, y) & 0xff);
-        final double redB = intToDouble((rgb >>> 16) & 0xff);
-        final double greenB = intToDouble((rgb >>> 8) & 0xff);
-        final double blueB = intToDouble(rgb & 0xff);
-
-        double alphaNew = alphaA + alphaB * (1.0 - alphaA);
-        double redNew = (redA * alphaA + redB * alphaB * (1.0 - alphaA)) / alphaNew;
-        double greenNew = (greenA * alphaA + greenB * alphaB * (1.0 - alphaA)) / alphaNew;
-        double blueNew = (blueA * alphaA + blueB * alphaB * (1.0 - alphaA)) / alphaNew;
 
-        int rgbNew = (doubleToInt(alphaNew) << 24) | (doubleToInt(redNew) << 16)
-                | (doubleToInt(greenNew) << 8) | doubleToInt(blueNew);
-
-        image.setRGB(x, y, rgbNew);
+        writeRGB(x, y, blend(rgbA, rgb));
     }
 
     public void replaceColor(int oldRGB, int newRGB) {
         int w = getWidth();
         int h = getHeight();
-        for (int xp = 0; xp < w; xp++) {
-            for (int yp = 0; yp < h; yp++) {
-                int rgb = getRGB(xp, yp);
-                if ((rgb & 0x00ffffff) == oldRGB) {
-                    setRGB(xp, yp, (newRGB & 0x00ffffff) | (rgb & 0xff000000));
-                }
+        int[] rgb = getRGB(0, 0, w, h, null, 0, w);
+        boolean changed = false;
+        for (int i = 0; i < rgb.length; i++) {
+            if ((rgb[i] & 0x00ffffff) == oldRGB) {
+                rgb[i] = (newRGB & 0x00ffffff) | (rgb[i] & 0xff000000);
+                changed = true;
             }
         }
+        if (changed) {
+            setRGB(0, 0, w, h, rgb, 0, w);
+        }
     }
 
     public void removeAlpha(int x, int y, int alpha) {
@@ -259,20 +399,20 @@ public class LemmImage {
             return;
         }
 
-        final double alphaA = intToDouble((image.getRGB(x, y) >>> 24) & 0xff);
-        final double alphaB = intToDouble(alpha);
-        if (alphaB >= 1.0) {
-            image.setRGB(x, y, 0);
+        final int alphaB = ToolBox.cap(0, alpha, 0xff);
+        if (alphaB == 0xff) {
+            writeRGB(x, y, 0);
             return;
-        } else if (alphaB <= 0.0) {
+        } else if (alphaB == 0) {
             return;
         }
 
-        int alphaNew = doubleToInt(alphaA * (1.0 - alphaB));
+        final int rgbA = readRGB(x, y);
+        int alphaNew = mulDiv255(rgbA >>> 24, 0xff - alphaB);
         if (alphaNew > 0) {
-            image.setRGB(x, y, image.getRGB(x, y) & 0xffffff | alphaNew << 24);
+            writeRGB(x, y, rgbA & 0xffffff | alphaNew << 24);
         } else {
-            image.setRGB(x, y, 0);
+            writeRGB(x, y, 0);
         }
     }
 
@@ -281,50 +421,100 @@ public class LemmImage {
     }
 
     public void applyTint(int tint) {
-        final double alphaTint = intToDouble((tint >>> 24) & 0xff);
-        final double redTint = intToDouble((tint >>> 16) & 0xff);
-        final double greenTint = intToDouble((tint >>> 8) & 0xff);
-        final double blueTint = intToDouble(tint & 0xff);
-        if (alphaTint <= 0.0) {
+        if ((tint >>> 24) == 0) {
             return;
         }
-        for (int y = 0; y < image.getHeight(); y++) {
-            for (int x = 0; x < image.getWidth(); x++) {
-                image.setRGB(x, y, applyTint(image.getRGB(x, y), alphaTint, redTint, greenTint, blueTint));
-            }
+        int w = getWidth();
+        int h = getHeight();
+        int[] rgb = getRGB(0, 0, w, h, null, 0, w);
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = applyTint(rgb[i], tint);
         }
+        setRGB(0, 0, w, h, rgb, 0, w);
     }
 
     public static int applyTint(int original, int tint) {
-        final double alphaTint = intToDouble((tint >>> 24) & 0xff);
-        final double redTint = intToDouble((tint >>> 16) & 0xff);
-        final double greenTint = intToDouble((tint >>> 8) & 0xff);
-        final double blueTint = intToDouble(tint & 0xff);
-
-        return applyTint(original, alphaTint, redTint, greenTint, blueTint);
-    }
-
-    private static int applyTint(int original, double alphaTint, double redTint, double greenTint, double blueTint) {
-        if (alphaTint <= 0.0) {
+        final int alphaTint = tint >>> 24;
+        if (alphaTint == 0) {
             return original;
         }
 
-        int alphaOrig = (original >>> 24) & 0xff;
-        if (alphaOrig <= 0) {
+        int alphaOrig = original >>> 24;
+        if (alphaOrig == 0) {
             return original;
         }
-        double redOrig = intToDouble((original >>> 16) & 0xff);
-        double greenOrig = intToDouble((original >>> 8) & 0xff);
-        double blueOrig = intToDouble(original & 0xff);
 
-        double redNew = redTint * alphaTint + redOrig * (1.0 - alphaTint);
-        double greenNew = greenTint * alphaTint + greenOrig * (1.0 - alphaTint);
-        double blueNew = blueTint * alphaTint + blueOrig * (1.0 - alphaTint);
+        int redNew = mix((tint >>> 16) & 0xff, (original >>> 16) & 0xff, alphaTint);
+        int greenNew = mix((tint >>> 8) & 0xff, (original >>> 8) & 0xff, alphaTint);
+        int blueNew = mix(tint & 0xff, original & 0xff, alphaTint);
+
+        return (alphaOrig << 24) | (redNew << 16) | (greenNew << 8) | blueNew;
+    }
+
+    /*
+     * The compositing below works on 8 bit integer channels. Every result is the exact
+     * rational value of the floating-point formula (e.g. alpha = aFront + aBack * (1 - aFront)
+     * with all values scaled to 0..1), rounded half up. Results of the form n/255 can never be
+     * exactly halfway between two integers, so they match the floating-point version bit for bit.
+     * Color channels divide by the new alpha and can hit an exact tie; those rare cases are
+     * handed to the floating-point formula so that its rounding is kept as well.
+     */
+
+    /**
+     * Composite a partly transparent pixel over a partly transparent pixel.
+     * @param front ARGB value of the pixel in front (alpha 1..254)
+     * @param back ARGB value of the pixel behind (alpha 1..254)
+     * @return composited ARGB value
+     */
+    private static int blend(int front, int back) {
+        final int alphaF = front >>> 24;
+        final int alphaB = back >>> 24;
+        final int alphaNew = alphaF + mulDiv255(alphaB, 0xff - alphaF);
+        final int red = blendChannel((front >>> 16) & 0xff, alphaF, (back >>> 16) & 0xff, alphaB);
+        final int green = blendChannel((front >>> 8) & 0xff, alphaF, (back >>> 8) & 0xff, alphaB);
+        final int blue = blendChannel(front & 0xff, alphaF, back & 0xff, alphaB);
+        return (alphaNew << 24) | (red << 16) | (green << 8) | blue;
+    }
 
-        int rgbNew = (alphaOrig << 24) | (doubleToInt(redNew) << 16)
-                | (doubleToInt(greenNew) << 8) | doubleToInt(blueNew);
+    /**
+     * Composite one color channel: (cF*aF + cB*aB*(1-aF)) / (aF + aB*(1-aF)).
+     * @param colorF channel value of the pixel in front
+     * @param alphaF alpha value of the pixel in front (1..254)
+     * @param colorB channel value of the pixel behind
+     * @param alphaB alpha value of the pixel behind (1..254)
+     * @return channel value
+     */
+    private static int blendChannel(int colorF, int alphaF, int colorB, int alphaB) {
+        final int num = colorF * alphaF * 0xff + colorB * alphaB * (0xff - alphaF);
+        final int den = alphaF * 0xff + alphaB * (0xff - alphaF);
+        if ((2 * num) % (2 * den) == den) {
+            // exactly halfway: use the floating-point formula to keep its rounding
+            final double af = intToDouble(alphaF);
+            final double ab = intToDouble(alphaB);
+            return doubleToInt((intToDouble(colorF) * af + intToDouble(colorB) * ab * (1.0 - af)) / (af + ab * (1.0 - af)));
+        }
+        return (2 * num + den) / (2 * den);
+    }
+
+    /**
+     * Mix one color channel: cF*a + cB*(1-a).
+     * @param colorF channel value mixed in
+     * @param colorB original channel value
+     * @param alpha weight of colorF (0..255)
+     * @return channel value
+     */
+    private static int mix(int colorF, int colorB, int alpha) {
+        return (colorF * alpha + colorB * (0xff - alpha) + 127) / 0xff;
+    }
 
-        return rgbNew;
+    /**
+     * Compute a*b/255, rounded to the nearest integer.
+     * @param a first factor
+     * @param b second factor
+     * @return rounded result
+     */
+    private static int mulDiv255(int a, int b) {
+        return (a * b + 127) / 0xff;
     }
 
     private static double intToDouble(int i) {
@@ -0,0 +1,204 @@
+package lemmini.graphics;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.awt.image.VolatileImage;
+import java.util.Locale;
+
+/**
+ * Scales the finished frame to the screen.
+ * At integer scales, the frame is always drawn with nearest neighbor interpolation, which then
+ * just replicates each pixel into a square and is by far the cheapest way to scale, also when
+ * bilinear filtering is enabled: there's nothing to filter. At other scales with bilinear
+ * filtering, frames in video memory are scaled to the largest integer scale below first and
+ * only the small remaining factor is interpolated, which keeps the pixels sharp. Software
+ * frames are interpolated directly, since the extra pass only costs time in software.
+ */
+public class ScreenScaler {
+
+    /** scales this close to an integer are treated as that integer */
+    private static final double EPSILON = 1e-9;
+
+    private double scale = 1.0;
+    private boolean bilinear;
+    /** accelerated frame scaled to an integer scale, or null */
+    private VolatileImage intermediate;
+
+    /**
+     * Set the scale and the interpolation used for the following frames.
+     * @param s zoom scale
+     * @param b true: bilinear filtering for non-integer scales, false: nearest neighbor
+     */
+    public void setScale(final double s, final boolean b) {
+        scale = s;
+        bilinear = b;
+    }
+
+    /**
+     * Draw an image scaled to the screen.
+     * @param g graphics of the screen
+     * @param src image to draw
+     */
+    public void draw(final Graphics2D g, final Image src) {
+        int srcW = src.getWidth(null);
+        int srcH = src.getHeight(null);
+        int w = (int) Math.ceil(srcW * scale);
+        int h = (int) Math.ceil(srcH * scale);
+        int factor = getIntegerFactor(scale);
+        boolean exact = isInteger(scale);
+        if (!exact && bilinear && factor > 1 && src instanceof VolatileImage) {
+            Image scaled = scaleAccelerated(g.getDeviceConfiguration(), src, factor);
+            if (scaled != null) {
+                // bilinear fixup of the remaining factor
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(scaled, 0, 0, w, h, 0, 0, srcW * factor, srcH * factor, null);
+                return;
+            }
+        }
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                (bilinear && !exact)
+                        ? RenderingHints.VALUE_INTERPOLATION_BILINEAR
+                        : RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        if (exact && factor == 1) {
+            g.drawImage(src, 0, 0, null);
+        } else {
+            g.drawImage(src, 0, 0, w, h, 0, 0, srcW, srcH, null);
+        }
+    }
+
+    /**
+     * Release the cached buffers.
+     */
+    public void flush() {
+        if (intermediate != null) {
+            intermediate.flush();
+            intermediate = null;
+        }
+    }
+
+    /**
+     * Get the largest integer scale that isn't above a given scale.
+     * @param s zoom scale
+     * @return integer scale, at least 1
+     */
+    public static int getIntegerFactor(final double s) {
+        return Math.max((int) Math.floor(s + EPSILON), 1);
+    }
+
+    /**
+     * Check whether a scale is an integer.
+     * @param s zoom scale
+     * @return true if the scale is an integer
+     */
+    public static boolean isInteger(final double s) {
+        return Math.abs(s - Math.rint(s)) < EPSILON;
+    }
+
+    /**
+     * Scale an accelerated image by an integer factor in video memory.
+     * @param gc graphics configuration of the screen
+     * @param src source image
+     * @param factor integer scale
+     * @return scaled image, or null if it can't be created
+     */
+    private Image scaleAccelerated(final GraphicsConfiguration gc, final Image src, final int factor) {
+        int dstW = src.getWidth(null) * factor;
+        int dstH = src.getHeight(null) * factor;
+        if (intermediate != null && (intermediate.getWidth() != dstW || intermediate.getHeight() != dstH
+                || intermediate.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE)) {
+            intermediate.flush();
+            intermediate = null;
+        }
+        if (intermediate == null) {
+            intermediate = gc.createCompatibleVolatileImage(dstW, dstH, Transparency.OPAQUE);
+            if (intermediate == null || intermediate.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                intermediate = null;
+                return null;
+            }
+        }
+        Graphics2D g = intermediate.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            g.drawImage(src, 0, 0, dstW, dstH, null);
+        } finally {
+            g.dispose();
+        }
+        return intermediate.contentsLost() ? null : intermediate;
+    }
+
+    /**
+     * Measure the cost of drawing a software frame to the screen at common resolutions and
+     * print the results, both at the scale that fits the panel and at the integer scale that
+     * is used if integer scales are locked. The screen is a software image here, so the
+     * numbers show the cost of the software pipeline.
+     */
+    public static void benchmark() {
+        int[][] resolutions = {{1280, 720}, {1600, 900}, {1920, 1080}, {2560, 1440}, {3840, 2160}};
+        // the panel is scaled to fit 800x450, the minimum size of the game
+        int minHeight = 450;
+        for (int[] res : resolutions) {
+            int w = res[0];
+            int h = res[1];
+            double s = (double) h / minHeight;
+            int factor = getIntegerFactor(s);
+            BufferedImage screen = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            BufferedImage frame = createTestFrame((int) Math.round(w / s), (int) Math.round(h / s));
+            BufferedImage frameInt = createTestFrame((int) Math.round((double) w / factor), (int) Math.round((double) h / factor));
+
+            Graphics2D g = screen.createGraphics();
+            try {
+                System.out.println(String.format(Locale.ROOT,
+                        "%dx%d scale %.2f: nearest %.2f ms, bilinear %.2f ms; integer scale %d: %.2f ms",
+                        w, h, s, measure(g, frame, s, false), measure(g, frame, s, true),
+                        factor, measure(g, frameInt, factor, true)));
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+
+    /**
+     * Create a frame with some structure for the benchmark.
+     * @param w width in pixels
+     * @param h height in pixels
+     * @return image
+     */
+    private static BufferedImage createTestFrame(final int w, final int h) {
+        BufferedImage img = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                img.setRGB(x, y, (x * 7) ^ (y * 13) ^ ((x / 16 + y / 16) << 16));
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Measure the average time of drawing a frame to the screen.
+     * @param g graphics of the screen
+     * @param frame frame to draw
+     * @param s zoom scale
+     * @param b bilinear filtering
+     * @return average time in milliseconds
+     */
+    private static double measure(final Graphics2D g, final BufferedImage frame, final double s, final boolean b) {
+        ScreenScaler scaler = new ScreenScaler();
+        scaler.setScale(s, b);
+        for (int i = 0; i < 20; i++) {
+            scaler.draw(g, frame);
+        }
+        int n = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            scaler.draw(g, frame);
+            n++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < 1_000_000_000L && n < 1000);
+        return elapsed / 1e6 / n;
+    }
+}
@@ -0,0 +1,90 @@
+package lemmini.graphics;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.VolatileImage;
+
+/**
+ * Drawing buffer in video memory. The buffer is meant to be drawn completely each frame,
+ * so lost contents don't have to be restored, only detected.
+ */
+public class VolatileBuffer {
+
+    /** graphics configuration of the screen */
+    private final GraphicsConfiguration gc;
+    private final int transparency;
+    private VolatileImage image;
+    private int width;
+    private int height;
+
+    /**
+     * Constructor.
+     * @param gc graphics configuration of the screen
+     * @param width width in pixels
+     * @param height height in pixels
+     * @param transparency {@link Transparency}
+     */
+    public VolatileBuffer(final GraphicsConfiguration gc, final int width, final int height, final int transparency) {
+        this.gc = gc;
+        this.transparency = transparency;
+        setSize(width, height);
+    }
+
+    /**
+     * Resize the buffer. The image is recreated the next time a frame is drawn.
+     * @param w width in pixels
+     * @param h height in pixels
+     */
+    public synchronized void setSize(final int w, final int h) {
+        width = w;
+        height = h;
+    }
+
+    /**
+     * Start drawing a frame. The returned context has to be disposed by the caller.
+     * @return graphics context, or null if the buffer can't be created
+     */
+    public synchronized GraphicsContext createGraphicsContext() {
+        if (image != null && (image.getWidth() != width || image.getHeight() != height
+                || image.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE)) {
+            image.flush();
+            image = null;
+        }
+        if (image == null) {
+            image = gc.createCompatibleVolatileImage(width, height, transparency);
+            if (image == null || image.validate(gc) == VolatileImage.IMAGE_INCOMPATIBLE) {
+                image = null;
+                return null;
+            }
+        }
+        Graphics2D g = image.createGraphics();
+        g.setBackground((transparency == Transparency.OPAQUE) ? Color.BLACK : new Color(0, 0, 0, 0));
+        return new GraphicsContext(g);
+    }
+
+    /**
+     * Draw the last frame.
+     * @param g graphics to draw to
+     * @param scaler scaler of the frame
+     * @return true if the frame was drawn, false if its contents were lost
+     */
+    public synchronized boolean draw(final Graphics2D g, final ScreenScaler scaler) {
+        if (image == null || image.validate(gc) != VolatileImage.IMAGE_OK) {
+            return false;
+        }
+        scaler.draw(g, image);
+        return !image.contentsLost();
+    }
+
+    /**
+     * Release the video memory.
+     */
+    public synchronized void dispose() {
+        if (image != null) {
+            image.flush();
+            image = null;
+        }
+    }
+}
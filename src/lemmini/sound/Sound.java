@@ -159,6 +159,8 @@ public class Sound {
     private final AudioFormat[] origPitchFormats;
     /** gain/volume: 1.0 = 100% */
     private double gain;
+    /** flag: sounds and visual SFX are suppressed, e.g. while simulating ahead */
+    private volatile boolean muted;
     /** selected mixer index */
     static int mixerIdx;
     /** list of available mixers */
@@ -414,7 +416,7 @@ public class Sound {
      * @param pan panning
      */
     public void play(final int idx, final double pan) {
-        if (idx < 0 || !GameController.isOptionEnabled(GameController.Option.SOUND_ON)) {
+        if (idx < 0 || muted || !GameController.isOptionEnabled(GameController.Option.SOUND_ON)) {
             return;
         }
 
@@ -472,7 +474,7 @@ public class Sound {
      * @param y
      */
     public void playVisualSFXSilent(final int idx, final int x, final int y) {
-        if (GameController.isOptionEnabled(GameController.SLTooOption.VISUAL_SFX) && idx >= 0 && idx < Vsfx.VSFX_COUNT) {
+        if (!muted && GameController.isOptionEnabled(GameController.SLTooOption.VISUAL_SFX) && idx >= 0 && idx < Vsfx.VSFX_COUNT) {
             Vsfx v = new Vsfx(x, y, idx);
             GameController.addVsfx(v);
         }
@@ -543,7 +545,7 @@ public class Sound {
      * @param pitch pitch value
      */
     public void playPitched(final PitchedEffect pe, final int pitch) {
-        if (!GameController.isOptionEnabled(GameController.Option.SOUND_ON)) {
+        if (muted || !GameController.isOptionEnabled(GameController.Option.SOUND_ON)) {
             return;
         }
 
@@ -806,6 +808,22 @@ public class Sound {
         lineHandlers.stream().forEach(lh -> lh.setGain(gn));
     }
 
+    /**
+     * Check whether sounds and visual SFX are suppressed.
+     * @return true if muted
+     */
+    public boolean isMuted() {
+        return muted;
+    }
+
+    /**
+     * Suppress sounds and visual SFX, e.g. while the simulation runs ahead without being shown.
+     * @param m true: suppress, false: play again
+     */
+    public void setMuted(final boolean m) {
+        muted = m;
+    }
+
     public float getSampleRate() {
         return sampleRate;
     }
@@ -0,0 +1,152 @@
+package lemmini.tools;
+
+import java.util.Locale;
+
+/**
+ * Paces a game loop with a fixed timestep. Every period one tick is due; if the loop falls
+ * behind, the missed ticks are simulated in a row and only the last one is rendered, so the
+ * game keeps its speed and only the frame rate drops. If more than a given number of ticks
+ * are due at once, the rest is dropped and the game slows down.
+ * Also counts late ticks, skipped renders, dropped ticks and the longest frame time.
+ */
+public class FixedTimestep {
+
+    /** below this remaining time, the loop yields instead of sleeping */
+    private static final long NANOSEC_SPIN = 2_000_000;
+
+    /** time between two ticks in nanoseconds */
+    private final long period;
+    /** timer whose time base is the due time of the last tick */
+    private final NanosecondTimer timer = new NanosecondTimer();
+    /** maximum number of ticks simulated without rendering in between */
+    private int maxCatchUp;
+    /** start of the work for the last batch of ticks */
+    private long workStart;
+
+    private long ticks;
+    private long lateTicks;
+    private long skippedRenders;
+    private long droppedTicks;
+    private long maxFrameTime;
+
+    /**
+     * Constructor.
+     * @param period time between two ticks in nanoseconds
+     * @param maxCatchUp maximum number of ticks simulated without rendering in between;
+     *        1 means that late ticks are dropped, which slows the game down
+     */
+    public FixedTimestep(final long period, final int maxCatchUp) {
+        this.period = period;
+        setMaxCatchUp(maxCatchUp);
+        workStart = System.nanoTime();
+    }
+
+    /**
+     * Set the maximum number of ticks simulated without rendering in between.
+     * @param m maximum number of ticks, at least 1
+     */
+    public synchronized void setMaxCatchUp(final int m) {
+        maxCatchUp = Math.max(m, 1);
+    }
+
+    /**
+     * Wait until the next tick is due.
+     * @return number of ticks to simulate before rendering the next frame
+     */
+    public int nextTicks() {
+        long now = System.nanoTime();
+        long frameTime = now - workStart;
+        long remaining = period - timer.delta();
+        while (remaining > 0) {
+            if (remaining > NANOSEC_SPIN) {
+                try {
+                    Thread.sleep((remaining - NANOSEC_SPIN) / 1_000_000);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            } else {
+                Thread.yield();
+            }
+            remaining = period - timer.delta();
+        }
+        workStart = System.nanoTime();
+
+        long due = Math.max(timer.delta() / period, 1);
+        timer.update(due * period);
+        synchronized (this) {
+            maxFrameTime = Math.max(maxFrameTime, frameTime);
+            int n = (int) Math.min(due, maxCatchUp);
+            ticks += n;
+            lateTicks += n - 1;
+            skippedRenders += n - 1;
+            droppedTicks += due - n;
+            return n;
+        }
+    }
+
+    /**
+     * Forget the time that passed since the last tick, e.g. after the loop did something that
+     * shouldn't be made up for. The next tick is due one period from now.
+     */
+    public void resync() {
+        timer.update();
+    }
+
+    /**
+     * Get the number of simulated ticks.
+     * @return number of ticks
+     */
+    public synchronized long getTicks() {
+        return ticks;
+    }
+
+    /**
+     * Get the number of ticks that were simulated late, to catch up.
+     * @return number of late ticks
+     */
+    public synchronized long getLateTicks() {
+        return lateTicks;
+    }
+
+    /**
+     * Get the number of ticks that weren't rendered.
+     * @return number of skipped renders
+     */
+    public synchronized long getSkippedRenders() {
+        return skippedRenders;
+    }
+
+    /**
+     * Get the number of ticks that were dropped because the loop fell too far behind.
+     * @return number of dropped ticks
+     */
+    public synchronized long getDroppedTicks() {
+        return droppedTicks;
+    }
+
+    /**
+     * Get the longest time spent simulating and rendering between two waits.
+     * @return time in nanoseconds
+     */
+    public synchronized long getMaxFrameTime() {
+        return maxFrameTime;
+    }
+
+    /**
+     * Reset all counters.
+     */
+    public synchronized void resetStats() {
+        ticks = 0;
+        lateTicks = 0;
+        skippedRenders = 0;
+        droppedTicks = 0;
+        maxFrameTime = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT, "%d ticks, %d late, %d renders skipped, %d dropped, max frame time %.1f ms",
+                ticks, lateTicks, skippedRenders, droppedTicks, maxFrameTime / 1e6);
+    }
+}
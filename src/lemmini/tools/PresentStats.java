@@ -0,0 +1,73 @@
+package lemmini.tools;
+
+import java.util.Locale;
+
+/**
+ * Statistics of presented frames: the mean, standard deviation and maximum of the time between
+ * two presented frames, and the latency from queuing an input until the first frame that
+ * could show its effect was presented.
+ */
+public class PresentStats {
+
+    /** time of the last presented frame in nanoseconds, or 0 */
+    private long lastPresent;
+    private long frames;
+    /** number of measured intervals */
+    private long intervals;
+    /** mean interval in nanoseconds */
+    private double mean;
+    /** sum of squared differences from the mean (Welford) */
+    private double m2;
+    private long maxInterval;
+    private long inputs;
+    private long latencySum;
+    private long maxLatency;
+
+    /**
+     * Count a presented frame.
+     * @param now time the frame was presented in nanoseconds
+     * @param inputTime time the oldest input shown in this frame was queued, or 0 if none
+     */
+    public synchronized void presented(final long now, final long inputTime) {
+        frames++;
+        if (lastPresent != 0) {
+            long interval = now - lastPresent;
+            intervals++;
+            double delta = interval - mean;
+            mean += delta / intervals;
+            m2 += delta * (interval - mean);
+            maxInterval = Math.max(maxInterval, interval);
+        }
+        lastPresent = now;
+        if (inputTime != 0) {
+            long latency = now - inputTime;
+            inputs++;
+            latencySum += latency;
+            maxLatency = Math.max(maxLatency, latency);
+        }
+    }
+
+    /**
+     * Reset all counters.
+     */
+    public synchronized void reset() {
+        lastPresent = 0;
+        frames = 0;
+        intervals = 0;
+        mean = 0;
+        m2 = 0;
+        maxInterval = 0;
+        inputs = 0;
+        latencySum = 0;
+        maxLatency = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        double stdDev = (intervals > 1) ? Math.sqrt(m2 / (intervals - 1)) : 0;
+        return String.format(Locale.ROOT,
+                "%d frames, interval %.1f ms (std dev %.2f ms, max %.1f ms), input latency %.1f ms (max %.1f ms, %d inputs)",
+                frames, mean / 1e6, stdDev / 1e6, maxInterval / 1e6,
+                (inputs > 0) ? latencySum / 1e6 / inputs : 0.0, maxLatency / 1e6, inputs);
+    }
+}